@@ -28,10 +28,12 @@ import java.net.SocketTimeoutException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -66,6 +68,8 @@ import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
 import org.eclipse.aether.impl.DefaultServiceLocator;
 import org.eclipse.aether.installation.InstallRequest;
+import org.eclipse.aether.internal.impl.DefaultLocalPathComposer;
+import org.eclipse.aether.internal.impl.LocalPathComposer;
 import org.eclipse.aether.internal.impl.PaxLocalRepositoryManager;
 import org.eclipse.aether.internal.impl.slf4j.Slf4jLoggerFactory;
 import org.eclipse.aether.metadata.DefaultMetadata;
@@ -138,6 +142,11 @@ public class AetherBasedResolver implements MavenResolver {
     private static final String PROXY_PASSWORD = "proxyPassword";
     private static final String NON_PROXY_HOSTS = "nonProxyHosts";
 
+    /**
+     * Layout of default repositories - the same as used by {@link PaxLocalRepositoryManager}.
+     */
+    private static final LocalPathComposer LOCAL_PATH_COMPOSER = new DefaultLocalPathComposer();
+
     final private RepositorySystem m_repoSystem;
     final private MavenConfiguration m_config;
     final private MirrorSelector m_mirrorSelector;
@@ -146,10 +155,39 @@ public class AetherBasedResolver implements MavenResolver {
     private Settings m_settings;
     private ConfigurableSettingsDecrypter decrypter;
 
+    /**
+     * {@link Authentication} of servers from (decrypted) settings by server id.
+     */
+    final private Map<String, Authentication> m_authentications;
+    /**
+     * Configuration properties shared by all sessions - derived once from configuration and settings
+     * (e.g., {@code <httpHeaders>} of servers), so creating a session doesn't depend on number of servers.
+     */
+    final private Map<String, Object> m_sessionConfigProperties;
+
     private LocalRepository localRepository;
     private final ConcurrentMap<LocalRepository, Deque<RepositorySystemSession>> sessions
             = new ConcurrentHashMap<LocalRepository, Deque<RepositorySystemSession>>();
 
+    /**
+     * Number of recently resolved version ranges kept in {@link #resolvedVersions}.
+     */
+    private static final int RESOLVED_VERSIONS_SIZE = 1024;
+
+    /**
+     * Versions recently resolved from version ranges (including {@code LATEST}) against remote repositories (LRU).
+     * Keys contain groupId, artifactId, the range and the queried repositories. Each entry is valid as long as
+     * the update policy of these repositories doesn't require checking remote metadata again and the local
+     * metadata (of installed versions) is unchanged.
+     */
+    private final Map<String, ResolvedVersion> resolvedVersions = Collections.synchronizedMap(
+            new LinkedHashMap<String, ResolvedVersion>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ResolvedVersion> eldest) {
+                    return size() > RESOLVED_VERSIONS_SIZE;
+                }
+            });
+
     /**
      * Create a AetherBasedResolver
      *
@@ -171,6 +209,8 @@ public class AetherBasedResolver implements MavenResolver {
         m_settings = configuration.getSettings();
         m_repoSystem = newRepositorySystem();
         decryptSettings();
+        m_authentications = collectAuthentications();
+        m_sessionConfigProperties = collectSessionConfigProperties();
         m_proxySelector = selectProxies();
         m_mirrorSelector = selectMirrors(mirror);
     }
@@ -587,7 +627,7 @@ public class AetherBasedResolver implements MavenResolver {
             throw new IllegalArgumentException("url should be a mvn based url");
         }
         url = url.substring((ServiceConstants.PROTOCOL + ":").length());
-        Parser parser = new Parser(url);
+        Parser parser = Parser.parse(url);
         return resolve(
                 parser.getGroup(),
                 parser.getArtifact(),
@@ -714,6 +754,13 @@ public class AetherBasedResolver implements MavenResolver {
             // first, each "default repo" will be treated as local repo and resolution will be performed
             // without remote repositories
             for (LocalRepository repo : defaultRepos) {
+                if (vc.getVersion() != null && !artifact.isSnapshot()
+                        && !new File(repo.getBasedir(), LOCAL_PATH_COMPOSER.getPathForArtifact(artifact, true)).isFile()) {
+                    // fixed, non-SNAPSHOT version can't be resolved from a default repository without the file
+                    // being there - plain file check is much cheaper than borrowing a session and
+                    // going through the artifact resolver (important with many @multi default repositories)
+                    continue;
+                }
                 RepositorySystemSession session = newSession(repo);
                 try {
                     if (vc.getVersion() == null && vc.getRange() != null) {
@@ -1085,12 +1132,35 @@ public class AetherBasedResolver implements MavenResolver {
                                                List<RemoteRepository> remoteRepos, Artifact artifact)
             throws VersionRangeResolutionException {
 
+        String key = null;
+        long localMetadataModified = 0L;
+        if (isVersionRange(artifact.getVersion())) {
+            key = getResolvedVersionKey(remoteRepos, artifact);
+            // update policy applies to remote metadata only - versions installed locally are seen at once
+            localMetadataModified = getLocalMetadataModified(session, artifact);
+            ResolvedVersion cached = resolvedVersions.get(key);
+            if (cached != null) {
+                if (cached.expires > System.currentTimeMillis()
+                        && cached.localMetadataModified == localMetadataModified) {
+                    LOG.debug("Using cached resolution of version range {} as {}", artifact.getVersion(), cached.version);
+                    return artifact.setVersion(cached.version);
+                }
+                resolvedVersions.remove(key);
+            }
+        }
+
         VersionRangeResult versionResult = m_repoSystem.resolveVersionRange(session,
                 new VersionRangeRequest(artifact, remoteRepos, null));
         if (versionResult != null) {
             Version v = versionResult.getHighestVersion();
             if (v != null) {
-
+                if (key != null) {
+                    long now = System.currentTimeMillis();
+                    long expires = getResolvedVersionExpiration(session, remoteRepos, now);
+                    if (expires > now) {
+                        resolvedVersions.put(key, new ResolvedVersion(v.toString(), expires, localMetadataModified));
+                    }
+                }
                 artifact = artifact.setVersion(v.toString());
             } else {
                 throw new VersionRangeResolutionException(versionResult,
@@ -1100,6 +1170,88 @@ public class AetherBasedResolver implements MavenResolver {
         return artifact;
     }
 
+    private static boolean isVersionRange(String version) {
+        return version.startsWith("[") || version.startsWith("(");
+    }
+
+    private static String getResolvedVersionKey(List<RemoteRepository> remoteRepos, Artifact artifact) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(artifact.getGroupId()).append(':').append(artifact.getArtifactId())
+                .append(':').append(artifact.getVersion());
+        for (RemoteRepository repo : remoteRepos) {
+            sb.append('|').append(repo.getId()).append('@').append(repo.getUrl());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the modification time of metadata of versions installed in local repository (e.g.,
+     * {@code maven-metadata-local.xml}), {@code 0L} if there's no such metadata.
+     *
+     * @param session
+     * @param artifact
+     * @return modification time of local metadata
+     */
+    private static long getLocalMetadataModified(RepositorySystemSession session, Artifact artifact) {
+        LocalRepositoryManager lrm = session.getLocalRepositoryManager();
+        Metadata metadata = new DefaultMetadata(artifact.getGroupId(), artifact.getArtifactId(),
+                "maven-metadata.xml", Metadata.Nature.RELEASE_OR_SNAPSHOT);
+        return new File(lrm.getRepository().getBasedir(), lrm.getPathForLocalMetadata(metadata)).lastModified();
+    }
+
+    /**
+     * Calculates the time until which a version resolved from a range may be reused. This is the moment when
+     * the (global or the most eager per-repository) update policy would require checking remote metadata again.
+     *
+     * @param session
+     * @param remoteRepos
+     * @param now
+     * @return expiration time in milliseconds - a value not greater than {@code now} means "don't cache"
+     */
+    private long getResolvedVersionExpiration(RepositorySystemSession session,
+                                              List<RemoteRepository> remoteRepos, long now) {
+        String updatePolicy = session.getUpdatePolicy();
+        if (updatePolicy == null || updatePolicy.isEmpty()) {
+            updatePolicy = null;
+            for (RemoteRepository repo : remoteRepos) {
+                for (RepositoryPolicy policy : Arrays.asList(repo.getPolicy(false), repo.getPolicy(true))) {
+                    if (policy.isEnabled()) {
+                        updatePolicy = minUpdateInterval(updatePolicy, policy.getUpdatePolicy());
+                    }
+                }
+            }
+        }
+        if (updatePolicy == null) {
+            return now;
+        }
+
+        int intervalInMin;
+        try {
+            intervalInMin = getIntervalInMinutes(updatePolicy);
+        } catch (IllegalArgumentException e) {
+            return now;
+        }
+        switch (intervalInMin) {
+            case Integer.MAX_VALUE:
+                return Long.MAX_VALUE;
+            case Integer.MIN_VALUE:
+                return now;
+            case 24 * 60:
+                // same as org.eclipse.aether.internal.impl.DefaultUpdatePolicyAnalyzer - "daily" means
+                // "checked at most once per calendar day"
+                Calendar midnight = Calendar.getInstance();
+                midnight.setTimeInMillis(now);
+                midnight.set(Calendar.HOUR_OF_DAY, 0);
+                midnight.set(Calendar.MINUTE, 0);
+                midnight.set(Calendar.SECOND, 0);
+                midnight.set(Calendar.MILLISECOND, 0);
+                midnight.add(Calendar.DAY_OF_MONTH, 1);
+                return midnight.getTimeInMillis();
+            default:
+                return now + intervalInMin * 60L * 1000L;
+        }
+    }
+
     public RepositorySystemSession newSession() {
         return newSession(null);
     }
@@ -1160,10 +1312,27 @@ public class AetherBasedResolver implements MavenResolver {
             session.setChecksumPolicy(checksumPolicy);
         }
 
+        session.setOffline(m_config.isOffline());
+
+        for (Map.Entry<String, Object> property : m_sessionConfigProperties.entrySet()) {
+            session.setConfigProperty(property.getKey(), property.getValue());
+        }
+
+        return session;
+    }
+
+    /**
+     * Collects configuration properties that are the same for every {@link RepositorySystemSession}.
+     *
+     * @return unmodifiable map of session configuration properties
+     */
+    private Map<String, Object> collectSessionConfigProperties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+
         for (Server server : m_settings.getServers()) {
             if (server.getConfiguration() != null
                     && ((Xpp3Dom) server.getConfiguration()).getChild("httpHeaders") != null) {
-                addServerConfig(session, server);
+                addServerConfig(properties, server);
             }
         }
 
@@ -1177,16 +1346,14 @@ public class AetherBasedResolver implements MavenResolver {
         // config with: PartialFile.Factory timeout == connection timeout
         int defaultTimeut = m_config.getTimeout();
         Integer timeout = m_config.getProperty(ServiceConstants.PROPERTY_SOCKET_CONNECTION_TIMEOUT, defaultTimeut, Integer.class);
-        session.setConfigProperty(ConfigurationProperties.CONNECT_TIMEOUT, timeout);
-        session.setConfigProperty(ConfigurationProperties.REQUEST_TIMEOUT, timeout);
-
-        session.setOffline(m_config.isOffline());
+        properties.put(ConfigurationProperties.CONNECT_TIMEOUT, timeout);
+        properties.put(ConfigurationProperties.REQUEST_TIMEOUT, timeout);
 
         // PAXURL-322
         boolean updateReleases = m_config.getProperty(ServiceConstants.PROPERTY_UPDATE_RELEASES, false, Boolean.class);
-        session.setConfigProperty(PaxLocalRepositoryManager.PROPERTY_UPDATE_RELEASES, updateReleases);
+        properties.put(PaxLocalRepositoryManager.PROPERTY_UPDATE_RELEASES, updateReleases);
 
-        return session;
+        return Collections.unmodifiableMap(properties);
     }
 
     private LocalRepository getLocalRepository() {
@@ -1202,7 +1369,7 @@ public class AetherBasedResolver implements MavenResolver {
         return localRepository;
     }
 
-    private void addServerConfig(DefaultRepositorySystemSession session, Server server) {
+    private void addServerConfig(Map<String, Object> properties, Server server) {
         Map<String, String> headers = new HashMap<String, String>();
         Xpp3Dom configuration = (Xpp3Dom) server.getConfiguration();
         Xpp3Dom httpHeaders = configuration.getChild("httpHeaders");
@@ -1213,7 +1380,8 @@ public class AetherBasedResolver implements MavenResolver {
             String headerValue = value.getValue();
             headers.put(headerName, headerValue);
         }
-        session.setConfigProperty(String.format("%s.%s", ConfigurationProperties.HTTP_HEADERS, server.getId()), headers);
+        properties.put(String.format("%s.%s", ConfigurationProperties.HTTP_HEADERS, server.getId()),
+                Collections.unmodifiableMap(headers));
     }
 
     private Authentication getAuthentication(org.apache.maven.settings.Proxy proxy) {
@@ -1226,13 +1394,31 @@ public class AetherBasedResolver implements MavenResolver {
     }
 
     private Authentication getAuthentication(String repoId) {
-        Server server = m_settings.getServer(repoId);
-        if (server != null && server.getUsername() != null) {
-            AuthenticationBuilder authBuilder = new AuthenticationBuilder();
-            authBuilder.addUsername(server.getUsername()).addPassword(server.getPassword());
-            return authBuilder.build();
+        return m_authentications.get(repoId);
+    }
+
+    /**
+     * Creates {@link Authentication} for each server with credentials. Should be called after
+     * {@link #decryptSettings()}.
+     *
+     * @return unmodifiable map of authentications by server id
+     */
+    private Map<String, Authentication> collectAuthentications() {
+        Map<String, Authentication> authentications = new HashMap<String, Authentication>();
+        for (Server server : m_settings.getServers()) {
+            // the same as Settings.getServer(id) - first server with given id wins
+            if (server.getId() == null || authentications.containsKey(server.getId())) {
+                continue;
+            }
+            Authentication authentication = null;
+            if (server.getUsername() != null) {
+                AuthenticationBuilder authBuilder = new AuthenticationBuilder();
+                authBuilder.addUsername(server.getUsername()).addPassword(server.getPassword());
+                authentication = authBuilder.build();
+            }
+            authentications.put(server.getId(), authentication);
         }
-        return null;
+        return Collections.unmodifiableMap(authentications);
     }
 
     private RepositorySystem newRepositorySystem() {
@@ -1263,4 +1449,20 @@ public class AetherBasedResolver implements MavenResolver {
         return locator.getService(RepositorySystem.class);
     }
 
+    /**
+     * Concrete version resolved from a version range together with the time until which it may be reused and
+     * the modification time of local metadata it was resolved with.
+     */
+    private static class ResolvedVersion {
+        final String version;
+        final long expires;
+        final long localMetadataModified;
+
+        ResolvedVersion(String version, long expires, long localMetadataModified) {
+            this.version = version;
+            this.expires = expires;
+            this.localMetadataModified = localMetadataModified;
+        }
+    }
+
 }
@@ -95,8 +95,9 @@ public class Connection
         NullArgumentException.validateNotNull( resolver, "Service configuration" );
 
         m_resolver = resolver;
-        // Verify the url syntax, will throw an exception when invalid
-        new Parser( url.getPath() );
+        // Verify the url syntax, will throw an exception when invalid. Parsed url is remembered, so resolver
+        // doesn't have to parse it again
+        Parser.parse( url.getPath() );
     }
 
 
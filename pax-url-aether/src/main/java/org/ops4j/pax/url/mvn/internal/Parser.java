@@ -19,11 +19,15 @@
 package org.ops4j.pax.url.mvn.internal;
 
 import java.net.MalformedURLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.ops4j.pax.url.mvn.internal.config.MavenRepositoryURL;
 
 /**
  * Parser for mvn: protocol.<br/>
+ * Parser is immutable, so instances obtained using {@link #parse(String)} are shared.<br/>
  *
  * @author Alin Dreghiciu
  * @author Toni Menzel
@@ -51,7 +55,11 @@ public class Parser
     /**
      * Artifact definition segments separator.
      */
-    private static final String ARTIFACT_SEPARATOR = "/";
+    private static final char ARTIFACT_SEPARATOR = '/';
+    /**
+     * Maximum number of artifact definition segments (groupId/artifactId/version/type/classifier).
+     */
+    private static final int MAX_SEGMENTS = 5;
 
     /**
      * Snapshot version
@@ -66,10 +74,14 @@ public class Parser
      * Final artifact path separator.
      */
     public static final String FILE_SEPARATOR = "/";
+    /**
+     * Final artifact path separator, replacing group id separators.
+     */
+    private static final char FILE_SEPARATOR_CHAR = FILE_SEPARATOR.charAt( 0 );
     /**
      * Group id path separator.
      */
-    private static final String GROUP_SEPARATOR = "\\.";
+    private static final char GROUP_SEPARATOR = '.';
     /**
      * Separator used to constructs the artifact file name.
      */
@@ -90,80 +102,103 @@ public class Parser
      * Maven local metadata file.
      */
     private static final String METADATA_FILE_LOCAL = "maven-metadata-local.xml";
+    /**
+     * Number of recently parsed paths kept by {@link #parse(String)}.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Recently parsed paths (LRU).
+     */
+    private static final Map<String, Parser> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<String, Parser>( CACHE_SIZE, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String, Parser> eldest )
+            {
+                return size() > CACHE_SIZE;
+            }
+        }
+    );
 
     /**
      * Repository URL. Null if not present.
      */
-    private MavenRepositoryURL m_repositoryURL;
+    private final MavenRepositoryURL m_repositoryURL;
     /**
      * Artifact group id.
      */
-    private String m_group;
+    private final String m_group;
     /**
      * Artifact id.
      */
-    private String m_artifact;
+    private final String m_artifact;
     /**
      * Artifact version.
      */
-    private String m_version;
+    private final String m_version;
     /**
      * Artifact type.
      */
-    private String m_type;
+    private final String m_type;
     /**
      * Artifact classifier.
      */
-    private String m_classifier;
+    private final String m_classifier;
     /**
      * Artifact classifier to use to build artifact name.
      */
-    private String m_fullClassifier;
+    private final String m_fullClassifier;
 
     /**
-     * Creates a new protocol parser.
+     * Returns a (possibly shared) parser for given path. Recently parsed paths are not parsed again.
      *
      * @param path the path part of the url (without starting mvn:)
      *
+     * @return parser for the path
+     *
      * @throws MalformedURLException if provided path does not comply to expected syntax or an malformed repository URL
      */
-    public Parser( final String path )
+    public static Parser parse( final String path )
         throws MalformedURLException
     {
         if( path == null )
         {
             throw new MalformedURLException( "Path cannot be null. Syntax " + SYNTAX );
         }
-        if( path.startsWith( REPOSITORY_SEPARATOR ) || path.endsWith( REPOSITORY_SEPARATOR ) )
+        Parser parser = CACHE.get( path );
+        if( parser == null )
         {
-            throw new MalformedURLException(
-                "Path cannot start or end with " + REPOSITORY_SEPARATOR + ". Syntax " + SYNTAX
-            );
-        }
-        if( path.contains( REPOSITORY_SEPARATOR ) )
-        {
-            int pos = path.lastIndexOf( REPOSITORY_SEPARATOR );
-            parseArtifactPart( path.substring( pos + 1 ) );
-            m_repositoryURL = new MavenRepositoryURL( path.substring( 0, pos ) + "@snapshots" );
-        }
-        else
-        {
-            parseArtifactPart( path );
+            parser = new Parser( path );
+            CACHE.put( path, parser );
         }
+        return parser;
     }
 
     /**
-     * Parses the artifact part of the url ( without the repository).
+     * Creates a new protocol parser.
      *
-     * @param part url part without protocol and repository.
+     * @param path the path part of the url (without starting mvn:)
      *
-     * @throws MalformedURLException if provided path does not comply to syntax.
+     * @throws MalformedURLException if provided path does not comply to expected syntax or an malformed repository URL
      */
-    private void parseArtifactPart( final String part )
+    public Parser( final String path )
         throws MalformedURLException
     {
-        String[] segments = part.split( ARTIFACT_SEPARATOR );
-        if( segments.length < 2 )
+        if( path == null )
+        {
+            throw new MalformedURLException( "Path cannot be null. Syntax " + SYNTAX );
+        }
+        if( path.startsWith( REPOSITORY_SEPARATOR ) || path.endsWith( REPOSITORY_SEPARATOR ) )
+        {
+            throw new MalformedURLException(
+                "Path cannot start or end with " + REPOSITORY_SEPARATOR + ". Syntax " + SYNTAX
+            );
+        }
+        int pos = path.lastIndexOf( REPOSITORY_SEPARATOR );
+        // parse the artifact part of the url ( without the repository)
+        String[] segments = splitArtifactPart( path, pos + 1 );
+        if( segments[ 1 ] == null )
         {
             throw new MalformedURLException( "Invalid path. Syntax " + SYNTAX );
         }
@@ -179,25 +214,66 @@ public class Parser
         {
             throw new MalformedURLException( "Invalid artifactId. Syntax " + SYNTAX );
         }
-        // version is optional but we have a default value 
-        m_version = VERSION_LATEST;
-        if( segments.length >= 3 && segments[ 2 ].trim().length() > 0 )
-        {
-            m_version = segments[ 2 ];
-        }
+        // version is optional but we have a default value
+        m_version = isPresent( segments[ 2 ] ) ? segments[ 2 ] : VERSION_LATEST;
         // type is optional but we have a default value
-        m_type = TYPE_JAR;
-        if( segments.length >= 4 && segments[ 3 ].trim().length() > 0 )
-        {
-            m_type = segments[ 3 ];
-        }
+        m_type = isPresent( segments[ 3 ] ) ? segments[ 3 ] : TYPE_JAR;
         // classifier is optional (if not pressent or empty we will have a null classsifier
-        m_fullClassifier = "";
-        if( segments.length >= 5 && segments[ 4 ].trim().length() > 0 )
+        if( isPresent( segments[ 4 ] ) )
         {
             m_classifier = segments[ 4 ];
             m_fullClassifier = CLASSIFIER_SEPARATOR + m_classifier;
         }
+        else
+        {
+            m_classifier = null;
+            m_fullClassifier = "";
+        }
+        m_repositoryURL = pos >= 0 ? new MavenRepositoryURL( path.substring( 0, pos ) + "@snapshots" ) : null;
+    }
+
+    /**
+     * Splits the artifact part of the url into at most {@link #MAX_SEGMENTS} segments in single pass. Missing
+     * segments are <code>null</code>, segments after the last expected one are ignored.
+     *
+     * @param path  url part without protocol.
+     * @param start index of the artifact part (after repository).
+     *
+     * @return segments of artifact part
+     */
+    private static String[] splitArtifactPart( final String path, final int start )
+    {
+        final String[] segments = new String[ MAX_SEGMENTS ];
+        int from = start;
+        for( int i = 0; i < MAX_SEGMENTS; i++ )
+        {
+            int to = path.indexOf( ARTIFACT_SEPARATOR, from );
+            if( to < 0 )
+            {
+                segments[ i ] = path.substring( from );
+                break;
+            }
+            segments[ i ] = path.substring( from, to );
+            from = to + 1;
+        }
+        // same as String.split() - trailing empty segments are not present
+        for( int i = MAX_SEGMENTS - 1; i > 0; i-- )
+        {
+            if( segments[ i ] != null )
+            {
+                if( !segments[ i ].isEmpty() )
+                {
+                    break;
+                }
+                segments[ i ] = null;
+            }
+        }
+        return segments;
+    }
+
+    private static boolean isPresent( final String segment )
+    {
+        return segment != null && segment.trim().length() > 0;
     }
 
     /**
@@ -280,7 +356,7 @@ public class Parser
     public String getArtifactPath( final String version )
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
@@ -321,7 +397,7 @@ public class Parser
     public String getSnapshotPath( final String version, final String timestamp, final String buildnumber )
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
@@ -346,7 +422,7 @@ public class Parser
     public String getVersionMetadataPath( final String version )
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
@@ -366,7 +442,7 @@ public class Parser
     public String getVersionLocalMetadataPath( final String version )
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
@@ -384,7 +460,7 @@ public class Parser
     public String getArtifactLocalMetdataPath()
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
@@ -400,7 +476,7 @@ public class Parser
     public String getArtifactMetdataPath()
     {
         return new StringBuilder()
-            .append( m_group.replaceAll( GROUP_SEPARATOR, FILE_SEPARATOR ) )
+            .append( m_group.replace( GROUP_SEPARATOR, FILE_SEPARATOR_CHAR ) )
             .append( FILE_SEPARATOR )
             .append( m_artifact )
             .append( FILE_SEPARATOR )
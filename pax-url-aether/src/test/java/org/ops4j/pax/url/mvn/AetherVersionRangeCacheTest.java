@@ -0,0 +1,208 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.ops4j.pax.url.mvn;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.internal.AetherBasedResolver;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Test cases for reusing versions resolved from ranges within update policy interval
+ */
+public class AetherVersionRangeCacheTest {
+
+    private static final String METADATA = "/repository/org/ops4j/pax/web/pax-web-api/maven-metadata.xml";
+
+    private static Server server;
+    private static int port;
+
+    private static Map<String, Integer> HITS = new HashMap<>();
+
+    private File localRepository;
+
+    @BeforeClass
+    public static void startJetty() throws Exception {
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException, ServletException {
+                try {
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    if (request.getRequestURI().endsWith("/maven-metadata.xml")) {
+                        response.getOutputStream().write(("<metadata>\n"
+                                + "  <groupId>org.ops4j.pax.web</groupId>\n"
+                                + "  <artifactId>pax-web-api</artifactId>\n"
+                                + "  <versioning>\n"
+                                + "    <latest>1.1</latest>\n"
+                                + "    <release>1.1</release>\n"
+                                + "    <versions>\n"
+                                + "      <version>1.0</version>\n"
+                                + "      <version>1.1</version>\n"
+                                + "    </versions>\n"
+                                + "  </versioning>\n"
+                                + "</metadata>\n").getBytes("UTF-8"));
+                    } else {
+                        response.getOutputStream().write(0x42);
+                    }
+                } finally {
+                    synchronized (HITS) {
+                        if (!HITS.containsKey(request.getRequestURI())) {
+                            HITS.put(request.getRequestURI(), 0);
+                        }
+                        HITS.put(request.getRequestURI(), HITS.get(request.getRequestURI()) + 1);
+                    }
+                    baseRequest.setHandled(true);
+                }
+            }
+        });
+        server.start();
+        port = server.getConnectors()[0].getLocalPort();
+    }
+
+    @Before
+    public void init() {
+        HITS.clear();
+        localRepository = new File("target/" + UUID.randomUUID().toString());
+    }
+
+    @Test
+    public void updatePolicyDailyReusesResolvedRange() throws Exception {
+        AetherBasedResolver resolver = new AetherBasedResolver(basicMavenConfiguration(RepositoryPolicy.UPDATE_POLICY_DAILY));
+
+        File f1 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/LATEST");
+        File f2 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/LATEST");
+        File f3 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+        File f4 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+
+        assertThat(f1.getName(), equalTo("pax-web-api-1.1.jar"));
+        assertThat(f2, equalTo(f1));
+        assertThat(f3, equalTo(f1));
+        assertThat(f4, equalTo(f1));
+        assertThat(HITS.get(METADATA), equalTo(1));
+    }
+
+    @Test
+    public void resolvedRangeIsReusedWithoutRemoteMetadata() throws Exception {
+        AetherBasedResolver resolver = new AetherBasedResolver(basicMavenConfiguration(RepositoryPolicy.UPDATE_POLICY_DAILY));
+
+        File f1 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+        // without copy of remote metadata (and its update check status), aether would download it again
+        delete(artifactDirectory());
+        File f2 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+
+        assertThat(f1.getName(), equalTo("pax-web-api-1.1.jar"));
+        assertThat(f2.getName(), equalTo("pax-web-api-1.1.jar"));
+        assertThat(HITS.get(METADATA), equalTo(1));
+    }
+
+    @Test
+    public void locallyInstalledVersionIsResolvedAtOnce() throws Exception {
+        AetherBasedResolver resolver = new AetherBasedResolver(basicMavenConfiguration(RepositoryPolicy.UPDATE_POLICY_DAILY));
+
+        File f1 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+        Files.write(new File(artifactDirectory(), "maven-metadata-local.xml").toPath(), ("<metadata>\n"
+                + "  <groupId>org.ops4j.pax.web</groupId>\n"
+                + "  <artifactId>pax-web-api</artifactId>\n"
+                + "  <versioning>\n"
+                + "    <versions>\n"
+                + "      <version>1.5</version>\n"
+                + "    </versions>\n"
+                + "  </versioning>\n"
+                + "</metadata>\n").getBytes("UTF-8"));
+        File f2 = resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/[1.0,2.0)");
+
+        assertThat(f1.getName(), equalTo("pax-web-api-1.1.jar"));
+        assertThat(f2.getName(), equalTo("pax-web-api-1.5.jar"));
+        // update policy applies to remote metadata only
+        assertThat(HITS.get(METADATA), equalTo(1));
+    }
+
+    @Test
+    public void updatePolicyAlwaysDoesNotReuseResolvedRange() throws Exception {
+        AetherBasedResolver resolver = new AetherBasedResolver(basicMavenConfiguration(RepositoryPolicy.UPDATE_POLICY_ALWAYS));
+
+        resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/LATEST");
+        resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/LATEST");
+        resolver.resolve("mvn:org.ops4j.pax.web/pax-web-api/LATEST");
+
+        assertThat(HITS.get(METADATA), equalTo(3));
+    }
+
+    @AfterClass
+    public static void stopJetty() throws Exception {
+        server.stop();
+    }
+
+    private File artifactDirectory() {
+        return new File(localRepository, "org/ops4j/pax/web/pax-web-api");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private MavenConfigurationImpl basicMavenConfiguration(String globalUpdatePolicy) {
+        Properties properties = new Properties();
+        properties.setProperty("pid.localRepository", localRepository.getPath());
+        properties.setProperty("pid.timeout", "1000");
+        properties.setProperty("pid.repositories", "http://everfree-forest/repository@id=single-repo");
+        properties.setProperty("pid.globalChecksumPolicy", "ignore");
+        properties.setProperty("pid.globalUpdatePolicy", globalUpdatePolicy);
+        properties.setProperty("pid.connection.retryCount", "0");
+        MavenConfigurationImpl mavenConfiguration = new MavenConfigurationImpl(new PropertiesPropertyResolver(properties), "pid");
+
+        Settings settings = new Settings();
+        Proxy proxy = new Proxy();
+        proxy.setId("proxy");
+        proxy.setHost("localhost");
+        proxy.setPort(port);
+        proxy.setProtocol("http");
+        settings.setProxies(Collections.singletonList(proxy));
+        mavenConfiguration.setSettings(settings);
+        return mavenConfiguration;
+    }
+
+}
@@ -20,6 +20,7 @@ package org.ops4j.pax.url.mvn.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -28,6 +29,7 @@ import org.junit.Test;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
 import org.ops4j.util.property.PropertiesPropertyResolver;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -47,12 +49,62 @@ public class AetherMultiResolutionTest {
         assertTrue(resolver.resolve("mvn:ant/ant/1.5.2-SNAPSHOT").getCanonicalPath().endsWith("r2/ant/ant/1.5.2-SNAPSHOT/ant-1.5.2-SNAPSHOT.jar"));
     }
 
+    /**
+     * Default repositories without the file of a fixed version are skipped, the first one with the file wins, while
+     * ranges and SNAPSHOTs still go through the resolver
+     */
+    @Test
+    public void multiRepoFirstWithFileWins() throws IOException {
+        File multiRepoRoot = new File("target/" + UUID.randomUUID().toString());
+        try {
+            write(multiRepoRoot, "r1/org/ops4j/b/1.1-SNAPSHOT/b-1.1-SNAPSHOT.jar");
+            write(multiRepoRoot, "r2/org/ops4j/a/1.0/a-1.0.jar");
+            write(multiRepoRoot, "r3/org/ops4j/a/1.0/a-1.0.jar");
+            write(multiRepoRoot, "r3/org/ops4j/a/1.5/a-1.5.jar");
+            AetherBasedResolver resolver = new AetherBasedResolver(
+                    basicMavenConfiguration(RepositoryPolicy.UPDATE_POLICY_ALWAYS, multiRepoRoot));
+
+            // r1 has no 1.0 file, r2 and r3 have it
+            assertEquals("r2/org/ops4j/a/1.0/a-1.0.jar", read(resolver.resolve("mvn:org.ops4j/a/1.0")));
+            // range is resolved against r1 (no version of a), then r2
+            assertEquals("r2/org/ops4j/a/1.0/a-1.0.jar", read(resolver.resolve("mvn:org.ops4j/a/[1.0,2.0)")));
+            assertEquals("r3/org/ops4j/a/1.5/a-1.5.jar", read(resolver.resolve("mvn:org.ops4j/a/1.5")));
+            assertEquals("r1/org/ops4j/b/1.1-SNAPSHOT/b-1.1-SNAPSHOT.jar",
+                    read(resolver.resolve("mvn:org.ops4j/b/1.1-SNAPSHOT")));
+        } finally {
+            delete(multiRepoRoot);
+        }
+    }
+
+    private static void write(File root, String path) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), path.getBytes("UTF-8"));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
     private MavenConfigurationImpl basicMavenConfiguration(String globalUpdatePolicy) {
+        return basicMavenConfiguration(globalUpdatePolicy, new File("src/test/resources", "repomulti_snapshots"));
+    }
+
+    private MavenConfigurationImpl basicMavenConfiguration(String globalUpdatePolicy, File multiRepoRoot) {
         Properties properties = new Properties();
         properties.setProperty("pid.localRepository", "target/" + UUID.randomUUID().toString());
         properties.setProperty("pid.repositories", "");
 
-        File multiRepoRoot = new File("src/test/resources", "repomulti_snapshots");
         properties.setProperty("pid.defaultRepositories", multiRepoRoot.toURI().toString() + "@multi@snapshots@id=my-multirepo");
         properties.setProperty("pid.globalChecksumPolicy", "ignore");
         properties.setProperty("pid.globalUpdatePolicy", globalUpdatePolicy);
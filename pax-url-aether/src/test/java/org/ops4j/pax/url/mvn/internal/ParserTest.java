@@ -34,6 +34,13 @@ public class ParserTest
         new Parser( null );
     }
 
+    @Test( expected = MalformedURLException.class )
+    public void parseWithNullPath()
+        throws MalformedURLException
+    {
+        Parser.parse( null );
+    }
+
     @Test( expected = MalformedURLException.class )
     public void urlStartingWithRepositorySeparator()
         throws MalformedURLException
@@ -296,4 +303,31 @@ public class ParserTest
         );
     }
 
+    @Test( expected = MalformedURLException.class )
+    public void urlWithTrailingSeparatorAndNoArtifact()
+        throws MalformedURLException
+    {
+        new Parser( "group//" );
+    }
+
+    @Test
+    public void urlWithMoreThanFiveSegments()
+        throws MalformedURLException
+    {
+        Parser parser = new Parser( "group/artifact/version/type/classifier/ignored" );
+        assertEquals( "Classifier", "classifier", parser.getClassifier() );
+        assertEquals( "Artifact path", "group/artifact/version/artifact-version-classifier.type",
+                      parser.getArtifactPath()
+        );
+    }
+
+    @Test
+    public void parsedUrlIsShared()
+        throws MalformedURLException
+    {
+        Parser parser = Parser.parse( "group/artifact/version/type" );
+        assertSame( "Shared parser", parser, Parser.parse( "group/artifact/version/type" ) );
+        assertEquals( "Type", "type", parser.getType() );
+    }
+
 }
@@ -17,7 +17,13 @@
  */
 package org.ops4j.pax.url.assembly.internal;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.ops4j.lang.NullArgumentException;
 
 /**
@@ -34,6 +40,14 @@ class JarResource
      * Resource URL.
      */
     private final URL m_url;
+    /**
+     * Archive file containing the resource, null if not a local file.
+     */
+    private final File m_archive;
+    /**
+     * Resource path in archive.
+     */
+    private final String m_path;
 
     /**
      * Constructor.
@@ -41,6 +55,18 @@ class JarResource
      * @param url resource url
      */
     JarResource( final URL url )
+    {
+        this( url, null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param url     resource url
+     * @param archive archive file containing the resource, null if not a local file
+     */
+    JarResource( final URL url,
+                 final File archive )
     {
         NullArgumentException.validateNotNull( url, "Resource url" );
         if( !"jar".equals( url.getProtocol() )
@@ -49,6 +75,9 @@ class JarResource
             throw new IllegalArgumentException( String.format( "URL [%s] is not referring to a jar resource", url ) );
         }
         m_url = url;
+        m_archive = archive;
+        final String externalForm = url.toExternalForm();
+        m_path = externalForm.substring( externalForm.lastIndexOf( "!/" ) + 2 );
     }
 
     /**
@@ -58,8 +87,38 @@ class JarResource
      */
     public String path()
     {
-        final String externalForm = m_url.toExternalForm();
-        return externalForm.substring( externalForm.lastIndexOf( "!/" ) + 2 );
+        return m_path;
+    }
+
+    /**
+     * Opens the resource content, reading it directly from the archive if the archive is a local file.
+     *
+     * @param archives archives opened so far by archive file, to which the archive of this resource is added if
+     *                 opened; to be closed by caller
+     *
+     * @return resource content
+     *
+     * @throws IOException - If resource cannot be read
+     */
+    InputStream openStream( final Map<File, ZipFile> archives )
+        throws IOException
+    {
+        if( m_archive == null )
+        {
+            return m_url.openStream();
+        }
+        ZipFile zip = archives.get( m_archive );
+        if( zip == null )
+        {
+            zip = new ZipFile( m_archive );
+            archives.put( m_archive, zip );
+        }
+        final ZipEntry entry = zip.getEntry( m_path );
+        if( entry == null )
+        {
+            throw new IOException( String.format( "Archive [%s] does not contain [%s]", m_archive, m_path ) );
+        }
+        return zip.getInputStream( entry );
     }
 
     /**
@@ -24,8 +24,14 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipFile;
 
@@ -52,6 +58,24 @@ class ResourceAssembly
      */
     private static final Logger LOGGER = LoggerFactory.getLogger( ResourceAssembly.class );
 
+    /**
+     * Maximum number of kept archive listings.
+     */
+    private static final int MAX_LISTINGS = 32;
+
+    /**
+     * Kept listings of archive sources, by archive path, last modification time, size and patterns, least recently
+     * used first.
+     */
+    private static final Map<String, List<URL>> LISTINGS = new LinkedHashMap<String, List<URL>>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, List<URL>> eldest )
+        {
+            return size() > MAX_LISTINGS;
+        }
+    };
+
     /**
      * Resources that makes up this assembly.
      */
@@ -144,22 +168,22 @@ class ResourceAssembly
         // on this point we may have a zip
         try
         {
-            ZipFile zip = null;
+            File zip = null;
             URL baseUrl = null;
             if( file != null && file.exists() )
             // try out a zip from the file we have
             {
-                zip = new ZipFile( file );
+                zip = file;
                 baseUrl = file.toURI().toURL();
             }
             else if( url != null )
             {
-                zip = new ZipFile( url.toExternalForm() );
+                zip = new File( url.toExternalForm() );
                 baseUrl = url;
             }
             if( zip != null && baseUrl != null )
             {
-                list( new ZipLister( baseUrl, zip.entries(), source.includes(), source.excludes() ), policy );
+                list( zip, listArchive( zip, baseUrl, source ), policy );
                 return;
             }
         }
@@ -179,7 +203,11 @@ class ResourceAssembly
             {
                 final URL jarUrl = new URL( "jar:" + url.toURI().toASCIIString() + "!/" );
                 final JarURLConnection jar = (JarURLConnection) jarUrl.openConnection();
-                list( new ZipLister( url, jar.getJarFile().entries(), source.includes(), source.excludes() ), policy );
+                list(
+                    null,
+                    copy( new ZipLister( url, jar.getJarFile().entries(), source.includes(), source.excludes() ) ),
+                    policy
+                );
                 return;
             }
             catch( IOException ignore )
@@ -216,14 +244,80 @@ class ResourceAssembly
         }
     }
 
-    private void list( final Lister lister,
+    /**
+     * Adds the resources of an archive.
+     *
+     * @param archive archive file, null if not a local file
+     * @param urls    jar urls of archive entries
+     * @param policy  merging policy
+     */
+    private void list( final File archive,
+                       final List<URL> urls,
                        final MergePolicy policy )
+    {
+        for( URL url : urls )
+        {
+            policy.addResource( new JarResource( url, archive ), m_resources );
+        }
+    }
+
+    /**
+     * Lists the entries of an archive matching source patterns. Listing is reused while archive is not changed.
+     *
+     * @param archive archive file
+     * @param baseUrl archive url
+     * @param source  source
+     *
+     * @return jar urls of matching entries
+     *
+     * @throws IOException - If archive cannot be read
+     */
+    private static List<URL> listArchive( final File archive,
+                                          final URL baseUrl,
+                                          final Source source )
+        throws IOException
+    {
+        final String key = archive.getAbsolutePath()
+                           + "$" + archive.lastModified()
+                           + "$" + archive.length()
+                           + "$" + baseUrl
+                           + "$" + Arrays.toString( source.includes() )
+                           + "$" + Arrays.toString( source.excludes() );
+        synchronized( LISTINGS )
+        {
+            final List<URL> urls = LISTINGS.get( key );
+            if( urls != null )
+            {
+                LOGGER.trace( String.format( "Reusing listing of archive [%s]", archive ) );
+                return urls;
+            }
+        }
+        final ZipFile zip = new ZipFile( archive );
+        final List<URL> urls;
+        try
+        {
+            urls = copy( new ZipLister( baseUrl, zip.entries(), source.includes(), source.excludes() ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+        synchronized( LISTINGS )
+        {
+            LISTINGS.put( key, urls );
+        }
+        return urls;
+    }
+
+    private static List<URL> copy( final Lister lister )
         throws IOException
     {
+        final List<URL> urls = new ArrayList<URL>();
         for( URL url : lister.list() )
         {
-            policy.addResource( new JarResource( url ), m_resources );
+            urls.add( url );
         }
+        return Collections.unmodifiableList( urls );
     }
 
     /**
@@ -17,19 +17,24 @@
  */
 package org.ops4j.pax.url.assembly.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipFile;
 import org.ops4j.io.StreamUtils;
 import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.url.commons.io.ContentStreams;
 
 /**
- * Resources to jar adapter.
+ * Resources to jar adapter. Each archive, resources of which are part of the jar, is opened once while writing.
  *
  * @author Alin Dreghiciu
  * @since 1.1.0, August 31, 2009
@@ -51,56 +56,64 @@ class VirtualJar
     InputStream inputStream()
         throws IOException
     {
-        final PipedOutputStream pos = new PipedOutputStream();
-        final PipedInputStream pis = new PipedInputStream( pos );
-        new Thread()
+        return ContentStreams.pipe( "assembly", new ContentStreams.Content()
         {
 
-            public void run()
+            public void writeTo( final OutputStream out )
+                throws IOException
             {
-                JarOutputStream jos = null;
-                try
+                final JarOutputStream jos;
+                if( m_manifest == null )
+                {
+                    jos = new JarOutputStream( out );
+                }
+                else
                 {
-                    if( m_manifest == null )
+                    // not cached, so a manifest read from an archive does not keep it open
+                    final URLConnection connection = m_manifest.openConnection();
+                    connection.setUseCaches( false );
+                    final InputStream manifest = connection.getInputStream();
+                    try
                     {
-                        jos = new JarOutputStream( pos );
+                        jos = new JarOutputStream( out, new Manifest( manifest ) );
                     }
-                    else
+                    finally
                     {
-                        jos = new JarOutputStream( pos, new Manifest( m_manifest.openStream() ) );
+                        manifest.close();
                     }
+                }
+                final Map<File, ZipFile> archives = new HashMap<File, ZipFile>();
+                try
+                {
                     for( Resource resource : m_resources )
                     {
                         if( !"META-INF/MANIFEST.MF".equals( resource.path() ) )
                         {
                             jos.putNextEntry( new JarEntry( resource.path() ) );
-                            StreamUtils.copyStream( resource.url().openStream(), jos, false );
+                            final InputStream in = resource instanceof JarResource
+                                                   ? ( (JarResource) resource ).openStream( archives )
+                                                   : resource.url().openStream();
+                            try
+                            {
+                                StreamUtils.copyStream( in, jos, false );
+                            }
+                            finally
+                            {
+                                in.close();
+                            }
                         }
                     }
                 }
-
-                catch( IOException e )
-                {
-                    throw new RuntimeException( "Could not process resources", e );
-                }
                 finally
                 {
-                    try
-                    {
-                        if( jos != null )
-                        {
-                            jos.close();
-                        }
-                    }
-                    catch( Exception ignore )
+                    for( ZipFile archive : archives.values() )
                     {
-                        //  ignore
+                        archive.close();
                     }
+                    jos.close();
                 }
             }
-        }.start();
-
-        return pis;
+        } );
     }
 
 }
\ No newline at end of file
@@ -13,11 +13,22 @@
  */
 package org.ops4j.pax.url.assembly.internal;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.Test;
 import org.ops4j.io.FileUtils;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * {@link ResourceAssembly} unit tests.
  *
@@ -70,4 +81,83 @@ public class ResourceAssembyTest
         );
     }
 
-}
\ No newline at end of file
+    @Test
+    public void zipEntriesAreReadFromChangedZip()
+        throws IOException
+    {
+        final File zip = File.createTempFile( "assembly", ".zip", new File( "target" ) );
+        try
+        {
+            final Map<String, String> content = new HashMap<String, String>();
+            content.put( "a.txt", "first" );
+            content.put( "dir/b.txt", "second" );
+            writeZip( zip, content );
+            assertEquals( content, readAssembly( zip ) );
+
+            content.put( "dir/b.txt", "changed" );
+            content.put( "c.txt", "added" );
+            writeZip( zip, content );
+            assertEquals( content, readAssembly( zip ) );
+        }
+        finally
+        {
+            zip.delete();
+        }
+    }
+
+    private static Map<String, String> readAssembly( final File zip )
+        throws IOException
+    {
+        final ResourceAssembly assembly = new ResourceAssembly(
+            new Source[]{ new PathEncodedSource( zip.getCanonicalPath() ) },
+            MergePolicy.FIRST
+        );
+        final Map<String, String> content = new HashMap<String, String>();
+        final JarInputStream jar = new JarInputStream( new VirtualJar( null, assembly ).inputStream() );
+        try
+        {
+            JarEntry entry;
+            while( ( entry = jar.getNextJarEntry() ) != null )
+            {
+                content.put( entry.getName(), read( jar ) );
+            }
+        }
+        finally
+        {
+            jar.close();
+        }
+        return content;
+    }
+
+    private static void writeZip( final File zip, final Map<String, String> content )
+        throws IOException
+    {
+        final ZipOutputStream out = new ZipOutputStream( new FileOutputStream( zip ) );
+        try
+        {
+            for( Map.Entry<String, String> entry : content.entrySet() )
+            {
+                out.putNextEntry( new ZipEntry( entry.getKey() ) );
+                out.write( entry.getValue().getBytes( "UTF-8" ) );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String read( final InputStream in )
+        throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int read;
+        while( ( read = in.read( buffer ) ) >= 0 )
+        {
+            out.write( buffer, 0, read );
+        }
+        return new String( out.toByteArray(), "UTF-8" );
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Helper to create Maven repositories (remote, default and {@code @multi} ones) on disk.
+ */
+public final class Repositories {
+
+    public static final String GROUP_ID = "org.ops4j.pax.url.benchmarks";
+
+    private static final byte[] JAR = new byte[] { 0x50, 0x4b, 0x05, 0x06, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    private Repositories() {
+    }
+
+    /**
+     * Creates a jar artifact and a pom for each version in given repository and writes
+     * artifact-level {@code maven-metadata.xml} listing all the versions.
+     *
+     * @param repository root of repository
+     * @param artifactId
+     * @param versions
+     */
+    public static void createArtifact(File repository, String artifactId, String... versions) throws IOException {
+        File gaDir = new File(repository, GROUP_ID.replace('.', '/') + "/" + artifactId);
+        StringBuilder metadata = new StringBuilder();
+        metadata.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+        metadata.append("  <groupId>").append(GROUP_ID).append("</groupId>\n");
+        metadata.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+        metadata.append("  <versioning>\n");
+        metadata.append("    <latest>").append(versions[versions.length - 1]).append("</latest>\n");
+        metadata.append("    <release>").append(versions[versions.length - 1]).append("</release>\n");
+        metadata.append("    <versions>\n");
+        for (String version : versions) {
+            File versionDir = new File(gaDir, version);
+            versionDir.mkdirs();
+            String name = artifactId + "-" + version;
+            Files.write(new File(versionDir, name + ".jar").toPath(), JAR);
+            Files.write(new File(versionDir, name + ".pom").toPath(), pom(artifactId, version));
+            metadata.append("      <version>").append(version).append("</version>\n");
+        }
+        metadata.append("    </versions>\n");
+        metadata.append("    <lastUpdated>20200101000000</lastUpdated>\n");
+        metadata.append("  </versioning>\n</metadata>\n");
+        Files.write(new File(gaDir, "maven-metadata.xml").toPath(), metadata.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a directory to be used as {@code @multi} repository. Each child directory is a separate
+     * repository with own artifact named {@code multi-&lt;index&gt;}.
+     *
+     * @param parent
+     * @param children number of child repositories
+     */
+    public static void createMultiRepository(File parent, int children) throws IOException {
+        for (int i = 0; i < children; i++) {
+            createArtifact(new File(parent, childName(i)), "multi-" + i, "1.0");
+        }
+    }
+
+    public static String childName(int index) {
+        return String.format("child-%05d", index);
+    }
+
+    public static void delete(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static byte[] pom(String artifactId, String version) {
+        return ("<project>\n"
+                + "  <modelVersion>4.0.0</modelVersion>\n"
+                + "  <groupId>" + GROUP_ID + "</groupId>\n"
+                + "  <artifactId>" + artifactId + "</artifactId>\n"
+                + "  <version>" + version + "</version>\n"
+                + "</project>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
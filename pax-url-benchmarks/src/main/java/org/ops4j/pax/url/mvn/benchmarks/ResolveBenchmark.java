@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.ops4j.pax.url.mvn.MavenResolvers;
+
+import static org.ops4j.pax.url.mvn.benchmarks.Repositories.GROUP_ID;
+
+/**
+ * <p>Benchmarks of {@code mvn:} resolution hot path ({@link MavenResolver#resolve(String)} and
+ * {@link MavenResolver#resolveMetadata}).</p>
+ * <p>Remote repository is served by embedded {@link RepositoryServer}, default and {@code @multi}
+ * repositories are generated in temporary directory. Run (and record a baseline) with:<pre>
+ * java -jar pax-url-benchmarks/target/benchmarks.jar -rf json -rff baseline.json
+ * </pre></p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResolveBenchmark {
+
+    private static final String PID = "org.ops4j.pax.url.mvn";
+
+    /**
+     * Number of child repositories inside {@code @multi} default repository.
+     */
+    @Param({ "1", "50", "200" })
+    public int multiChildren;
+
+    private File workDir;
+    private RepositoryServer server;
+    private MavenResolver resolver;
+    private String multiUrl;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        workDir = Files.createTempDirectory("pax-url-benchmarks").toFile();
+
+        File remote = new File(workDir, "remote");
+        Repositories.createArtifact(remote, "remote-artifact", "1.0", "1.1");
+        server = new RepositoryServer(remote);
+
+        File defaultRepository = new File(workDir, "default");
+        Repositories.createArtifact(defaultRepository, "default-artifact", "1.0", "1.1", "1.2");
+
+        File multi = new File(workDir, "multi");
+        Repositories.createMultiRepository(multi, multiChildren);
+        multiUrl = "mvn:" + GROUP_ID + "/multi-" + (multiChildren - 1) + "/1.0";
+
+        Dictionary<String, String> properties = new Hashtable<>();
+        properties.put(PID + ".localRepository", new File(workDir, "local").getAbsolutePath());
+        properties.put(PID + ".repositories", server.getUrl() + "@id=remote");
+        properties.put(PID + ".defaultRepositories",
+                defaultRepository.toURI().toString() + "@id=default,"
+                        + multi.toURI().toString() + "@id=multi@multi");
+        properties.put(PID + ".useFallbackRepositories", "false");
+        properties.put(PID + ".globalChecksumPolicy", "ignore");
+        properties.put(PID + ".globalUpdatePolicy", "never");
+        properties.put(PID + ".connection.retryCount", "0");
+        resolver = MavenResolvers.createMavenResolver(properties, PID);
+
+        // download remote artifact to local repository, so later resolutions are local hits
+        resolver.resolve("mvn:" + GROUP_ID + "/remote-artifact/1.1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        resolver.close();
+        server.close();
+        Repositories.delete(workDir);
+    }
+
+    @Benchmark
+    public File localRepositoryHit() throws IOException {
+        return resolver.resolve("mvn:" + GROUP_ID + "/remote-artifact/1.1");
+    }
+
+    @Benchmark
+    public File defaultRepositoryHit() throws IOException {
+        return resolver.resolve("mvn:" + GROUP_ID + "/default-artifact/1.2");
+    }
+
+    @Benchmark
+    public File multiRepositoryHit() throws IOException {
+        return resolver.resolve(multiUrl);
+    }
+
+    @Benchmark
+    public File defaultRepositoryVersionRange() throws IOException {
+        return resolver.resolve("mvn:" + GROUP_ID + "/default-artifact/[1.0,2.0)");
+    }
+
+    @Benchmark
+    public File remoteRepositoryLatest() throws IOException {
+        return resolver.resolve("mvn:" + GROUP_ID + "/remote-artifact/LATEST");
+    }
+
+    @Benchmark
+    public File resolveMetadata() throws IOException {
+        File merged = resolver.resolveMetadata(GROUP_ID, "remote-artifact", "maven-metadata.xml", null);
+        if (merged != null) {
+            merged.delete();
+        }
+        return merged;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public File concurrentLocalRepositoryHit() throws IOException {
+        return resolver.resolve("mvn:" + GROUP_ID + "/remote-artifact/1.1");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public File concurrentMultiRepositoryHit() throws IOException {
+        return resolver.resolve(multiUrl);
+    }
+
+}
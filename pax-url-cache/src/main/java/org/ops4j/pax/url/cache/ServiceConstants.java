@@ -45,4 +45,47 @@ public interface ServiceConstants
      */
     static final String DEFAULT_ROOT_DIRECTORY = "./cache";
 
+    /**
+     * Time to live (in seconds) of cached entries configuration property name. An entry older than that is
+     * revalidated against the origin url (using conditional request if supported) before being served.
+     */
+    static final String PROPERTY_TIME_TO_LIVE = PID + ".timeToLive";
+
+    /**
+     * Default time to live. Negative value means that cached entries never expire.
+     */
+    static final long DEFAULT_TIME_TO_LIVE = -1;
+
+    /**
+     * Maximum total size (in bytes) of cached data configuration property name. When exceeded, least recently
+     * used entries are evicted from working directory.
+     */
+    static final String PROPERTY_MAX_SIZE = PID + ".maxSize";
+
+    /**
+     * Default maximum size. Negative value means that the size of cache is not limited.
+     */
+    static final long DEFAULT_MAX_SIZE = -1;
+
+    /**
+     * Memory tier size (in bytes) configuration property name. Small entries are kept in memory, in front of the
+     * working directory, till their total size reaches this budget.
+     */
+    static final String PROPERTY_MEMORY_SIZE = PID + ".memorySize";
+
+    /**
+     * Default memory tier size. Zero means that the memory tier is disabled.
+     */
+    static final long DEFAULT_MEMORY_SIZE = 0;
+
+    /**
+     * Maximum size (in bytes) of an entry to be kept in memory tier configuration property name.
+     */
+    static final String PROPERTY_MEMORY_ENTRY_SIZE = PID + ".memoryEntrySize";
+
+    /**
+     * Default maximum size of an entry kept in memory tier.
+     */
+    static final long DEFAULT_MEMORY_ENTRY_SIZE = 64 * 1024;
+
 }
\ No newline at end of file
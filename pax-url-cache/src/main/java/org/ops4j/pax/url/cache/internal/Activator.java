@@ -72,6 +72,18 @@ public final class Activator
         );
     }
 
+    /**
+     * Closes the caches of working directories as well.
+     *
+     * @see HandlerActivator#stop(BundleContext)
+     */
+    @Override
+    public void stop( final BundleContext bundleContext )
+    {
+        super.stop( bundleContext );
+        Cache.closeAll();
+    }
+
     /**
      * Creates a "cache" url connection.
      *
@@ -0,0 +1,1675 @@
+/*
+ * Copyright 2009 Alin Dreghiciu.
+ *
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Cache of resources stored in a working directory. There is one instance per working directory, shared by all
+ * connections.<br/>
+ * On a miss, the origin content is streamed through to the reader while written to a temporary file, which is moved
+ * in place atomically only once read completely, so a reader never sees a partially written entry. Readers of an url
+ * being filled (or revalidated) by another thread wait for it as long as it makes progress. Downloads are not done
+ * holding fill locks, so they do not block other urls. Cache hits are pure reads.<br/>
+ * Entries (url, data file key, timestamps and size) are recorded in a single append-only index file per working
+ * directory, loaded once and compacted when it gets mostly obsolete. Data file keys are 64 bit FNV-1a hashes of the
+ * url, probing the next value on collision. Files not in index are deleted when the cache is created, unless another
+ * cache (of this or another process) uses the working directory.<br/>
+ * Entries older than time to live are revalidated against their origin (conditional request for http) and, if a
+ * maximum size is configured, least recently used entries are evicted once cached data outgrows it.<br/>
+ * Optionally, small entries are also kept in a bounded (least recently used) memory tier, so they are served without
+ * file system access.
+ *
+ * @author Alin Dreghiciu (adreghiciu@gmail.com)
+ * @since 06 02, 2009
+ */
+class Cache
+{
+
+    /**
+     * Index file name.
+     */
+    private static final String INDEX = "cache.index";
+    /**
+     * Lock file name. Caches hold a shared lock on it while open; files not in index are deleted only by a cache that
+     * could lock it exclusively.
+     */
+    private static final String LOCK = "cache.lock";
+    /**
+     * Meta file extension (used by former versions, which kept a meta file per entry).
+     */
+    private static final String EXT_META = ".meta";
+    /**
+     * Meta file property holding the url (used by former versions).
+     */
+    private static final String META_URL = "url";
+    /**
+     * Meta file property holding the time the entry was cached (used by former versions).
+     */
+    private static final String META_CACHED_ON = "cachedOn";
+    /**
+     * Meta file property holding the last modification time of origin (used by former versions).
+     */
+    private static final String META_LAST_MODIFIED = "lastModified";
+    /**
+     * Meta file property holding the ETag of origin (used by former versions).
+     */
+    private static final String META_ETAG = "etag";
+    /**
+     * Data file extension.
+     */
+    private static final String EXT_DATA = ".data";
+    /**
+     * Temporary (being written) file extension.
+     */
+    private static final String EXT_TMP = ".tmp";
+    /**
+     * Index record of an added / updated entry.
+     */
+    private static final int RECORD_PUT = 1;
+    /**
+     * Index record of a removed entry.
+     */
+    private static final int RECORD_REMOVE = 2;
+    /**
+     * Minimum number of index records before compaction is considered.
+     */
+    private static final int COMPACTION_THRESHOLD = 1024;
+    /**
+     * FNV-1a 64 bit offset basis.
+     */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    /**
+     * FNV-1a 64 bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /**
+     * Maximum length (in bytes of modified UTF-8) of strings recorded in index.
+     */
+    private static final int MAX_RECORDED_LENGTH = 65535;
+    /**
+     * Names of data files (key and extension).
+     */
+    private static final Pattern DATA_FILE = Pattern.compile( "[0-9a-f]{16}\\" + EXT_DATA );
+    /**
+     * Names of temporary files of data files and index.
+     */
+    private static final Pattern TMP_FILE = Pattern.compile(
+        "([0-9a-f]{16}\\" + EXT_DATA + "|" + Pattern.quote( INDEX ) + ")-?[0-9]+\\" + EXT_TMP
+    );
+    /**
+     * Number of fill locks.
+     */
+    private static final int LOCK_STRIPES = 64;
+    /**
+     * Time (in milliseconds) a reader waits for a fill of another thread that makes no progress.
+     */
+    private static final long FILL_STALL_TIMEOUT = 30000L;
+    /**
+     * Maximum number of bytes read from origin when a streamed through miss is closed before its end, in order to
+     * cache it anyway.
+     */
+    static final long DRAIN_LIMIT = 1024 * 1024;
+
+    /**
+     * Caches by (absolute) working directory.
+     */
+    private static final ConcurrentMap<File, Cache> CACHES = new ConcurrentHashMap<File, Cache>();
+    /**
+     * Working directories locked by a cache of this process. Lock files are opened once per process, as closing any
+     * channel of a file can release all the locks of the process on it.
+     */
+    private static final Set<File> LOCKED = Collections.synchronizedSet( new HashSet<File>() );
+
+    /**
+     * Working directory.
+     */
+    private final File m_workingDirectory;
+    /**
+     * Fill locks.
+     */
+    private final Lock[] m_locks;
+    /**
+     * Entries by url.
+     */
+    private final ConcurrentMap<String, Entry> m_entries;
+    /**
+     * Urls by data file key (keys in use).
+     */
+    private final ConcurrentMap<String, String> m_keys;
+    /**
+     * Fills (streamed through misses and revalidations) in progress, by url.
+     */
+    private final ConcurrentMap<String, Fill> m_filling;
+    /**
+     * Guards eviction.
+     */
+    private final Lock m_evictionLock;
+    /**
+     * Entries kept in memory tier, by url, in access order.
+     */
+    private final Map<String, Entry> m_memory;
+    /**
+     * Total size of memory tier content. Guarded by m_memory.
+     */
+    private long m_memoryUsed;
+    /**
+     * Guards index writes.
+     */
+    private final Object m_indexLock;
+    /**
+     * Index output, opened on first write. Guarded by m_indexLock.
+     */
+    private OutputStream m_index;
+    /**
+     * Number of records in index file. Guarded by m_indexLock.
+     */
+    private int m_indexRecords;
+    /**
+     * Lock file channel, holding the shared lock of working directory; null if not locked. Guarded by m_indexLock.
+     */
+    private FileChannel m_lock;
+    /**
+     * True once closed. Guarded by m_indexLock.
+     */
+    private boolean m_closed;
+
+    /**
+     * Creates a cache, loading the index of working directory. Use {@link #getInstance(File)} to get a shared one.
+     *
+     * @param workingDirectory working directory (absolute)
+     */
+    Cache( final File workingDirectory )
+    {
+        m_workingDirectory = workingDirectory;
+        m_locks = new Lock[LOCK_STRIPES];
+        for( int i = 0; i < LOCK_STRIPES; i++ )
+        {
+            m_locks[ i ] = new ReentrantLock();
+        }
+        m_entries = new ConcurrentHashMap<String, Entry>();
+        m_keys = new ConcurrentHashMap<String, String>();
+        m_filling = new ConcurrentHashMap<String, Fill>();
+        m_evictionLock = new ReentrantLock();
+        m_memory = new LinkedHashMap<String, Entry>( 16, 0.75f, true );
+        m_indexLock = new Object();
+        final FileLock exclusive = lockExclusively();
+        loadIndex( exclusive != null );
+        if( exclusive != null )
+        {
+            deleteStrayFiles();
+        }
+        lockShared( exclusive );
+    }
+
+    /**
+     * Returns the cache for a working directory.
+     *
+     * @param workingDirectory working directory
+     *
+     * @return cache (shared)
+     */
+    static Cache getInstance( final File workingDirectory )
+    {
+        final File key = workingDirectory.getAbsoluteFile();
+        Cache cache = CACHES.get( key );
+        if( cache == null )
+        {
+            synchronized( CACHES )
+            {
+                // index is loaded when created, so make sure it happens only once
+                cache = CACHES.get( key );
+                if( cache == null )
+                {
+                    cache = new Cache( key );
+                    CACHES.put( key, cache );
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Closes the caches of all working directories.
+     */
+    static void closeAll()
+    {
+        synchronized( CACHES )
+        {
+            for( Cache cache : CACHES.values() )
+            {
+                cache.close();
+            }
+            CACHES.clear();
+        }
+    }
+
+    /**
+     * Closes index file and releases the lock of working directory. Entries are not recorded in index anymore.
+     */
+    void close()
+    {
+        synchronized( m_indexLock )
+        {
+            m_closed = true;
+            closeIndex();
+            if( m_lock != null )
+            {
+                try
+                {
+                    // releases the lock
+                    m_lock.close();
+                }
+                catch( IOException ignore )
+                {
+                    // released anyway when the process stops
+                }
+                m_lock = null;
+                LOCKED.remove( m_workingDirectory );
+            }
+        }
+    }
+
+    /**
+     * Returns the input stream of cached resource, downloading it first if not yet cached. An entry older than time
+     * to live is revalidated against the origin url and downloaded again only if changed.
+     *
+     * @param url           url of cached resource
+     * @param configuration time to live, maximum size and memory tier configuration
+     *
+     * @return input stream of cached content
+     *
+     * @throws IOException - If resource cannot be downloaded or cached
+     */
+    InputStream open( final URL url, final Configuration configuration )
+        throws IOException
+    {
+        final String externalForm = url.toExternalForm();
+        if( !isRecordable( externalForm ) )
+        {
+            // cannot be recorded in index, so not cached
+            return url.openStream();
+        }
+        InputStream in = read( externalForm, url, configuration );
+        if( in == null )
+        {
+            // entry was evicted (or removed) after it was looked up, so fill it again
+            final Entry entry = m_entries.get( externalForm );
+            if( entry != null )
+            {
+                discard( entry );
+            }
+            in = read( externalForm, url, configuration );
+        }
+        if( in == null )
+        {
+            throw new IOException( "Cannot cache " + externalForm + " in " + m_workingDirectory );
+        }
+        return in;
+    }
+
+    /**
+     * Returns true if url is cached.
+     *
+     * @param url url of cached resource
+     *
+     * @return true if url is cached
+     */
+    boolean contains( final URL url )
+    {
+        return m_entries.containsKey( url.toExternalForm() );
+    }
+
+    /**
+     * Looks up / fills the entry and opens its content, from memory tier if possible.
+     *
+     * @return input stream of cached content or null if data file disappeared meanwhile
+     */
+    private InputStream read( final String externalForm, final URL url, final Configuration configuration )
+        throws IOException
+    {
+        final long timeToLive = configuration.getTimeToLive();
+        Entry entry = m_entries.get( externalForm );
+        while( entry == null || entry.isExpired( timeToLive ) )
+        {
+            final Fill fill = new Fill();
+            final Fill current;
+            final Lock lock = lockFor( externalForm );
+            lock.lock();
+            try
+            {
+                // other thread could have filled / revalidated the entry while we were waiting
+                entry = m_entries.get( externalForm );
+                if( entry != null && !entry.isExpired( timeToLive ) )
+                {
+                    break;
+                }
+                current = m_filling.putIfAbsent( externalForm, fill );
+            }
+            finally
+            {
+                lock.unlock();
+            }
+            if( current == null && entry == null )
+            {
+                return tee( url, fill, configuration.getMaxSize() );
+            }
+            if( current == null )
+            {
+                entry = revalidate( url, entry, fill, configuration.getMaxSize() );
+                break;
+            }
+            // being filled / revalidated by another thread
+            if( !current.await() )
+            {
+                // its reader does not read anymore, so do not wait for it
+                return url.openStream();
+            }
+            entry = m_entries.get( externalForm );
+            if( entry != null )
+            {
+                // just filled / revalidated (or kept, if origin cannot be reached)
+                break;
+            }
+        }
+        entry.lastAccess = System.currentTimeMillis();
+
+        ByteBuffer content = entry.content;
+        if( content != null )
+        {
+            synchronized( m_memory )
+            {
+                // keep it recently used
+                m_memory.get( externalForm );
+            }
+        }
+        else
+        {
+            final long memorySize = configuration.getMemorySize();
+            if( memorySize > 0 && entry.size <= Math.min( memorySize, configuration.getMemoryEntrySize() ) )
+            {
+                final byte[] bytes;
+                try
+                {
+                    bytes = Files.readAllBytes( dataFile( entry ).toPath() );
+                }
+                catch( NoSuchFileException e )
+                {
+                    return null;
+                }
+                content = ByteBuffer.wrap( bytes );
+                remember( entry, content, memorySize );
+            }
+        }
+        if( content != null )
+        {
+            return new ByteArrayInputStream( content.array(), content.arrayOffset(), content.remaining() );
+        }
+        try
+        {
+            return new BufferedInputStream( new FileInputStream( dataFile( entry ) ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Opens the origin url, returning a stream that writes read bytes to a temporary file as well. The entry is
+     * committed when the stream is read to its end and discarded if closed before. Must be called after marking url
+     * as being filled.
+     */
+    private InputStream tee( final URL url, final Fill fill, final long maxSize )
+        throws IOException
+    {
+        final String externalForm = url.toExternalForm();
+        final String key = allocateKey( externalForm );
+        InputStream in = null;
+        boolean teeing = false;
+        try
+        {
+            final URLConnection connection = url.openConnection();
+            in = connection.getInputStream();
+            m_workingDirectory.mkdirs();
+            final File dataTmp = File.createTempFile( key + EXT_DATA, EXT_TMP, m_workingDirectory );
+            final InputStream tee = new TeeInputStream(
+                in, externalForm, key, connection.getLastModified(), etag( connection ), dataTmp,
+                fill, maxSize
+            );
+            teeing = true;
+            return tee;
+        }
+        finally
+        {
+            if( !teeing )
+            {
+                if( in != null )
+                {
+                    in.close();
+                }
+                m_keys.remove( key, externalForm );
+                m_filling.remove( externalForm, fill );
+                fill.done();
+            }
+        }
+    }
+
+    /**
+     * Keeps the content of an entry in memory tier, dropping least recently used entries over memory size.
+     */
+    private void remember( final Entry entry, final ByteBuffer content, final long memorySize )
+    {
+        synchronized( m_memory )
+        {
+            // entry could have been replaced / evicted meanwhile
+            if( m_entries.get( entry.url ) != entry )
+            {
+                return;
+            }
+            forget( entry.url );
+            entry.content = content;
+            m_memory.put( entry.url, entry );
+            m_memoryUsed += content.capacity();
+            final Iterator<Entry> entries = m_memory.values().iterator();
+            while( m_memoryUsed > memorySize && entries.hasNext() )
+            {
+                final Entry eldest = entries.next();
+                entries.remove();
+                m_memoryUsed -= eldest.content.capacity();
+                eldest.content = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the content of an entry from memory tier.
+     */
+    private void forget( final String externalForm )
+    {
+        synchronized( m_memory )
+        {
+            final Entry entry = m_memory.remove( externalForm );
+            if( entry != null )
+            {
+                m_memoryUsed -= entry.content.capacity();
+                entry.content = null;
+            }
+        }
+    }
+
+    /**
+     * Revalidates an expired entry, evicting least recently used entries if it got bigger. Must be called after
+     * marking url as being filled.
+     */
+    private Entry revalidate( final URL url, final Entry entry, final Fill fill, final long maxSize )
+    {
+        final Entry revalidated;
+        try
+        {
+            revalidated = revalidate( url, entry, fill );
+        }
+        finally
+        {
+            m_filling.remove( entry.url, fill );
+            fill.done();
+        }
+        // only a revalidation that got bigger content can push the cache over its maximum size here (streamed
+        // through entries are checked when committed)
+        if( revalidated.size > entry.size && maxSize >= 0 )
+        {
+            evict( maxSize, revalidated );
+        }
+        return revalidated;
+    }
+
+    /**
+     * Checks (using a conditional request if the origin supports it) if the resource changed since cached and
+     * downloads it again if so. If origin cannot be reached the cached (stale) entry is kept.
+     */
+    private Entry revalidate( final URL url, final Entry entry, final Fill fill )
+    {
+        try
+        {
+            final URLConnection connection = url.openConnection();
+            if( connection instanceof HttpURLConnection )
+            {
+                final HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                if( entry.lastModified > 0 )
+                {
+                    httpConnection.setIfModifiedSince( entry.lastModified );
+                }
+                if( entry.etag != null )
+                {
+                    httpConnection.setRequestProperty( "If-None-Match", entry.etag );
+                }
+                if( httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED )
+                {
+                    httpConnection.disconnect();
+                    return update( entry, new Entry( entry.url, entry.key, System.currentTimeMillis(),
+                                                     entry.lastModified, entry.etag, entry.size
+                    ) );
+                }
+            }
+            else if( entry.lastModified > 0 && connection.getLastModified() == entry.lastModified )
+            {
+                connection.getInputStream().close();
+                return update( entry, new Entry( entry.url, entry.key, System.currentTimeMillis(),
+                                                 entry.lastModified, entry.etag, entry.size
+                ) );
+            }
+            return fill( entry, connection, fill );
+        }
+        catch( IOException e )
+        {
+            return entry;
+        }
+    }
+
+    /**
+     * Downloads the changed resource again, replacing the data file of the entry.
+     *
+     * @param previous cached entry
+     */
+    private Entry fill( final Entry previous, final URLConnection connection, final Fill fill )
+        throws IOException
+    {
+        m_workingDirectory.mkdirs();
+
+        final long lastModified = connection.getLastModified();
+        final String etag = etag( connection );
+        final File cacheDataFile = dataFile( previous );
+        final File dataTmp = File.createTempFile( cacheDataFile.getName(), EXT_TMP, m_workingDirectory );
+        long size = 0;
+        try
+        {
+            final InputStream in = connection.getInputStream();
+            try
+            {
+                final OutputStream out = new BufferedOutputStream( new FileOutputStream( dataTmp ) );
+                try
+                {
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while( ( read = in.read( buffer ) ) >= 0 )
+                    {
+                        out.write( buffer, 0, read );
+                        size += read;
+                        fill.progress = size;
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            publish( dataTmp, cacheDataFile );
+        }
+        finally
+        {
+            dataTmp.delete();
+        }
+        return update( previous, new Entry(
+            previous.url, previous.key, System.currentTimeMillis(), lastModified, etag, size
+        ) );
+    }
+
+    /**
+     * Replaces (or adds) an entry and records it in index.
+     *
+     * @param previous replaced entry; null if new
+     * @param entry    entry
+     *
+     * @return entry
+     */
+    private Entry update( final Entry previous, final Entry entry )
+        throws IOException
+    {
+        final byte[] record = record( RECORD_PUT, entry );
+        m_entries.put( entry.url, entry );
+        if( previous != null )
+        {
+            forget( entry.url );
+        }
+        try
+        {
+            writeIndex( record );
+        }
+        catch( IOException e )
+        {
+            // not recorded, so not cached either
+            if( previous != null )
+            {
+                m_entries.replace( entry.url, entry, previous );
+            }
+            else
+            {
+                m_entries.remove( entry.url, entry );
+            }
+            throw e;
+        }
+        return entry;
+    }
+
+    /**
+     * Removes an entry, its data file and records the removal in index.
+     *
+     * @return true if data file was deleted
+     */
+    private boolean discard( final Entry entry )
+    {
+        if( !m_entries.remove( entry.url, entry ) )
+        {
+            return false;
+        }
+        forget( entry.url );
+        final boolean deleted = dataFile( entry ).delete();
+        m_keys.remove( entry.key, entry.url );
+        try
+        {
+            writeIndex( record( RECORD_REMOVE, entry ) );
+        }
+        catch( IOException ignore )
+        {
+            // a stale index record is harmless, as a missing data file is filled again
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes least recently used entries till the total size of cached data fits the maximum size. Entries being
+     * filled by other threads are skipped, as well as the entry that triggered the eviction.
+     */
+    private void evict( final long maxSize, final Entry keep )
+    {
+        // one eviction at a time is enough
+        if( !m_evictionLock.tryLock() )
+        {
+            return;
+        }
+        try
+        {
+            final List<Candidate> candidates = new ArrayList<Candidate>( m_entries.size() );
+            long total = 0;
+            for( Entry entry : m_entries.values() )
+            {
+                total += entry.size;
+                candidates.add( new Candidate( entry ) );
+            }
+            if( total <= maxSize )
+            {
+                return;
+            }
+            Collections.sort( candidates );
+            for( Candidate candidate : candidates )
+            {
+                if( total <= maxSize )
+                {
+                    break;
+                }
+                final Entry entry = candidate.entry;
+                if( entry.url.equals( keep.url ) )
+                {
+                    continue;
+                }
+                final Lock lock = lockFor( entry.url );
+                if( !lock.tryLock() )
+                {
+                    continue;
+                }
+                try
+                {
+                    if( !m_filling.containsKey( entry.url ) && discard( entry ) )
+                    {
+                        total -= entry.size;
+                    }
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+            }
+        }
+        finally
+        {
+            m_evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Locks working directory exclusively, if no other cache (of this or another process) uses it.
+     *
+     * @return exclusive lock; null if working directory is used by another cache or cannot be locked
+     */
+    private FileLock lockExclusively()
+    {
+        if( !LOCKED.add( m_workingDirectory ) )
+        {
+            // locked by another cache of this process
+            return null;
+        }
+        try
+        {
+            m_workingDirectory.mkdirs();
+            m_lock = new RandomAccessFile( new File( m_workingDirectory, LOCK ), "rw" ).getChannel();
+            return m_lock.tryLock();
+        }
+        catch( IOException e )
+        {
+            if( m_lock == null )
+            {
+                LOCKED.remove( m_workingDirectory );
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Locks working directory (shared) for as long as the cache is open, releasing the exclusive lock first.
+     *
+     * @param exclusive exclusive lock; null if not locked exclusively
+     */
+    private void lockShared( final FileLock exclusive )
+    {
+        if( m_lock == null )
+        {
+            return;
+        }
+        try
+        {
+            if( exclusive != null )
+            {
+                exclusive.release();
+            }
+            m_lock.lock( 0, Long.MAX_VALUE, true );
+        }
+        catch( IOException ignore )
+        {
+            // other caches may sweep working directory then, which only costs downloads
+        }
+    }
+
+    /**
+     * Deletes the files of working directory that are not in index: data files of entries whose removal was not
+     * recorded and temporary files left over by stopped processes. Only files named as this cache names them are
+     * deleted. Must be called holding the exclusive lock of working directory, before the cache is used.
+     */
+    private void deleteStrayFiles()
+    {
+        final File[] files = m_workingDirectory.listFiles();
+        if( files == null )
+        {
+            return;
+        }
+        for( File file : files )
+        {
+            final String fileName = file.getName();
+            if( TMP_FILE.matcher( fileName ).matches()
+                || ( DATA_FILE.matcher( fileName ).matches()
+                     && !m_keys.containsKey( fileName.substring( 0, fileName.length() - EXT_DATA.length() ) ) ) )
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the fill lock of an url.
+     */
+    private Lock lockFor( final String externalForm )
+    {
+        return m_locks[ ( externalForm.hashCode() & 0x7fffffff ) % LOCK_STRIPES ];
+    }
+
+    /**
+     * Returns the data file of an entry.
+     */
+    private File dataFile( final Entry entry )
+    {
+        return new File( m_workingDirectory, entry.key + EXT_DATA );
+    }
+
+    /**
+     * Allocates a data file key for an url: the hash of url or, if used by another url, the next free value.
+     */
+    private String allocateKey( final String externalForm )
+    {
+        long hash = hash( externalForm );
+        while( true )
+        {
+            final String key = toKey( hash );
+            final String owner = m_keys.putIfAbsent( key, externalForm );
+            if( owner == null || owner.equals( externalForm ) )
+            {
+                return key;
+            }
+            hash++;
+        }
+    }
+
+    /**
+     * Computes 64 bit FNV-1a hash of a string (chars), without allocation.
+     *
+     * @param value string to hash
+     *
+     * @return hash
+     */
+    static long hash( final String value )
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for( int i = 0; i < value.length(); i++ )
+        {
+            hash ^= value.charAt( i );
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Formats a hash as data file key (16 hex digits).
+     */
+    private static String toKey( final long hash )
+    {
+        final char[] key = new char[16];
+        for( int i = key.length - 1; i >= 0; i-- )
+        {
+            key[ i ] = Character.forDigit( (int) ( hash >>> ( 4 * ( key.length - 1 - i ) ) ) & 0xf, 16 );
+        }
+        return new String( key );
+    }
+
+    /**
+     * Loads entries from index file. A truncated (interrupted) last record is dropped by compacting the index.
+     * Entries cached by former versions (meta file per entry) are added to the index when there is no index yet.
+     *
+     * @param exclusive true if working directory is locked exclusively, so entries of former versions can be migrated
+     */
+    private void loadIndex( final boolean exclusive )
+    {
+        final File indexFile = new File( m_workingDirectory, INDEX );
+        if( !indexFile.isFile() )
+        {
+            if( exclusive )
+            {
+                migrateLegacyEntries();
+            }
+            return;
+        }
+        boolean complete = true;
+        try
+        {
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( indexFile ) )
+            );
+            try
+            {
+                int type;
+                while( ( type = in.read() ) >= 0 )
+                {
+                    final String url = in.readUTF();
+                    final String key = in.readUTF();
+                    if( type == RECORD_PUT )
+                    {
+                        final long cachedOn = in.readLong();
+                        final long lastModified = in.readLong();
+                        final long size = in.readLong();
+                        final String etag = in.readUTF();
+                        final Entry previous = m_entries.put( url, new Entry(
+                            url, key, cachedOn, lastModified, etag.length() == 0 ? null : etag, size
+                        ) );
+                        if( previous != null && !previous.key.equals( key ) )
+                        {
+                            m_keys.remove( previous.key, url );
+                        }
+                        m_keys.put( key, url );
+                    }
+                    else
+                    {
+                        final Entry previous = m_entries.remove( url );
+                        if( previous != null )
+                        {
+                            m_keys.remove( previous.key, url );
+                        }
+                    }
+                    m_indexRecords++;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch( IOException e )
+        {
+            // truncated (EOFException) or unreadable
+            complete = false;
+        }
+        if( !complete )
+        {
+            synchronized( m_indexLock )
+            {
+                try
+                {
+                    compactIndex();
+                }
+                catch( IOException ignore )
+                {
+                    // will be retried on next write
+                    m_indexRecords = Integer.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the entries cached by former versions (meta file per entry, named after the MD5 hash of url) to the index,
+     * renaming their data files. Entries that cannot be migrated are deleted.
+     */
+    private void migrateLegacyEntries()
+    {
+        final File[] files = m_workingDirectory.listFiles();
+        if( files == null )
+        {
+            return;
+        }
+        boolean migrated = false;
+        for( File file : files )
+        {
+            final String fileName = file.getName();
+            if( fileName.endsWith( EXT_META ) )
+            {
+                final File dataFile = new File(
+                    m_workingDirectory, fileName.substring( 0, fileName.length() - EXT_META.length() ) + EXT_DATA
+                );
+                try
+                {
+                    migrated |= migrateLegacyEntry( file, dataFile );
+                }
+                catch( IOException ignore )
+                {
+                    // not migrated, so just downloaded again
+                }
+                finally
+                {
+                    dataFile.delete();
+                    file.delete();
+                }
+            }
+        }
+        if( migrated )
+        {
+            synchronized( m_indexLock )
+            {
+                try
+                {
+                    compactIndex();
+                }
+                catch( IOException ignore )
+                {
+                    // will be retried on next write
+                    m_indexRecords = Integer.MAX_VALUE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entry cached by a former version, moving its data file to the one of the allocated key.
+     *
+     * @return true if migrated, false if meta file has no (recordable) url or data file is missing
+     */
+    private boolean migrateLegacyEntry( final File metaFile, final File dataFile )
+        throws IOException
+    {
+        final Properties meta = new Properties();
+        final InputStream in = new FileInputStream( metaFile );
+        try
+        {
+            meta.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        final String url = meta.getProperty( META_URL );
+        if( url == null || !isRecordable( url ) || !dataFile.isFile() )
+        {
+            return false;
+        }
+        final long size = dataFile.length();
+        final long cachedOn = parseLong( meta.getProperty( META_CACHED_ON ), dataFile.lastModified() );
+        final long lastModified = parseLong( meta.getProperty( META_LAST_MODIFIED ), 0 );
+        final String key = allocateKey( url );
+        try
+        {
+            publish( dataFile, new File( m_workingDirectory, key + EXT_DATA ) );
+        }
+        catch( IOException e )
+        {
+            m_keys.remove( key, url );
+            throw e;
+        }
+        final String etag = meta.getProperty( META_ETAG );
+        m_entries.put( url, new Entry(
+            url, key, cachedOn, lastModified, etag == null || isRecordable( etag ) ? etag : null, size
+        ) );
+        return true;
+    }
+
+    /**
+     * Parses a long meta property.
+     */
+    private static long parseLong( final String value, final long defaultValue )
+    {
+        if( value != null )
+        {
+            try
+            {
+                return Long.parseLong( value );
+            }
+            catch( NumberFormatException ignore )
+            {
+                // use default
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Appends a record to index file, compacting it first if most of its records are obsolete. If the record cannot be
+     * written, the index is rewritten, so it does not keep a partially written record.
+     */
+    private void writeIndex( final byte[] record )
+        throws IOException
+    {
+        synchronized( m_indexLock )
+        {
+            if( m_closed )
+            {
+                throw new IOException( "Cache of " + m_workingDirectory + " is closed" );
+            }
+            if( m_indexRecords > COMPACTION_THRESHOLD && m_indexRecords > 2 * m_entries.size() )
+            {
+                // current entries are already in, so the record itself is not needed anymore
+                compactIndex();
+                return;
+            }
+            try
+            {
+                if( m_index == null )
+                {
+                    m_workingDirectory.mkdirs();
+                    m_index = new FileOutputStream( new File( m_workingDirectory, INDEX ), true );
+                }
+                // at once, so other records never follow a partially written one
+                m_index.write( record );
+                m_indexRecords++;
+            }
+            catch( IOException e )
+            {
+                try
+                {
+                    compactIndex();
+                }
+                catch( IOException ignore )
+                {
+                    // will be retried on next write
+                    m_indexRecords = Integer.MAX_VALUE;
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes index output, if open. Must be called holding m_indexLock.
+     */
+    private void closeIndex()
+    {
+        if( m_index != null )
+        {
+            try
+            {
+                m_index.close();
+            }
+            catch( IOException ignore )
+            {
+                // index is rewritten if a record is missing
+            }
+            m_index = null;
+        }
+    }
+
+    /**
+     * Rewrites index file with current entries only. Must be called holding m_indexLock.
+     */
+    private void compactIndex()
+        throws IOException
+    {
+        closeIndex();
+        m_workingDirectory.mkdirs();
+        final File indexFile = new File( m_workingDirectory, INDEX );
+        final File indexTmp = File.createTempFile( INDEX, EXT_TMP, m_workingDirectory );
+        try
+        {
+            int records = 0;
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( indexTmp ) )
+            );
+            try
+            {
+                for( Entry entry : m_entries.values() )
+                {
+                    writeRecord( out, RECORD_PUT, entry );
+                    records++;
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            publish( indexTmp, indexFile );
+            m_indexRecords = records;
+        }
+        finally
+        {
+            indexTmp.delete();
+        }
+    }
+
+    /**
+     * Serializes an index record, so it can be written at once.
+     */
+    private static byte[] record( final int type, final Entry entry )
+        throws IOException
+    {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream( 128 );
+        writeRecord( new DataOutputStream( record ), type, entry );
+        return record.toByteArray();
+    }
+
+    /**
+     * Returns true if a string is short enough to be recorded in index (as modified UTF-8).
+     */
+    private static boolean isRecordable( final String value )
+    {
+        if( value.length() * 3 <= MAX_RECORDED_LENGTH )
+        {
+            return true;
+        }
+        int length = 0;
+        for( int i = 0; i < value.length(); i++ )
+        {
+            final char c = value.charAt( i );
+            length += c >= 0x0001 && c <= 0x007f ? 1 : ( c > 0x07ff ? 3 : 2 );
+        }
+        return length <= MAX_RECORDED_LENGTH;
+    }
+
+    /**
+     * Returns the ETag of origin; null if none or too long to be recorded in index.
+     */
+    private static String etag( final URLConnection connection )
+    {
+        final String etag = connection.getHeaderField( "ETag" );
+        return etag == null || isRecordable( etag ) ? etag : null;
+    }
+
+    /**
+     * Writes an index record.
+     */
+    private static void writeRecord( final DataOutputStream out, final int type, final Entry entry )
+        throws IOException
+    {
+        out.writeByte( type );
+        out.writeUTF( entry.url );
+        out.writeUTF( entry.key );
+        if( type == RECORD_PUT )
+        {
+            out.writeLong( entry.cachedOn );
+            out.writeLong( entry.lastModified );
+            out.writeLong( entry.size );
+            out.writeUTF( entry.etag == null ? "" : entry.etag );
+        }
+    }
+
+    /**
+     * Moves a completely written temporary file to its final location (atomically if supported).
+     */
+    private static void publish( final File tmp, final File target )
+        throws IOException
+    {
+        try
+        {
+            Files.move( tmp.toPath(), target.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING
+            );
+        }
+        catch( AtomicMoveNotSupportedException e )
+        {
+            Files.move( tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+
+    /**
+     * Stream of origin content that writes read bytes to a temporary file as well. When read to its end, the file
+     * becomes the data file of a new entry. Closing it before reads the rest of the content (up to {@link #DRAIN_LIMIT})
+     * to commit it anyway; the file is discarded if there is more. If the file cannot be written, the content is still
+     * served, but not cached.
+     */
+    private class TeeInputStream
+        extends FilterInputStream
+    {
+
+        private final String m_url;
+        private final String m_key;
+        private final long m_lastModified;
+        private final String m_etag;
+        private final File m_dataTmp;
+        private final Fill m_fill;
+        private final long m_maxSize;
+        /**
+         * Temporary file output; null once closed or failed.
+         */
+        private OutputStream m_out;
+        private long m_size;
+        private boolean m_finished;
+
+        TeeInputStream( final InputStream in, final String url, final String key, final long lastModified,
+                        final String etag, final File dataTmp, final Fill fill, final long maxSize )
+            throws FileNotFoundException
+        {
+            super( in );
+            m_url = url;
+            m_key = key;
+            m_lastModified = lastModified;
+            m_etag = etag;
+            m_dataTmp = dataTmp;
+            m_fill = fill;
+            m_maxSize = maxSize;
+            m_out = new BufferedOutputStream( new FileOutputStream( dataTmp ) );
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            final int b = super.read();
+            if( b >= 0 )
+            {
+                if( m_out != null )
+                {
+                    try
+                    {
+                        m_out.write( b );
+                        m_size++;
+                        m_fill.progress = m_size;
+                    }
+                    catch( IOException e )
+                    {
+                        closeOut();
+                    }
+                }
+            }
+            else
+            {
+                finish( true );
+            }
+            return b;
+        }
+
+        @Override
+        public int read( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            final int read = super.read( b, off, len );
+            if( read > 0 )
+            {
+                if( m_out != null )
+                {
+                    try
+                    {
+                        m_out.write( b, off, read );
+                        m_size += read;
+                        m_fill.progress = m_size;
+                    }
+                    catch( IOException e )
+                    {
+                        closeOut();
+                    }
+                }
+            }
+            else if( read < 0 )
+            {
+                finish( true );
+            }
+            return read;
+        }
+
+        /**
+         * Skipped bytes have to be cached as well, so they are read.
+         */
+        @Override
+        public long skip( final long n )
+            throws IOException
+        {
+            if( n <= 0 )
+            {
+                return 0;
+            }
+            final int read = read( new byte[(int) Math.min( n, 8192 )] );
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void mark( final int readlimit )
+        {
+            // not supported
+        }
+
+        @Override
+        public void reset()
+            throws IOException
+        {
+            throw new IOException( "mark/reset not supported" );
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                drain();
+                finish( false );
+            }
+            finally
+            {
+                super.close();
+            }
+        }
+
+        /**
+         * Reads the rest of the content, up to {@link #DRAIN_LIMIT}, so it is committed when its end is reached.
+         */
+        private void drain()
+        {
+            if( m_finished || m_out == null )
+            {
+                return;
+            }
+            final byte[] buffer = new byte[8192];
+            long drained = 0;
+            try
+            {
+                int read = 0;
+                while( read >= 0 && drained < DRAIN_LIMIT )
+                {
+                    read = read( buffer, 0, (int) Math.min( buffer.length, DRAIN_LIMIT - drained ) );
+                    drained += read;
+                }
+            }
+            catch( IOException ignore )
+            {
+                // origin failed, so the file is discarded
+            }
+        }
+
+        /**
+         * Commits (if complete) or discards the temporary file.
+         */
+        private void finish( final boolean complete )
+        {
+            if( m_finished )
+            {
+                return;
+            }
+            m_finished = true;
+            Entry entry = null;
+            try
+            {
+                if( complete && m_out != null )
+                {
+                    m_out.close();
+                    m_out = null;
+                    publish( m_dataTmp, new File( m_workingDirectory, m_key + EXT_DATA ) );
+                    entry = update(
+                        null, new Entry( m_url, m_key, System.currentTimeMillis(), m_lastModified, m_etag, m_size )
+                    );
+                }
+            }
+            catch( IOException ignore )
+            {
+                // content was served anyway, it is just not cached
+            }
+            finally
+            {
+                closeOut();
+                m_dataTmp.delete();
+                if( entry == null && !m_entries.containsKey( m_url ) )
+                {
+                    // data file is deleted if published, but not recorded
+                    new File( m_workingDirectory, m_key + EXT_DATA ).delete();
+                    m_keys.remove( m_key, m_url );
+                }
+                m_filling.remove( m_url, m_fill );
+                m_fill.done();
+            }
+            if( entry != null && m_maxSize >= 0 )
+            {
+                evict( m_maxSize, entry );
+            }
+        }
+
+        private void closeOut()
+        {
+            if( m_out != null )
+            {
+                try
+                {
+                    m_out.close();
+                }
+                catch( IOException ignore )
+                {
+                    // temporary file is dropped anyway
+                }
+                m_out = null;
+                m_dataTmp.delete();
+            }
+        }
+
+    }
+
+    /**
+     * Fill (streamed through miss or revalidation) in progress, that readers of the same url wait for.
+     */
+    private static class Fill
+    {
+
+        /**
+         * Number of bytes downloaded so far.
+         */
+        volatile long progress;
+        /**
+         * True once entry is committed or the fill failed / was discarded. Guarded by this.
+         */
+        private boolean m_done;
+
+        synchronized void done()
+        {
+            m_done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the fill to be done, as long as it makes progress.
+         *
+         * @return true if done, false if it made no progress for {@link #FILL_STALL_TIMEOUT}
+         *
+         * @throws InterruptedIOException - If interrupted while waiting
+         */
+        synchronized boolean await()
+            throws InterruptedIOException
+        {
+            long seen = progress;
+            long deadline = System.currentTimeMillis() + FILL_STALL_TIMEOUT;
+            while( !m_done )
+            {
+                final long now = System.currentTimeMillis();
+                if( progress != seen )
+                {
+                    seen = progress;
+                    deadline = now + FILL_STALL_TIMEOUT;
+                }
+                else if( now >= deadline )
+                {
+                    return false;
+                }
+                try
+                {
+                    // progress is not notified, so check it every second
+                    wait( Math.min( deadline - now, 1000L ) );
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "Interrupted while waiting for cache fill" );
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * Cached entry, as recorded in index.
+     */
+    private static class Entry
+    {
+
+        final String url;
+        /**
+         * Data file key.
+         */
+        final String key;
+        final long cachedOn;
+        final long lastModified;
+        final String etag;
+        final long size;
+        /**
+         * Last time the entry was read; used to pick eviction candidates.
+         */
+        volatile long lastAccess;
+        /**
+         * Content, if kept in memory tier.
+         */
+        volatile ByteBuffer content;
+
+        Entry( final String url, final String key, final long cachedOn, final long lastModified, final String etag,
+               final long size )
+        {
+            this.url = url;
+            this.key = key;
+            this.cachedOn = cachedOn;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.size = size;
+            this.lastAccess = cachedOn;
+        }
+
+        boolean isExpired( final long timeToLive )
+        {
+            return timeToLive >= 0 && System.currentTimeMillis() - cachedOn >= timeToLive;
+        }
+
+    }
+
+    /**
+     * Eviction candidate, ordered from least recently used. Last access is captured, so it does not change while
+     * sorting.
+     */
+    private static class Candidate
+        implements Comparable<Candidate>
+    {
+
+        final Entry entry;
+        final long lastAccess;
+
+        Candidate( final Entry entry )
+        {
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+
+        public int compareTo( final Candidate other )
+        {
+            return lastAccess < other.lastAccess ? -1 : ( lastAccess == other.lastAccess ? 0 : 1 );
+        }
+
+    }
+
+}
@@ -36,4 +36,36 @@ public interface Configuration
      */
     File getWorkingDirectory();
 
+    /**
+     * Returns the time to live of cached entries.
+     * Defaults to -1 (entries never expire).
+     *
+     * @return time to live in milliseconds; negative if entries never expire
+     */
+    Long getTimeToLive();
+
+    /**
+     * Returns the maximum total size of cached data.
+     * Defaults to -1 (not limited).
+     *
+     * @return maximum size in bytes; negative if not limited
+     */
+    Long getMaxSize();
+
+    /**
+     * Returns the size of memory tier.
+     * Defaults to 0 (memory tier disabled).
+     *
+     * @return memory tier size in bytes
+     */
+    Long getMemorySize();
+
+    /**
+     * Returns the maximum size of an entry kept in memory tier.
+     * Defaults to 64 KiB.
+     *
+     * @return maximum entry size in bytes
+     */
+    Long getMemoryEntrySize();
+
 }
\ No newline at end of file
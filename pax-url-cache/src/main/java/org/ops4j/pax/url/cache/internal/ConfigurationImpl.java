@@ -68,4 +68,86 @@ public class ConfigurationImpl
         }
         return get( ServiceConstants.PROPERTY_WORKING_DIRECTORY );
     }
-}
\ No newline at end of file
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getTimeToLive()
+    {
+        if( !contains( ServiceConstants.PROPERTY_TIME_TO_LIVE ) )
+        {
+            long timeToLive = getLong( ServiceConstants.PROPERTY_TIME_TO_LIVE, ServiceConstants.DEFAULT_TIME_TO_LIVE );
+            return set( ServiceConstants.PROPERTY_TIME_TO_LIVE, timeToLive < 0 ? -1L : timeToLive * 1000L );
+        }
+        return get( ServiceConstants.PROPERTY_TIME_TO_LIVE );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getMaxSize()
+    {
+        if( !contains( ServiceConstants.PROPERTY_MAX_SIZE ) )
+        {
+            return set( ServiceConstants.PROPERTY_MAX_SIZE,
+                        getLong( ServiceConstants.PROPERTY_MAX_SIZE, ServiceConstants.DEFAULT_MAX_SIZE )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_MAX_SIZE );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getMemorySize()
+    {
+        if( !contains( ServiceConstants.PROPERTY_MEMORY_SIZE ) )
+        {
+            return set( ServiceConstants.PROPERTY_MEMORY_SIZE,
+                        getLong( ServiceConstants.PROPERTY_MEMORY_SIZE, ServiceConstants.DEFAULT_MEMORY_SIZE )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_MEMORY_SIZE );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Long getMemoryEntrySize()
+    {
+        if( !contains( ServiceConstants.PROPERTY_MEMORY_ENTRY_SIZE ) )
+        {
+            return set( ServiceConstants.PROPERTY_MEMORY_ENTRY_SIZE,
+                        getLong( ServiceConstants.PROPERTY_MEMORY_ENTRY_SIZE,
+                                 ServiceConstants.DEFAULT_MEMORY_ENTRY_SIZE
+                        )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_MEMORY_ENTRY_SIZE );
+    }
+
+    /**
+     * Resolves a numeric property.
+     *
+     * @param property     property name
+     * @param defaultValue value used if property is not set or is not a number
+     *
+     * @return property value
+     */
+    private long getLong( final String property, final long defaultValue )
+    {
+        final String value = m_propertyResolver.get( property );
+        if( value == null || value.trim().length() == 0 )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Long.parseLong( value.trim() );
+        }
+        catch( NumberFormatException e )
+        {
+            return defaultValue;
+        }
+    }
+}
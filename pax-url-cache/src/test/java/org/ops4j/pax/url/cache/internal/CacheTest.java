@@ -0,0 +1,444 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.cache.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link Cache}.
+ */
+public class CacheTest
+{
+
+    private File m_workingDirectory;
+    private URL m_url;
+    private byte[] m_content;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        final File root = Files.createTempDirectory( new File( "target" ).toPath(), "cache" ).toFile();
+        m_workingDirectory = new File( root, "cache" );
+        m_content = new byte[256 * 1024];
+        for( int i = 0; i < m_content.length; i++ )
+        {
+            m_content[ i ] = (byte) i;
+        }
+        final File source = new File( root, "source.bin" );
+        Files.write( source.toPath(), m_content );
+        m_url = source.toURI().toURL();
+    }
+
+    @Test
+    public void concurrentOpens()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+            for( int i = 0; i < 32; i++ )
+            {
+                results.add( executor.submit( new Callable<byte[]>()
+                {
+                    public byte[] call()
+                        throws Exception
+                    {
+                        return read( cache.open( m_url, configuration( -1, -1, 0 ) ) );
+                    }
+                } ) );
+            }
+            for( Future<byte[]> result : results )
+            {
+                assertArrayEquals( m_content, result.get() );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        // no leftovers of temporary files: index, lock and data files only
+        assertEquals( 3, m_workingDirectory.list().length );
+    }
+
+    @Test
+    public void hitDoesNotRewriteEntry()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        read( cache.open( m_url, configuration( -1, -1, 0 ) ) );
+        final File[] files = m_workingDirectory.listFiles();
+        final long[] modified = new long[files.length];
+        for( int i = 0; i < files.length; i++ )
+        {
+            files[ i ].setLastModified( 1000L * 1000L * 1000L );
+            modified[ i ] = files[ i ].lastModified();
+        }
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( -1, -1, 0 ) ) ) );
+        for( int i = 0; i < files.length; i++ )
+        {
+            assertEquals( modified[ i ], files[ i ].lastModified() );
+        }
+    }
+
+    @Test
+    public void expiredEntryIsRevalidated()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        read( cache.open( m_url, configuration( 0, -1, 0 ) ) );
+        final File data = dataFiles()[ 0 ];
+        data.setLastModified( 1000L * 1000L * 1000L );
+        final long modified = data.lastModified();
+
+        // origin not changed: data is kept
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( 0, -1, 0 ) ) ) );
+        assertEquals( modified, data.lastModified() );
+
+        // origin changed: data is downloaded again
+        final File source = new File( m_url.toURI() );
+        final byte[] changed = "changed".getBytes( "UTF-8" );
+        Files.write( source.toPath(), changed );
+        source.setLastModified( source.lastModified() + 10000L );
+        assertArrayEquals( changed, read( cache.open( m_url, configuration( 0, -1, 0 ) ) ) );
+        // but not while not expired
+        Files.write( source.toPath(), m_content );
+        source.setLastModified( source.lastModified() + 20000L );
+        assertArrayEquals( changed, read( cache.open( m_url, configuration( 60000L, -1, 0 ) ) ) );
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final URL[] urls = new URL[3];
+        for( int i = 0; i < urls.length; i++ )
+        {
+            final File source = new File( m_workingDirectory.getParentFile(), "source" + i + ".bin" );
+            Files.write( source.toPath(), m_content );
+            urls[ i ] = source.toURI().toURL();
+        }
+        final long maxSize = 2L * m_content.length;
+        read( cache.open( urls[ 0 ], configuration( -1, maxSize, 0 ) ) );
+        Thread.sleep( 10 );
+        read( cache.open( urls[ 1 ], configuration( -1, maxSize, 0 ) ) );
+        Thread.sleep( 10 );
+        read( cache.open( urls[ 0 ], configuration( -1, maxSize, 0 ) ) );
+        Thread.sleep( 10 );
+        read( cache.open( urls[ 2 ], configuration( -1, maxSize, 0 ) ) );
+
+        assertTrue( cache.contains( urls[ 0 ] ) );
+        assertFalse( cache.contains( urls[ 1 ] ) );
+        assertTrue( cache.contains( urls[ 2 ] ) );
+        assertEquals( 2, dataFiles().length );
+
+        // evicted entry is transparently cached again
+        assertArrayEquals( m_content, read( cache.open( urls[ 1 ], configuration( -1, maxSize, 0 ) ) ) );
+    }
+
+    @Test
+    public void smallEntryIsServedFromMemory()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final Configuration configuration = configuration( -1, -1, 2L * m_content.length );
+        read( cache.open( m_url, configuration ) );
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration ) ) );
+
+        // once in memory, the data file is not needed anymore
+        assertTrue( dataFiles()[ 0 ].delete() );
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration ) ) );
+    }
+
+    @Test
+    public void missIsStreamedThrough()
+        throws Exception
+    {
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final InputStream in = cache.open( m_url, configuration( -1, -1, 0 ) );
+        try
+        {
+            final byte[] buffer = new byte[1024];
+            assertEquals( buffer.length, in.read( buffer ) );
+            // not cached till read completely
+            assertFalse( cache.contains( m_url ) );
+            assertEquals( 0, dataFiles().length );
+        }
+        finally
+        {
+            in.close();
+        }
+        // closed before the end, so the rest was read to cache it anyway
+        assertTrue( cache.contains( m_url ) );
+        assertEquals( 1, dataFiles().length );
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( -1, -1, 0 ) ) ) );
+    }
+
+    @Test
+    public void bigMissClosedBeforeEndIsDiscarded()
+        throws Exception
+    {
+        final File source = new File( m_workingDirectory.getParentFile(), "big.bin" );
+        Files.write( source.toPath(), new byte[(int) Cache.DRAIN_LIMIT + 2 * 1024] );
+        final URL url = source.toURI().toURL();
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final InputStream in = cache.open( url, configuration( -1, -1, 0 ) );
+        try
+        {
+            assertEquals( 1024, in.read( new byte[1024] ) );
+        }
+        finally
+        {
+            in.close();
+        }
+        assertFalse( cache.contains( url ) );
+        // lock file only
+        assertEquals( 1, m_workingDirectory.list().length );
+    }
+
+    @Test
+    public void readersWaitForFill()
+        throws Exception
+    {
+        final AtomicInteger connections = new AtomicInteger();
+        final URL url = new URL( "counting", null, -1, m_url.toExternalForm(), new URLStreamHandler()
+        {
+            protected URLConnection openConnection( final URL u )
+                throws IOException
+            {
+                connections.incrementAndGet();
+                return m_url.openConnection();
+            }
+        } );
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final InputStream in = cache.open( url, configuration( -1, -1, 0 ) );
+        try
+        {
+            final byte[] head = new byte[1024];
+            assertEquals( head.length, in.read( head ) );
+            final Future<byte[]> other = executor.submit( new Callable<byte[]>()
+            {
+                public byte[] call()
+                    throws Exception
+                {
+                    return read( cache.open( url, configuration( -1, -1, 0 ) ) );
+                }
+            } );
+            Thread.sleep( 100 );
+            assertFalse( other.isDone() );
+
+            final byte[] tail = read( in );
+            assertEquals( m_content.length, head.length + tail.length );
+            assertArrayEquals( m_content, other.get() );
+            assertEquals( 1, connections.get() );
+        }
+        finally
+        {
+            in.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void entriesAreReloadedFromIndex()
+        throws Exception
+    {
+        read( Cache.getInstance( m_workingDirectory ).open( m_url, configuration( -1, -1, 0 ) ) );
+        final Cache cache = new Cache( m_workingDirectory.getAbsoluteFile() );
+        assertTrue( cache.contains( m_url ) );
+
+        // served from working directory, even if origin is gone
+        assertTrue( new File( m_url.toURI() ).delete() );
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( -1, -1, 0 ) ) ) );
+    }
+
+    @Test
+    public void legacyEntriesAreMigrated()
+        throws Exception
+    {
+        m_workingDirectory.mkdirs();
+        final Properties meta = new Properties();
+        meta.setProperty( "url", m_url.toExternalForm() );
+        meta.setProperty( "cachedOn", String.valueOf( System.currentTimeMillis() ) );
+        final OutputStream out = new FileOutputStream( new File( m_workingDirectory, "0123456789abcdef.meta" ) );
+        try
+        {
+            meta.store( out, null );
+        }
+        finally
+        {
+            out.close();
+        }
+        Files.write( new File( m_workingDirectory, "0123456789abcdef.data" ).toPath(), m_content );
+        // without data file, so not migrated
+        Files.write( new File( m_workingDirectory, "fedcba9876543210.meta" ).toPath(), new byte[0] );
+
+        final Cache cache = new Cache( m_workingDirectory.getAbsoluteFile() );
+        assertTrue( cache.contains( m_url ) );
+        assertTrue( new File( m_url.toURI() ).delete() );
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( -1, -1, 0 ) ) ) );
+        assertEquals( 1, dataFiles().length );
+        assertEquals( 3, m_workingDirectory.list().length );
+
+        // and recorded in index
+        assertTrue( new Cache( m_workingDirectory.getAbsoluteFile() ).contains( m_url ) );
+        cache.close();
+    }
+
+    @Test
+    public void strayFilesAreDeletedWhenNotShared()
+        throws Exception
+    {
+        final Cache cache = new Cache( m_workingDirectory.getAbsoluteFile() );
+        final File strayData = new File( m_workingDirectory, "0123456789abcdef.data" );
+        final File strayTmp = new File( m_workingDirectory, "0123456789abcdef.data1.tmp" );
+        final File otherData = new File( m_workingDirectory, "other.data" );
+        Files.write( strayData.toPath(), m_content );
+        Files.write( strayTmp.toPath(), m_content );
+        Files.write( otherData.toPath(), m_content );
+
+        // working directory used by another cache, so its files are kept
+        new Cache( m_workingDirectory.getAbsoluteFile() ).close();
+        assertTrue( strayData.exists() );
+        assertTrue( strayTmp.exists() );
+        cache.close();
+
+        new Cache( m_workingDirectory.getAbsoluteFile() ).close();
+        assertFalse( strayData.exists() );
+        assertFalse( strayTmp.exists() );
+        // not named as cache names files
+        assertTrue( otherData.exists() );
+    }
+
+    @Test
+    public void tooLongUrlIsNotCached()
+        throws Exception
+    {
+        final StringBuilder query = new StringBuilder( "?" );
+        while( query.length() < 70000 )
+        {
+            query.append( "query" );
+        }
+        final URL url = new URL( m_url.toExternalForm() + query );
+        final Cache cache = Cache.getInstance( m_workingDirectory );
+        assertArrayEquals( m_content, read( cache.open( url, configuration( -1, -1, 0 ) ) ) );
+        assertFalse( cache.contains( url ) );
+
+        // index is still complete
+        assertArrayEquals( m_content, read( cache.open( m_url, configuration( -1, -1, 0 ) ) ) );
+        assertTrue( new Cache( m_workingDirectory.getAbsoluteFile() ).contains( m_url ) );
+    }
+
+    @Test
+    public void hashIsFnv1a()
+    {
+        assertEquals( 0xcbf29ce484222325L, Cache.hash( "" ) );
+        assertEquals( 0xaf63dc4c8601ec8cL, Cache.hash( "a" ) );
+        assertEquals( 0x85944171f73967e8L, Cache.hash( "foobar" ) );
+    }
+
+    private File[] dataFiles()
+    {
+        return m_workingDirectory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( final File dir, final String name )
+            {
+                return name.endsWith( ".data" );
+            }
+        } );
+    }
+
+    private static Configuration configuration( final long timeToLive, final long maxSize, final long memorySize )
+    {
+        return new Configuration()
+        {
+            public File getWorkingDirectory()
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            public Long getTimeToLive()
+            {
+                return timeToLive;
+            }
+
+            public Long getMaxSize()
+            {
+                return maxSize;
+            }
+
+            public Long getMemorySize()
+            {
+                return memorySize;
+            }
+
+            public Long getMemoryEntrySize()
+            {
+                return memorySize;
+            }
+        };
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) > 0 )
+            {
+                out.write( buffer, 0, read );
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,540 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Collects the packages referenced by a class file: classes of the constant pool, descriptors and generic signatures
+ * of fields and methods, types of runtime visible annotations and classes loaded by Class.forName with a constant
+ * name. References by the public API (super types, signatures and annotations of a public class and of its public and
+ * protected members) are also collected apart, as they are the ones exposed to users of the package.
+ */
+final class ClassReferences
+{
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PROTECTED = 0x0004;
+
+    /**
+     * Utf8 constants.
+     */
+    private final String[] m_strings;
+    /**
+     * Constant tags.
+     */
+    private final byte[] m_tags;
+    /**
+     * Constant values (indexes) of class, string, method and name and type constants; two indexes are packed in one
+     * int.
+     */
+    private final int[] m_values;
+    /**
+     * Indexes of Class.forName method constants, null if the class does not use it.
+     */
+    private Set<Integer> m_forNames;
+    /**
+     * Referenced packages (collected).
+     */
+    private final Set<String> m_packages;
+    /**
+     * Packages referenced by the public API (collected).
+     */
+    private final Set<String> m_apiPackages;
+    /**
+     * True while reading a part of the public API.
+     */
+    private boolean m_api;
+
+    private ClassReferences( final int constantPoolCount, final Set<String> packages, final Set<String> apiPackages )
+    {
+        m_strings = new String[constantPoolCount];
+        m_tags = new byte[constantPoolCount];
+        m_values = new int[constantPoolCount];
+        m_packages = packages;
+        m_apiPackages = apiPackages;
+    }
+
+    /**
+     * Collects the packages referenced by a class file.
+     *
+     * @param classFile   content of class file
+     * @param packages    set to add referenced packages to (dot separated names)
+     * @param apiPackages set to add packages referenced by the public API to
+     *
+     * @return class file major version
+     *
+     * @throws IOException - If content is not a valid class file
+     */
+    static int collect( final byte[] classFile, final Set<String> packages, final Set<String> apiPackages )
+        throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new ByteArrayInputStream( classFile ) );
+        if( in.readInt() != 0xCAFEBABE )
+        {
+            throw new IOException( "Not a class file" );
+        }
+        in.readUnsignedShort();
+        final int majorVersion = in.readUnsignedShort();
+        final ClassReferences references = new ClassReferences( in.readUnsignedShort(), packages, apiPackages );
+        references.readConstantPool( in );
+        final boolean publicClass = ( in.readUnsignedShort() & ACC_PUBLIC ) != 0;
+        references.m_api = publicClass;
+        in.skipBytes( 2 );
+        // super class is 0 for java.lang.Object
+        final int superClass = in.readUnsignedShort();
+        if( superClass != 0 )
+        {
+            references.addClassConstant( superClass );
+        }
+        final int interfaces = in.readUnsignedShort();
+        for( int i = 0; i < interfaces; i++ )
+        {
+            references.addClassConstant( in.readUnsignedShort() );
+        }
+        references.readMembers( in, publicClass );
+        references.readMembers( in, publicClass );
+        references.m_api = publicClass;
+        references.readAttributes( in );
+        return majorVersion;
+    }
+
+    private void readConstantPool( final DataInputStream in )
+        throws IOException
+    {
+        for( int i = 1; i < m_strings.length; i++ )
+        {
+            final int tag = in.readUnsignedByte();
+            m_tags[ i ] = (byte) tag;
+            switch( tag )
+            {
+                case CONSTANT_UTF8:
+                    m_strings[ i ] = in.readUTF();
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                    m_values[ i ] = in.readUnsignedShort();
+                    break;
+                case CONSTANT_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                    m_values[ i ] = in.readInt();
+                    break;
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    in.skipBytes( 2 );
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    in.skipBytes( 3 );
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    in.skipBytes( 4 );
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    in.skipBytes( 8 );
+                    // takes two entries
+                    i++;
+                    break;
+                default:
+                    throw new IOException( "Unknown constant pool tag " + tag );
+            }
+        }
+        for( int i = 1; i < m_tags.length; i++ )
+        {
+            switch( m_tags[ i ] )
+            {
+                case CONSTANT_CLASS:
+                    addClassConstant( i );
+                    break;
+                case CONSTANT_METHOD_TYPE:
+                    addSignature( string( m_values[ i ] ) );
+                    break;
+                case CONSTANT_NAME_AND_TYPE:
+                    addSignature( string( m_values[ i ] & 0xffff ) );
+                    break;
+                case CONSTANT_METHODREF:
+                    if( isForName( m_values[ i ] ) )
+                    {
+                        if( m_forNames == null )
+                        {
+                            m_forNames = new HashSet<Integer>();
+                        }
+                        m_forNames.add( i );
+                    }
+                    break;
+                default:
+                    // no references
+            }
+        }
+    }
+
+    /**
+     * Checks if a method constant is Class.forName.
+     */
+    private boolean isForName( final int method )
+        throws IOException
+    {
+        final int classIndex = method >>> 16;
+        final int nameAndType = method & 0xffff;
+        return nameAndType < m_tags.length && m_tags[ nameAndType ] == CONSTANT_NAME_AND_TYPE
+               && "forName".equals( string( m_values[ nameAndType ] >>> 16 ) )
+               && classIndex < m_tags.length && m_tags[ classIndex ] == CONSTANT_CLASS
+               && "java/lang/Class".equals( string( m_values[ classIndex ] ) );
+    }
+
+    /**
+     * Adds the packages of classes loaded by name: string constants pushed right before calling Class.forName
+     * (ldc / ldc_w followed by invokestatic).
+     */
+    private void readCode( final DataInputStream in )
+        throws IOException
+    {
+        in.skipBytes( 4 );
+        final byte[] code = new byte[in.readInt()];
+        in.readFully( code );
+        final boolean api = m_api;
+        m_api = false;
+        for( int i = 0; i < code.length - 4; i++ )
+        {
+            final int opcode = code[ i ] & 0xff;
+            final int constant;
+            final int next;
+            if( opcode == 0x12 )
+            {
+                constant = code[ i + 1 ] & 0xff;
+                next = i + 2;
+            }
+            else if( opcode == 0x13 )
+            {
+                constant = ( ( code[ i + 1 ] & 0xff ) << 8 ) | ( code[ i + 2 ] & 0xff );
+                next = i + 3;
+            }
+            else
+            {
+                continue;
+            }
+            if( next + 2 < code.length && ( code[ next ] & 0xff ) == 0xb8
+                && constant < m_tags.length && m_tags[ constant ] == CONSTANT_STRING
+                && m_forNames.contains( ( ( code[ next + 1 ] & 0xff ) << 8 ) | ( code[ next + 2 ] & 0xff ) ) )
+            {
+                final String className = string( m_values[ constant ] );
+                if( className.indexOf( '/' ) < 0 )
+                {
+                    addClass( className.replace( '.', '/' ) );
+                }
+            }
+        }
+        m_api = api;
+        in.skipBytes( 8 * in.readUnsignedShort() );
+        readAttributes( in );
+    }
+
+    private void readMembers( final DataInputStream in, final boolean publicClass )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+        for( int i = 0; i < count; i++ )
+        {
+            final int accessFlags = in.readUnsignedShort();
+            m_api = publicClass && ( accessFlags & ( ACC_PUBLIC | ACC_PROTECTED ) ) != 0;
+            in.skipBytes( 2 );
+            addSignature( string( in.readUnsignedShort() ) );
+            readAttributes( in );
+        }
+    }
+
+    private void readAttributes( final DataInputStream in )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+        for( int i = 0; i < count; i++ )
+        {
+            final String name = string( in.readUnsignedShort() );
+            final int length = in.readInt();
+            if( "Signature".equals( name ) )
+            {
+                addSignature( string( in.readUnsignedShort() ) );
+            }
+            else if( "RuntimeVisibleAnnotations".equals( name ) )
+            {
+                readAnnotations( in );
+            }
+            else if( "RuntimeVisibleParameterAnnotations".equals( name ) )
+            {
+                final int parameters = in.readUnsignedByte();
+                for( int p = 0; p < parameters; p++ )
+                {
+                    readAnnotations( in );
+                }
+            }
+            else if( "AnnotationDefault".equals( name ) )
+            {
+                readElementValue( in );
+            }
+            else if( "Code".equals( name ) && m_forNames != null )
+            {
+                readCode( in );
+            }
+            else if( "Exceptions".equals( name ) )
+            {
+                final int exceptions = in.readUnsignedShort();
+                for( int e = 0; e < exceptions; e++ )
+                {
+                    addClassConstant( in.readUnsignedShort() );
+                }
+            }
+            else
+            {
+                in.skipBytes( length );
+            }
+        }
+    }
+
+    private void readAnnotations( final DataInputStream in )
+        throws IOException
+    {
+        final int count = in.readUnsignedShort();
+        for( int i = 0; i < count; i++ )
+        {
+            readAnnotation( in );
+        }
+    }
+
+    private void readAnnotation( final DataInputStream in )
+        throws IOException
+    {
+        addSignature( string( in.readUnsignedShort() ) );
+        final int pairs = in.readUnsignedShort();
+        for( int i = 0; i < pairs; i++ )
+        {
+            in.skipBytes( 2 );
+            readElementValue( in );
+        }
+    }
+
+    private void readElementValue( final DataInputStream in )
+        throws IOException
+    {
+        final int tag = in.readUnsignedByte();
+        switch( tag )
+        {
+            case 'e':
+                addSignature( string( in.readUnsignedShort() ) );
+                in.skipBytes( 2 );
+                break;
+            case 'c':
+                addSignature( string( in.readUnsignedShort() ) );
+                break;
+            case '@':
+                readAnnotation( in );
+                break;
+            case '[':
+                final int count = in.readUnsignedShort();
+                for( int i = 0; i < count; i++ )
+                {
+                    readElementValue( in );
+                }
+                break;
+            default:
+                // constant value
+                in.skipBytes( 2 );
+        }
+    }
+
+    private void addClassConstant( final int index )
+        throws IOException
+    {
+        if( index <= 0 || index >= m_tags.length || m_tags[ index ] != CONSTANT_CLASS )
+        {
+            throw new IOException( "Invalid class constant reference " + index );
+        }
+        final String name = string( m_values[ index ] );
+        if( name.startsWith( "[" ) )
+        {
+            addSignature( name );
+        }
+        else
+        {
+            addClass( name );
+        }
+    }
+
+    private String string( final int index )
+        throws IOException
+    {
+        if( index <= 0 || index >= m_strings.length || m_strings[ index ] == null )
+        {
+            throw new IOException( "Invalid constant pool reference " + index );
+        }
+        return m_strings[ index ];
+    }
+
+    /**
+     * Adds the packages of classes referenced by a descriptor or a generic signature.
+     */
+    private void addSignature( final String signature )
+    {
+        final int length = signature.length();
+        int i = 0;
+        if( length > 0 && signature.charAt( 0 ) == '<' )
+        {
+            // formal type parameters: identifiers are followed by ':' and bounds
+            i++;
+            while( i < length && signature.charAt( i ) != '>' )
+            {
+                i = signature.indexOf( ':', i );
+                if( i < 0 )
+                {
+                    return;
+                }
+                while( i < length && signature.charAt( i ) == ':' )
+                {
+                    i++;
+                    // class bound can be empty
+                    if( i < length && signature.charAt( i ) != ':' )
+                    {
+                        i = skipType( signature, i );
+                    }
+                }
+            }
+            i++;
+        }
+        while( i < length )
+        {
+            i = skipType( signature, i );
+        }
+    }
+
+    /**
+     * Adds the packages of the type starting at an index of a signature.
+     *
+     * @return index after the type
+     */
+    private int skipType( final String signature, final int start )
+    {
+        final int length = signature.length();
+        int i = start;
+        while( i < length )
+        {
+            final char c = signature.charAt( i );
+            if( c == 'L' )
+            {
+                int end = i + 1;
+                while( end < length && ";<.".indexOf( signature.charAt( end ) ) < 0 )
+                {
+                    end++;
+                }
+                addClass( signature.substring( i + 1, end ) );
+                return skipClassSuffix( signature, end );
+            }
+            if( c == 'T' )
+            {
+                final int end = signature.indexOf( ';', i );
+                return end < 0 ? length : end + 1;
+            }
+            if( c == '[' )
+            {
+                i++;
+                continue;
+            }
+            // primitive type, or method descriptor delimiters
+            return i + 1;
+        }
+        return i;
+    }
+
+    /**
+     * Skips type arguments and inner classes following a class name.
+     *
+     * @return index after the class type
+     */
+    private int skipClassSuffix( final String signature, final int start )
+    {
+        final int length = signature.length();
+        int i = start;
+        while( i < length )
+        {
+            final char c = signature.charAt( i );
+            if( c == ';' )
+            {
+                return i + 1;
+            }
+            if( c == '<' )
+            {
+                i++;
+                while( i < length && signature.charAt( i ) != '>' )
+                {
+                    final char argument = signature.charAt( i );
+                    i = argument == '*' || argument == '+' || argument == '-' ? i + 1 : skipType( signature, i );
+                }
+                i++;
+            }
+            else
+            {
+                // inner class name
+                i++;
+                while( i < length && ";<.".indexOf( signature.charAt( i ) ) < 0 )
+                {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+
+    private void addClass( final String internalName )
+    {
+        final int slash = internalName.lastIndexOf( '/' );
+        if( slash > 0 )
+        {
+            final String packageName = internalName.substring( 0, slash ).replace( '/', '.' );
+            m_packages.add( packageName );
+            if( m_api )
+            {
+                m_apiPackages.add( packageName );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads and writes jar entries held in memory.
+ */
+final class JarContent
+{
+
+    /**
+     * Content of entries that are not read.
+     */
+    private static final byte[] NOT_READ = new byte[0];
+
+    /**
+     * Utility class.
+     */
+    private JarContent()
+    {
+        // utility class
+    }
+
+    /**
+     * Reads all entries of a jar.
+     *
+     * @param in jar content; not closed
+     *
+     * @return entries by name, in jar order
+     *
+     * @throws IOException - If jar cannot be read
+     */
+    static Map<String, byte[]> read( final InputStream in )
+        throws IOException
+    {
+        final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        final ZipInputStream zip = new ZipInputStream( in );
+        ZipEntry entry;
+        while( ( entry = zip.getNextEntry() ) != null )
+        {
+            entries.put( entry.getName(), read( zip, entry ) );
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the entries of a jar file the package analysis needs: class files, packageinfo files, the manifest and
+     * the given embedded jars. Other entries are listed without content, as only their names matter.
+     *
+     * @param zip      jar file
+     * @param embedded names of embedded jars to be read
+     *
+     * @return entries by name, in jar order
+     *
+     * @throws IOException - If jar cannot be read
+     */
+    static Map<String, byte[]> read( final ZipFile zip, final Collection<String> embedded )
+        throws IOException
+    {
+        final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while( zipEntries.hasMoreElements() )
+        {
+            final ZipEntry entry = zipEntries.nextElement();
+            final String name = entry.getName();
+            if( !entry.isDirectory()
+                && ( name.endsWith( ".class" ) || name.endsWith( "packageinfo" )
+                     || JarFile.MANIFEST_NAME.equals( name ) || embedded.contains( name ) ) )
+            {
+                final InputStream in = zip.getInputStream( entry );
+                try
+                {
+                    entries.put( name, read( in, entry ) );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            else
+            {
+                entries.put( name, NOT_READ );
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the content of an entry.
+     */
+    private static byte[] read( final InputStream in, final ZipEntry entry )
+        throws IOException
+    {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream(
+            entry.getSize() > 0 ? (int) entry.getSize() : 1024
+        );
+        final byte[] buffer = new byte[8192];
+        int read;
+        while( ( read = in.read( buffer ) ) >= 0 )
+        {
+            content.write( buffer, 0, read );
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Returns the manifest of a jar.
+     *
+     * @param entries jar entries
+     *
+     * @return manifest or null if jar has no manifest
+     *
+     * @throws IOException - If manifest cannot be parsed
+     */
+    static Manifest getManifest( final Map<String, byte[]> entries )
+        throws IOException
+    {
+        final byte[] manifest = entries.get( JarFile.MANIFEST_NAME );
+        return manifest == null ? null : new Manifest( new ByteArrayInputStream( manifest ) );
+    }
+
+    /**
+     * Writes a jar with a new manifest. The old manifest and signature files are left out, as signatures are not
+     * valid anymore.
+     *
+     * @param entries  jar entries
+     * @param manifest new manifest
+     * @param out      stream to write to; not closed
+     *
+     * @throws IOException - If jar cannot be written
+     */
+    static void write( final Map<String, byte[]> entries, final Manifest manifest, final OutputStream out )
+        throws IOException
+    {
+        final JarOutputStream jar = new JarOutputStream( out, manifest );
+        for( Map.Entry<String, byte[]> entry : entries.entrySet() )
+        {
+            final String name = entry.getKey();
+            if( !JarFile.MANIFEST_NAME.equalsIgnoreCase( name ) && !"META-INF/".equalsIgnoreCase( name )
+                && !isSignature( name ) )
+            {
+                jar.putNextEntry( new ZipEntry( name ) );
+                jar.write( entry.getValue() );
+                jar.closeEntry();
+            }
+        }
+        jar.finish();
+    }
+
+    private static boolean isSignature( final String name )
+    {
+        final String upperCase = name.toUpperCase( Locale.ENGLISH );
+        return upperCase.startsWith( "META-INF/" ) && upperCase.indexOf( '/', "META-INF/".length() ) < 0
+               && ( upperCase.endsWith( ".SF" ) || upperCase.endsWith( ".RSA" ) || upperCase.endsWith( ".DSA" )
+                    || upperCase.endsWith( ".EC" ) );
+    }
+
+}
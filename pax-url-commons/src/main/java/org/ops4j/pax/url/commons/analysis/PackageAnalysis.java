@@ -0,0 +1,465 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Packages contained and referenced by the bundle class path of a jar. Class files (also of embedded jars) are
+ * analyzed in parallel, using a shared fork-join pool.
+ */
+final class PackageAnalysis
+{
+
+    /**
+     * Maximum number of resources analyzed by one task.
+     */
+    private static final int THRESHOLD = 64;
+    /**
+     * Analysis threads (created on demand).
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    /**
+     * Descriptors of package version annotations.
+     */
+    private static final byte[] OSGI_VERSION = ascii( "Lorg/osgi/annotation/versioning/Version;" );
+    private static final byte[] BND_VERSION = ascii( "LaQute/bnd/annotation/Version;" );
+
+    /**
+     * Contained packages, with the packages referenced by the public API of their classes.
+     */
+    private final Map<String, Set<String>> m_contained;
+    /**
+     * Packages referenced by the classes of contained packages.
+     */
+    private final Map<String, Set<String>> m_references;
+    /**
+     * Packages referenced by all classes.
+     */
+    private final Set<String> m_referenced;
+    /**
+     * Highest class file major version.
+     */
+    private int m_majorVersion;
+    /**
+     * True if package versions are defined by packageinfo files or package-info annotations.
+     */
+    private boolean m_packageVersions;
+
+    private PackageAnalysis()
+    {
+        m_contained = new HashMap<String, Set<String>>();
+        m_references = new HashMap<String, Set<String>>();
+        m_referenced = new HashSet<String>();
+    }
+
+    /**
+     * Analyzes the bundle class path of a jar.
+     *
+     * @param jar       jar entries (name to content)
+     * @param classPath bundle class path entries: "." (jar root), directories or embedded jars of the jar
+     *
+     * @return analysis
+     *
+     * @throws IOException - If a class file or embedded jar cannot be read
+     */
+    static PackageAnalysis analyze( final Map<String, byte[]> jar, final List<String> classPath )
+        throws IOException
+    {
+        final List<ForkJoinTask<PackageAnalysis>> tasks = new ArrayList<ForkJoinTask<PackageAnalysis>>();
+        final List<Resource> resources = new ArrayList<Resource>();
+        for( String entry : classPath )
+        {
+            if( ".".equals( entry ) )
+            {
+                addResources( jar, "", resources );
+            }
+            else if( jar.containsKey( entry ) )
+            {
+                tasks.add( new JarTask( entry, jar.get( entry ) ) );
+            }
+            else
+            {
+                addResources( jar, entry.endsWith( "/" ) ? entry : entry + "/", resources );
+            }
+        }
+        tasks.add( new ResourcesTask( resources, 0, resources.size() ) );
+        try
+        {
+            return POOL.invoke( new MergeTask( tasks ) );
+        }
+        catch( AnalysisException e )
+        {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns the contained packages.
+     *
+     * @return package names
+     */
+    Set<String> getContained()
+    {
+        return m_contained.keySet();
+    }
+
+    /**
+     * Returns the packages referenced by the public API of the classes of a contained package.
+     *
+     * @param packageName contained package name
+     *
+     * @return referenced package names
+     */
+    Set<String> getUses( final String packageName )
+    {
+        return m_contained.get( packageName );
+    }
+
+    /**
+     * Returns the packages referenced by the classes of a contained package.
+     *
+     * @param packageName contained package name
+     *
+     * @return referenced package names
+     */
+    Set<String> getReferences( final String packageName )
+    {
+        final Set<String> references = m_references.get( packageName );
+        return references == null ? Collections.<String>emptySet() : references;
+    }
+
+    /**
+     * Returns the packages referenced by all classes.
+     *
+     * @return referenced package names
+     */
+    Set<String> getReferenced()
+    {
+        return m_referenced;
+    }
+
+    /**
+     * Returns the highest major version of analyzed class files.
+     *
+     * @return major version, 0 if there are no classes
+     */
+    int getMajorVersion()
+    {
+        return m_majorVersion;
+    }
+
+    /**
+     * Checks if package versions are defined by packageinfo files or (bnd or OSGi) @Version annotations of
+     * package-info classes.
+     *
+     * @return true if there are package versions
+     */
+    boolean hasPackageVersions()
+    {
+        return m_packageVersions;
+    }
+
+    private void merge( final PackageAnalysis analysis )
+    {
+        merge( m_contained, analysis.m_contained );
+        merge( m_references, analysis.m_references );
+        m_referenced.addAll( analysis.m_referenced );
+        m_majorVersion = Math.max( m_majorVersion, analysis.m_majorVersion );
+        m_packageVersions |= analysis.m_packageVersions;
+    }
+
+    private static void merge( final Map<String, Set<String>> packages, final Map<String, Set<String>> merged )
+    {
+        for( Map.Entry<String, Set<String>> entry : merged.entrySet() )
+        {
+            final Set<String> references = packages.get( entry.getKey() );
+            if( references == null )
+            {
+                packages.put( entry.getKey(), entry.getValue() );
+            }
+            else
+            {
+                references.addAll( entry.getValue() );
+            }
+        }
+    }
+
+    private void analyze( final Resource resource )
+        throws IOException
+    {
+        final int slash = resource.name.lastIndexOf( '/' );
+        final String packageName = slash > 0 ? resource.name.substring( 0, slash ).replace( '/', '.' ) : null;
+        Set<String> uses = null;
+        if( packageName != null )
+        {
+            uses = m_contained.get( packageName );
+            if( uses == null )
+            {
+                uses = new HashSet<String>();
+                m_contained.put( packageName, uses );
+            }
+        }
+        if( resource.name.endsWith( "packageinfo" ) )
+        {
+            m_packageVersions = true;
+        }
+        if( resource.name.endsWith( ".class" ) && !resource.name.endsWith( "module-info.class" ) )
+        {
+            if( resource.name.endsWith( "package-info.class" )
+                && ( contains( resource.content, OSGI_VERSION ) || contains( resource.content, BND_VERSION ) ) )
+            {
+                m_packageVersions = true;
+            }
+            final Set<String> references = new HashSet<String>();
+            final Set<String> api = uses != null ? uses : new HashSet<String>();
+            try
+            {
+                m_majorVersion = Math.max(
+                    m_majorVersion, ClassReferences.collect( resource.content, references, api )
+                );
+            }
+            catch( IOException e )
+            {
+                throw new IOException( "Invalid class file [" + resource.name + "]", e );
+            }
+            m_referenced.addAll( references );
+            if( packageName != null )
+            {
+                final Set<String> packageReferences = m_references.get( packageName );
+                if( packageReferences == null )
+                {
+                    m_references.put( packageName, references );
+                }
+                else
+                {
+                    packageReferences.addAll( references );
+                }
+            }
+        }
+    }
+
+    private static boolean contains( final byte[] content, final byte[] bytes )
+    {
+        for( int i = 0; i <= content.length - bytes.length; i++ )
+        {
+            int matched = 0;
+            while( matched < bytes.length && content[ i + matched ] == bytes[ matched ] )
+            {
+                matched++;
+            }
+            if( matched == bytes.length )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the resources of a directory of the jar, except the ones under META-INF.
+     */
+    private static void addResources( final Map<String, byte[]> jar, final String prefix, final List<Resource> resources )
+    {
+        for( Map.Entry<String, byte[]> entry : jar.entrySet() )
+        {
+            final String name = entry.getKey();
+            if( name.startsWith( prefix ) && !name.endsWith( "/" ) )
+            {
+                final String relative = name.substring( prefix.length() );
+                if( !relative.startsWith( "META-INF/" ) )
+                {
+                    resources.add( new Resource( relative, entry.getValue() ) );
+                }
+            }
+        }
+    }
+
+    private static byte[] ascii( final String value )
+    {
+        final byte[] bytes = new byte[value.length()];
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            bytes[ i ] = (byte) value.charAt( i );
+        }
+        return bytes;
+    }
+
+    /**
+     * Resource of the class path.
+     */
+    private static final class Resource
+    {
+
+        final String name;
+        final byte[] content;
+
+        Resource( final String name, final byte[] content )
+        {
+            this.name = name;
+            this.content = content;
+        }
+
+    }
+
+    /**
+     * Unchecked wrapper of failures in tasks.
+     */
+    private static final class AnalysisException
+        extends RuntimeException
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        AnalysisException( final IOException cause )
+        {
+            super( cause );
+        }
+
+        @Override
+        public IOException getCause()
+        {
+            return (IOException) super.getCause();
+        }
+
+    }
+
+    /**
+     * Analyzes resources, splitting them in halves till there are few enough.
+     */
+    private static final class ResourcesTask
+        extends RecursiveTask<PackageAnalysis>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Resource> m_resources;
+        private final int m_from;
+        private final int m_to;
+
+        ResourcesTask( final List<Resource> resources, final int from, final int to )
+        {
+            m_resources = resources;
+            m_from = from;
+            m_to = to;
+        }
+
+        @Override
+        protected PackageAnalysis compute()
+        {
+            if( m_to - m_from > THRESHOLD )
+            {
+                final int middle = ( m_from + m_to ) >>> 1;
+                final ResourcesTask first = new ResourcesTask( m_resources, m_from, middle );
+                first.fork();
+                final PackageAnalysis analysis = new ResourcesTask( m_resources, middle, m_to ).compute();
+                analysis.merge( first.join() );
+                return analysis;
+            }
+            final PackageAnalysis analysis = new PackageAnalysis();
+            try
+            {
+                for( int i = m_from; i < m_to; i++ )
+                {
+                    analysis.analyze( m_resources.get( i ) );
+                }
+            }
+            catch( IOException e )
+            {
+                throw new AnalysisException( e );
+            }
+            return analysis;
+        }
+
+    }
+
+    /**
+     * Unpacks an embedded jar and analyzes its resources.
+     */
+    private static final class JarTask
+        extends RecursiveTask<PackageAnalysis>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String m_name;
+        private final byte[] m_content;
+
+        JarTask( final String name, final byte[] content )
+        {
+            m_name = name;
+            m_content = content;
+        }
+
+        @Override
+        protected PackageAnalysis compute()
+        {
+            final List<Resource> resources = new ArrayList<Resource>();
+            try
+            {
+                addResources( JarContent.read( new ByteArrayInputStream( m_content ) ), "", resources );
+            }
+            catch( IOException e )
+            {
+                throw new AnalysisException( new IOException( "Invalid embedded jar [" + m_name + "]", e ) );
+            }
+            return new ResourcesTask( resources, 0, resources.size() ).compute();
+        }
+
+    }
+
+    /**
+     * Runs tasks in parallel and merges their results.
+     */
+    private static final class MergeTask
+        extends RecursiveTask<PackageAnalysis>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ForkJoinTask<PackageAnalysis>> m_tasks;
+
+        MergeTask( final List<ForkJoinTask<PackageAnalysis>> tasks )
+        {
+            m_tasks = tasks;
+        }
+
+        @Override
+        protected PackageAnalysis compute()
+        {
+            invokeAll( m_tasks );
+            final PackageAnalysis analysis = new PackageAnalysis();
+            for( ForkJoinTask<PackageAnalysis> task : m_tasks )
+            {
+                analysis.merge( task.join() );
+            }
+            return analysis;
+        }
+
+    }
+
+}
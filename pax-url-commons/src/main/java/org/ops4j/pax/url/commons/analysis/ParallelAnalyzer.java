@@ -0,0 +1,703 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+import org.ops4j.pax.url.commons.bundle.WrappingInstructions;
+import org.ops4j.pax.url.commons.io.ContentStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates bundles out of jars for the simple, most common wrapping instructions, without bnd: class files are
+ * analyzed in parallel (see {@link PackageAnalysis}) and Import-Package / Export-Package headers are calculated out of
+ * the referenced and contained packages, the way bnd would, including uses directives, version ranges of imported
+ * exported packages and the execution environment requirement. Other headers of the original manifest are kept.<br/>
+ * Jars defining package versions (packageinfo files or @Version annotations) are left to bnd.<br/>
+ * Supported instructions are headers (copied as they are), Import-Package and Export-Package made of package names,
+ * wildcards and negations, Bundle-ClassPath and -removeheaders. Other instructions (as other bnd instructions, macros,
+ * Private-Package or Include-Resource) have to be processed by bnd.
+ */
+public final class ParallelAnalyzer
+{
+
+    private static final String IMPORT_PACKAGE = "Import-Package";
+    private static final String EXPORT_PACKAGE = "Export-Package";
+    private static final String PRIVATE_PACKAGE = "Private-Package";
+    private static final String BUNDLE_CLASSPATH = "Bundle-ClassPath";
+    private static final String BUNDLE_SYMBOLICNAME = "Bundle-SymbolicName";
+    private static final String REQUIRE_CAPABILITY = "Require-Capability";
+    private static final String REMOVE_HEADERS = "-removeheaders";
+
+    /**
+     * Instructions processed by bnd only.
+     */
+    private static final Set<String> UNSUPPORTED = new HashSet<String>( Arrays.asList(
+        PRIVATE_PACKAGE, "Include-Resource", "Conditional-Package", "Export-Contents", "Service-Component",
+        "Ignore-Package"
+    ) );
+    /**
+     * Headers of the original manifest that are not kept.
+     */
+    private static final Set<String> RECALCULATED = new HashSet<String>( Arrays.asList(
+        "Manifest-Version", "Bundle-ManifestVersion", IMPORT_PACKAGE, EXPORT_PACKAGE, PRIVATE_PACKAGE
+    ) );
+    /**
+     * Supported package patterns.
+     */
+    private static final Pattern PACKAGE_PATTERN = Pattern.compile( "!?[\\w$.*]+" );
+    /**
+     * Attribute values bnd writes without quotes.
+     */
+    private static final Pattern TOKEN = Pattern.compile( "[\\w-]+" );
+
+    private static final Logger LOG = LoggerFactory.getLogger( ParallelAnalyzer.class );
+
+    /**
+     * Utility class.
+     */
+    private ParallelAnalyzer()
+    {
+        // utility class
+    }
+
+    /**
+     * Checks if a bundle can be created using the instructions, without bnd.
+     *
+     * @param instructions wrapping instructions
+     *
+     * @return true if instructions are supported
+     */
+    public static boolean canAnalyze( final Properties instructions )
+    {
+        for( String name : instructions.stringPropertyNames() )
+        {
+            final String value = instructions.getProperty( name );
+            if( value.contains( "${" ) || UNSUPPORTED.contains( name )
+                || ( name.startsWith( "-" ) && !REMOVE_HEADERS.equals( name ) ) )
+            {
+                return false;
+            }
+            if( IMPORT_PACKAGE.equals( name ) || EXPORT_PACKAGE.equals( name ) )
+            {
+                for( Clause clause : Clause.parse( value ) )
+                {
+                    if( !PACKAGE_PATTERN.matcher( clause.name ).matches() )
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads jar content in memory (as bnd does before analyzing it).
+     *
+     * @param in jar content; closed
+     *
+     * @return jar content
+     *
+     * @throws IOException - If jar cannot be read
+     */
+    public static byte[] read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) >= 0 )
+            {
+                out.write( buffer, 0, read );
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates a bundle out of a jar. Instructions must be supported (see {@link #canAnalyze(Properties)}).
+     *
+     * @param jar          jar content
+     * @param instructions wrapping instructions
+     * @param jarInfo      jar info, used as default symbolic name
+     * @param keepBundle   true if a jar that is already a bundle should be kept as it is
+     *
+     * @return input stream of bundle, or null if jar cannot be analyzed (as an invalid class file), so bnd should be
+     *         used
+     *
+     * @throws IOException - If jar cannot be read
+     */
+    public static InputStream createBundle( final byte[] jar,
+                                            final Properties instructions,
+                                            final String jarInfo,
+                                            final boolean keepBundle )
+        throws IOException
+    {
+        final Map<String, byte[]> entries = JarContent.read( new ByteArrayInputStream( jar ) );
+        final Manifest manifest = JarContent.getManifest( entries );
+        if( keepBundle && manifest != null
+            && ( manifest.getMainAttributes().getValue( EXPORT_PACKAGE ) != null
+                 || manifest.getMainAttributes().getValue( IMPORT_PACKAGE ) != null ) )
+        {
+            return new ByteArrayInputStream( jar );
+        }
+        final Manifest bundleManifest;
+        try
+        {
+            bundleManifest = calcManifest( entries, instructions, jarInfo );
+        }
+        catch( IOException e )
+        {
+            LOG.debug( "Jar [" + jarInfo + "] cannot be analyzed, falling back to bnd", e );
+            return null;
+        }
+        return ContentStreams.pipe( jarInfo, new ContentStreams.Content()
+        {
+            public void writeTo( final OutputStream out )
+                throws IOException
+            {
+                JarContent.write( entries, bundleManifest, out );
+            }
+        } );
+    }
+
+    /**
+     * Calculates the manifest of a bundle made of a jar file, without reading the whole jar: only class files,
+     * packageinfo files, the manifest and the embedded jars of the bundle class path are read. Instructions must be
+     * supported (see {@link #canAnalyze(Properties)}).
+     *
+     * @param jar          jar file
+     * @param instructions wrapping instructions
+     * @param jarInfo      jar info, used as default symbolic name
+     *
+     * @return bundle manifest, or null if jar cannot be analyzed (as an invalid class file), so bnd should be used
+     *
+     * @throws IOException - If jar cannot be read
+     */
+    public static Manifest calcManifest( final ZipFile jar, final Properties instructions, final String jarInfo )
+        throws IOException
+    {
+        final Map<String, byte[]> entries = JarContent.read(
+            jar, classPath( WrappingInstructions.withDefaults( instructions, null, jarInfo ) )
+        );
+        try
+        {
+            return calcManifest( entries, instructions, jarInfo );
+        }
+        catch( IOException e )
+        {
+            LOG.debug( "Jar [" + jarInfo + "] cannot be analyzed, falling back to bnd", e );
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the manifest of the bundle.
+     *
+     * @param entries      jar entries
+     * @param instructions wrapping instructions
+     * @param jarInfo      jar info, used as default symbolic name
+     *
+     * @return bundle manifest
+     *
+     * @throws IOException - If a class file or embedded jar cannot be read, or package versions are defined
+     */
+    static Manifest calcManifest( final Map<String, byte[]> entries,
+                                  final Properties instructions,
+                                  final String jarInfo )
+        throws IOException
+    {
+        final Properties properties = WrappingInstructions.withDefaults( instructions, null, jarInfo );
+
+        final PackageAnalysis analysis = PackageAnalysis.analyze( entries, classPath( properties ) );
+        if( analysis.hasPackageVersions() )
+        {
+            throw new IOException( "Package versions (packageinfo files or @Version annotations) are not supported" );
+        }
+
+        final Set<String> contained = new TreeSet<String>();
+        for( String packageName : analysis.getContained() )
+        {
+            if( isValidPackage( packageName ) )
+            {
+                contained.add( packageName );
+            }
+        }
+        final Map<String, Clause> exports = new LinkedHashMap<String, Clause>();
+        select( Clause.parse( properties.getProperty( EXPORT_PACKAGE ) ), contained, false, exports );
+        final Set<String> privatePackages = new TreeSet<String>( contained );
+        privatePackages.removeAll( exports.keySet() );
+
+        // as bnd, an exported package is also imported if classes of other packages reference it, unless it
+        // references private packages
+        final Set<String> usedByOthers = new HashSet<String>();
+        for( String packageName : contained )
+        {
+            for( String used : analysis.getReferences( packageName ) )
+            {
+                if( !used.equals( packageName ) )
+                {
+                    usedByOthers.add( used );
+                }
+            }
+        }
+        final Set<String> referenced = new TreeSet<String>();
+        for( String packageName : analysis.getReferenced() )
+        {
+            if( !packageName.startsWith( "java." ) && !privatePackages.contains( packageName )
+                && ( !exports.containsKey( packageName )
+                     || ( usedByOthers.contains( packageName )
+                          && Collections.disjoint( analysis.getReferences( packageName ), privatePackages ) ) ) )
+            {
+                referenced.add( packageName );
+            }
+        }
+        final Map<String, Clause> imports = new LinkedHashMap<String, Clause>();
+        select( Clause.parse( properties.getProperty( IMPORT_PACKAGE ) ), referenced, true, imports );
+
+        final Manifest manifest = new Manifest();
+        final Attributes main = manifest.getMainAttributes();
+        main.putValue( "Manifest-Version", "1.0" );
+        main.putValue( "Bundle-ManifestVersion", "2" );
+        main.putValue(
+            "Created-By", System.getProperty( "java.version" ) + " (" + System.getProperty( "java.vendor" ) + ")"
+        );
+        final Manifest original = JarContent.getManifest( entries );
+        if( original != null )
+        {
+            for( Map.Entry<Object, Object> header : original.getMainAttributes().entrySet() )
+            {
+                final String name = header.getKey().toString();
+                if( "Created-By".equalsIgnoreCase( name ) )
+                {
+                    main.putValue( "Originally-Created-By", header.getValue().toString() );
+                }
+                else if( !RECALCULATED.contains( name ) )
+                {
+                    main.putValue( name, header.getValue().toString() );
+                }
+            }
+        }
+        for( String name : new TreeSet<String>( properties.stringPropertyNames() ) )
+        {
+            if( Character.isUpperCase( name.charAt( 0 ) )
+                && !IMPORT_PACKAGE.equals( name ) && !EXPORT_PACKAGE.equals( name ) )
+            {
+                main.putValue( name, properties.getProperty( name ) );
+            }
+        }
+        if( main.getValue( "Bundle-Name" ) == null )
+        {
+            main.putValue( "Bundle-Name", main.getValue( BUNDLE_SYMBOLICNAME ) );
+        }
+        if( main.getValue( "Bundle-Version" ) == null )
+        {
+            main.putValue( "Bundle-Version", "0" );
+        }
+        if( !exports.isEmpty() )
+        {
+            final Set<String> wired = new HashSet<String>( imports.keySet() );
+            wired.addAll( exports.keySet() );
+            final StringBuilder header = new StringBuilder();
+            for( Clause export : exports.values() )
+            {
+                final Set<String> uses = new TreeSet<String>( analysis.getUses( export.name ) );
+                uses.retainAll( wired );
+                uses.remove( export.name );
+                append( header, export );
+                if( !uses.isEmpty() && !export.attributes.contains( "uses:=" ) )
+                {
+                    header.append( ";uses:=\"" ).append( join( uses ) ).append( "\"" );
+                }
+            }
+            main.putValue( EXPORT_PACKAGE, header.toString() );
+        }
+        if( !imports.isEmpty() )
+        {
+            final StringBuilder header = new StringBuilder();
+            for( Clause importClause : imports.values() )
+            {
+                append( header, importClause );
+                final Clause export = exports.get( importClause.name );
+                if( export != null && !importClause.attributes.contains( "version=" ) )
+                {
+                    final String range = importRange( export.getAttribute( "version" ) );
+                    if( range != null )
+                    {
+                        header.append( ";version=\"" ).append( range ).append( "\"" );
+                    }
+                }
+            }
+            main.putValue( IMPORT_PACKAGE, header.toString() );
+        }
+        if( !privatePackages.isEmpty() )
+        {
+            main.putValue( PRIVATE_PACKAGE, join( privatePackages ) );
+        }
+        final String ee = executionEnvironment( analysis.getMajorVersion() );
+        if( ee != null )
+        {
+            final String requirement = main.getValue( REQUIRE_CAPABILITY );
+            if( requirement == null )
+            {
+                main.putValue( REQUIRE_CAPABILITY, ee );
+            }
+            else if( !requirement.contains( "osgi.ee" ) )
+            {
+                main.putValue( REQUIRE_CAPABILITY, requirement + "," + ee );
+            }
+        }
+        final String removeHeaders = properties.getProperty( REMOVE_HEADERS );
+        if( removeHeaders != null )
+        {
+            for( Clause header : Clause.parse( removeHeaders ) )
+            {
+                final Pattern pattern = header.toPattern();
+                for( Object name : new ArrayList<Object>( main.keySet() ) )
+                {
+                    if( pattern.matcher( name.toString() ).matches() )
+                    {
+                        main.remove( name );
+                    }
+                }
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the entries of the bundle class path.
+     */
+    private static List<String> classPath( final Properties properties )
+    {
+        final List<String> classPath = new ArrayList<String>();
+        for( Clause clause : Clause.parse( properties.getProperty( BUNDLE_CLASSPATH, "." ) ) )
+        {
+            classPath.add( clause.name );
+        }
+        return classPath;
+    }
+
+    /**
+     * Selects the packages matching package instructions, in the order bnd does: packages matching each instruction
+     * in turn (sorted), then literal packages not matched. The first matching instruction wins; negated instructions
+     * exclude packages. Literal imports are selected even if not referenced.
+     */
+    private static void select( final List<Clause> instructions,
+                                final Set<String> packages,
+                                final boolean literals,
+                                final Map<String, Clause> selected )
+    {
+        final Set<String> matched = new HashSet<String>();
+        final List<Clause> unmatched = new ArrayList<Clause>();
+        for( Clause instruction : instructions )
+        {
+            if( instruction.negated )
+            {
+                final Pattern pattern = instruction.toPattern();
+                for( String packageName : packages )
+                {
+                    if( pattern.matcher( packageName ).matches() )
+                    {
+                        matched.add( packageName );
+                    }
+                }
+            }
+            else if( !instruction.isWildcard() )
+            {
+                if( !instruction.name.startsWith( "java." ) && matched.add( instruction.name ) )
+                {
+                    if( packages.contains( instruction.name ) )
+                    {
+                        selected.put( instruction.name, instruction );
+                    }
+                    else if( literals )
+                    {
+                        unmatched.add( instruction );
+                    }
+                }
+            }
+            else
+            {
+                final Pattern pattern = instruction.toPattern();
+                for( String packageName : packages )
+                {
+                    if( !matched.contains( packageName ) && pattern.matcher( packageName ).matches() )
+                    {
+                        matched.add( packageName );
+                        selected.put( packageName, instruction.rename( packageName ) );
+                    }
+                }
+            }
+        }
+        for( Clause instruction : unmatched )
+        {
+            selected.put( instruction.name, instruction );
+        }
+    }
+
+    /**
+     * Returns the import version range of an exported package version: [major.minor,major+1).
+     */
+    private static String importRange( final String version )
+    {
+        if( version == null )
+        {
+            return null;
+        }
+        final String[] segments = version.trim().split( "\\." );
+        try
+        {
+            final int major = Integer.parseInt( segments[ 0 ] );
+            final int minor = segments.length > 1 ? Integer.parseInt( segments[ 1 ] ) : 0;
+            return "[" + major + "." + minor + "," + ( major + 1 ) + ")";
+        }
+        catch( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the execution environment requirement of classes compiled for a class file version.
+     */
+    private static String executionEnvironment( final int majorVersion )
+    {
+        if( majorVersion < 49 )
+        {
+            return null;
+        }
+        final int javaVersion = majorVersion - 44;
+        return "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=" + ( javaVersion < 9 ? "1." + javaVersion : javaVersion )
+               + "))\"";
+    }
+
+    private static boolean isValidPackage( final String packageName )
+    {
+        for( String segment : packageName.split( "\\." ) )
+        {
+            if( segment.length() == 0 || !Character.isJavaIdentifierStart( segment.charAt( 0 ) ) )
+            {
+                return false;
+            }
+            for( int i = 1; i < segment.length(); i++ )
+            {
+                if( !Character.isJavaIdentifierPart( segment.charAt( i ) ) )
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void append( final StringBuilder header, final Clause clause )
+    {
+        if( header.length() > 0 )
+        {
+            header.append( ',' );
+        }
+        header.append( clause.name ).append( clause.attributes );
+    }
+
+    private static String join( final Set<String> names )
+    {
+        final StringBuilder joined = new StringBuilder();
+        for( String name : names )
+        {
+            if( joined.length() > 0 )
+            {
+                joined.append( ',' );
+            }
+            joined.append( name );
+        }
+        return joined.toString();
+    }
+
+    /**
+     * Clause of a header: name (pattern) followed by attributes and directives.
+     */
+    private static final class Clause
+    {
+
+        final String name;
+        final boolean negated;
+        /**
+         * Attributes and directives, each preceded by ";".
+         */
+        final String attributes;
+
+        private Clause( final String name, final String attributes )
+        {
+            this.negated = name.startsWith( "!" );
+            this.name = negated ? name.substring( 1 ) : name;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Returns an attribute or directive as bnd writes it: without spaces, value quoted unless it is a token.
+         */
+        private static String normalize( final String part )
+        {
+            final int equals = part.indexOf( '=' );
+            if( equals < 0 )
+            {
+                return part;
+            }
+            final boolean directive = equals > 0 && part.charAt( equals - 1 ) == ':';
+            final String key = part.substring( 0, directive ? equals - 1 : equals ).trim();
+            String value = part.substring( equals + 1 ).trim();
+            if( value.length() >= 2 && value.startsWith( "\"" ) && value.endsWith( "\"" ) )
+            {
+                value = value.substring( 1, value.length() - 1 );
+            }
+            if( !TOKEN.matcher( value ).matches() )
+            {
+                value = "\"" + value + "\"";
+            }
+            return key + ( directive ? ":=" : "=" ) + value;
+        }
+
+        /**
+         * Parses a header. Names sharing attributes (a;b;version=1) result in a clause per name.
+         */
+        static List<Clause> parse( final String header )
+        {
+            final List<Clause> clauses = new ArrayList<Clause>();
+            for( String clause : split( header, ',' ) )
+            {
+                final List<String> names = new ArrayList<String>();
+                final StringBuilder attributes = new StringBuilder();
+                for( String part : split( clause, ';' ) )
+                {
+                    if( attributes.length() == 0 && !part.contains( "=" ) )
+                    {
+                        names.add( part );
+                    }
+                    else
+                    {
+                        attributes.append( ';' ).append( normalize( part ) );
+                    }
+                }
+                for( String name : names )
+                {
+                    clauses.add( new Clause( name, attributes.toString() ) );
+                }
+            }
+            return clauses;
+        }
+
+        /**
+         * Splits on a separator outside of quotes, trimming and skipping empty parts.
+         */
+        private static List<String> split( final String value, final char separator )
+        {
+            if( value == null )
+            {
+                return Collections.emptyList();
+            }
+            final List<String> parts = new ArrayList<String>();
+            boolean quoted = false;
+            int start = 0;
+            for( int i = 0; i <= value.length(); i++ )
+            {
+                final char c = i < value.length() ? value.charAt( i ) : separator;
+                if( c == '"' )
+                {
+                    quoted = !quoted;
+                }
+                else if( c == separator && ( !quoted || i == value.length() ) )
+                {
+                    final String part = value.substring( start, i ).trim();
+                    if( part.length() > 0 )
+                    {
+                        parts.add( part );
+                    }
+                    start = i + 1;
+                }
+            }
+            return parts;
+        }
+
+        boolean isWildcard()
+        {
+            return name.contains( "*" );
+        }
+
+        /**
+         * Returns the pattern matching the name: "*" matches any characters and "a.*" matches also "a".
+         */
+        Pattern toPattern()
+        {
+            final boolean subPackages = name.endsWith( ".*" );
+            final String base = subPackages ? name.substring( 0, name.length() - 2 ) : name;
+            final String regex = Pattern.quote( base ).replace( "*", "\\E.*\\Q" );
+            return Pattern.compile( subPackages ? regex + "(\\..*)?" : regex );
+        }
+
+        /**
+         * Returns a clause with same attributes for a matching name.
+         */
+        Clause rename( final String matching )
+        {
+            return new Clause( matching, attributes );
+        }
+
+        /**
+         * Returns the (unquoted) value of an attribute, null if not set.
+         */
+        String getAttribute( final String attribute )
+        {
+            for( String part : split( attributes, ';' ) )
+            {
+                final int equals = part.indexOf( '=' );
+                if( equals > 0 && part.charAt( equals - 1 ) != ':'
+                    && attribute.equals( part.substring( 0, equals ).trim() ) )
+                {
+                    return part.substring( equals + 1 ).trim().replace( "\"", "" );
+                }
+            }
+            return null;
+        }
+
+    }
+
+}
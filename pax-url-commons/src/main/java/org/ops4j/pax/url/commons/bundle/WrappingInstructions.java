@@ -0,0 +1,95 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.bundle;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.Manifest;
+
+/**
+ * Defaults of the instructions used to turn content into bundles, the same as pax-swissbox-bnd BndUtils: packages
+ * are exported and optionally imported, the symbolic name is derived from the content location and the location is
+ * recorded in the Generated-By-Ops4j-Pax-From header.
+ */
+public final class WrappingInstructions
+{
+
+    /**
+     * Header recording the location of the wrapped content.
+     */
+    public static final String GENERATED_FROM = "Generated-By-Ops4j-Pax-From";
+
+    private static final String IMPORT_PACKAGE = "Import-Package";
+    private static final String EXPORT_PACKAGE = "Export-Package";
+    private static final String BUNDLE_SYMBOLICNAME = "Bundle-SymbolicName";
+
+    /**
+     * Utility class.
+     */
+    private WrappingInstructions()
+    {
+        // utility class
+    }
+
+    /**
+     * Returns a copy of instructions completed with defaults.
+     *
+     * @param instructions instructions; not changed
+     * @param manifest     manifest merged in the instructions (as bnd Analyzer.mergeManifest() does) or null
+     * @param location     location of content
+     *
+     * @return completed instructions
+     */
+    public static Properties withDefaults( final Properties instructions,
+                                           final Manifest manifest,
+                                           final String location )
+    {
+        final Properties properties = new Properties();
+        properties.putAll( instructions );
+        properties.setProperty( GENERATED_FROM, location );
+        if( manifest != null )
+        {
+            // headers of the manifest are used unless set by instructions; instructions are not merged
+            for( Map.Entry<Object, Object> header : manifest.getMainAttributes().entrySet() )
+            {
+                final String name = header.getKey().toString();
+                if( !name.startsWith( "-" ) && properties.getProperty( name ) == null )
+                {
+                    properties.setProperty( name, header.getValue().toString() );
+                }
+            }
+        }
+        if( isEmpty( properties.getProperty( IMPORT_PACKAGE ) ) )
+        {
+            properties.setProperty( IMPORT_PACKAGE, "*;resolution:=optional" );
+        }
+        if( isEmpty( properties.getProperty( EXPORT_PACKAGE ) ) )
+        {
+            properties.setProperty( EXPORT_PACKAGE, "*" );
+        }
+        properties.setProperty(
+            BUNDLE_SYMBOLICNAME,
+            properties.getProperty( BUNDLE_SYMBOLICNAME, location ).replaceAll( "[^a-zA-Z_0-9.-]", "_" )
+        );
+        return properties;
+    }
+
+    private static boolean isEmpty( final String value )
+    {
+        return value == null || value.trim().length() == 0;
+    }
+
+}
@@ -0,0 +1,582 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of generated bundles, stored in a directory. There is one instance per directory, shared by all connections
+ * (of all handlers) using that directory.<br/>
+ * A generated bundle is keyed by a SHA-256 of its sources (see {@link #key(byte[], Properties, String...)}), so a
+ * bundle that was already generated out of the same content and instructions is not generated again, also after a
+ * restart. Generated bundles are written to temporary files and moved in place atomically, under a per-key (striped)
+ * lock.<br/>
+ * Once the total size of cached bundles exceeds the maximum size, least recently used bundles are deleted. Last use
+ * is kept (coarsely) as last modification time of bundle files, so it survives a restart.
+ */
+public class BundleCache
+{
+
+    /**
+     * Generated bundle file extension.
+     */
+    private static final String EXT_BUNDLE = ".jar";
+    /**
+     * Temporary (being written) file extension.
+     */
+    private static final String EXT_TMP = ".tmp";
+    /**
+     * Number of generation locks.
+     */
+    private static final int LOCK_STRIPES = 32;
+    /**
+     * Charset used to digest instructions.
+     */
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    /**
+     * Age after which a temporary file is considered left over by a stopped process.
+     */
+    private static final long STALE_TMP_AGE = TimeUnit.HOURS.toMillis( 1 );
+    /**
+     * Minimum time between two updates of the last modification time of a used bundle.
+     */
+    private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis( 1 );
+
+    /**
+     * Caches by (absolute) directory.
+     */
+    private static final ConcurrentMap<File, BundleCache> CACHES = new ConcurrentHashMap<File, BundleCache>();
+
+    /**
+     * Cache directory.
+     */
+    private final File m_directory;
+    /**
+     * Generation locks.
+     */
+    private final Lock[] m_locks;
+    /**
+     * Content digests of local files, by path.
+     */
+    private final ConcurrentMap<String, LocalDigest> m_localDigests;
+    /**
+     * Sizes of cached bundles by file name, least recently used first. Guards the total size.
+     */
+    private final Map<String, Long> m_bundles;
+    /**
+     * Total size of cached bundles.
+     */
+    private long m_size;
+    /**
+     * Maximum total sizes of cached bundles requested by owners of the cache, negative if not limited. Guarded by
+     * itself.
+     */
+    private final Map<String, Long> m_maxSizes;
+    /**
+     * Maximum total size of cached bundles, the largest one requested by owners, negative if not limited.
+     */
+    private volatile long m_maxSize;
+
+    /**
+     * Generates a bundle on a cache miss.
+     */
+    public interface Generator
+    {
+
+        /**
+         * Generates the bundle.
+         *
+         * @return bundle content
+         *
+         * @throws IOException - If bundle cannot be generated
+         */
+        InputStream generate()
+            throws IOException;
+
+    }
+
+    private BundleCache( final File directory )
+    {
+        m_directory = directory;
+        m_locks = new Lock[LOCK_STRIPES];
+        for( int i = 0; i < LOCK_STRIPES; i++ )
+        {
+            m_locks[ i ] = new ReentrantLock();
+        }
+        m_localDigests = new ConcurrentHashMap<String, LocalDigest>();
+        m_bundles = new LinkedHashMap<String, Long>( 16, 0.75f, true );
+        m_maxSizes = new HashMap<String, Long>();
+        // not limited till an owner sets its limit
+        m_maxSize = -1;
+        load();
+    }
+
+    /**
+     * Returns the cache for a directory. The directory can be shared by several owners (e.g. protocols) with different
+     * limits, in which case the largest limit applies, so that an owner does not evict the bundles of the others.
+     *
+     * @param directory cache directory
+     * @param owner     owner of the cache (e.g. protocol), whose limit replaces its former one
+     * @param maxSize   maximum total size of cached bundles requested by owner, negative if not limited
+     *
+     * @return cache (shared)
+     */
+    public static BundleCache getInstance( final File directory, final String owner, final long maxSize )
+    {
+        final File key = directory.getAbsoluteFile();
+        BundleCache cache = CACHES.get( key );
+        if( cache == null )
+        {
+            final BundleCache created = new BundleCache( key );
+            cache = CACHES.putIfAbsent( key, created );
+            if( cache == null )
+            {
+                cache = created;
+            }
+        }
+        cache.setMaxSize( owner, maxSize );
+        return cache;
+    }
+
+    /**
+     * Sets the limit requested by an owner and evicts bundles if the applied limit got lower.
+     *
+     * @param owner   owner of the cache
+     * @param maxSize maximum total size of cached bundles requested by owner, negative if not limited
+     */
+    private void setMaxSize( final String owner, final long maxSize )
+    {
+        final long applied;
+        synchronized( m_maxSizes )
+        {
+            final Long former = m_maxSizes.put( owner, maxSize );
+            if( former != null && former == maxSize )
+            {
+                return;
+            }
+            long largest = 0;
+            for( Long requested : m_maxSizes.values() )
+            {
+                if( requested < 0 )
+                {
+                    largest = -1;
+                    break;
+                }
+                largest = Math.max( largest, requested );
+            }
+            applied = largest;
+            if( applied == m_maxSize )
+            {
+                return;
+            }
+            m_maxSize = applied;
+        }
+        if( applied >= 0 )
+        {
+            evict( null );
+        }
+    }
+
+    /**
+     * Returns the input stream of a cached bundle, generating it first if not yet cached.
+     *
+     * @param key       bundle key, as returned by {@link #key(byte[], Properties, String...)}
+     * @param generator generates the bundle on a cache miss
+     *
+     * @return input stream of cached bundle
+     *
+     * @throws IOException - If bundle cannot be generated
+     */
+    public InputStream open( final String key, final Generator generator )
+        throws IOException
+    {
+        m_directory.mkdirs();
+        final File bundle = new File( m_directory, key + EXT_BUNDLE );
+        InputStream cached = openCached( bundle );
+        if( cached == null )
+        {
+            final Lock lock = m_locks[ ( key.hashCode() & 0x7fffffff ) % LOCK_STRIPES ];
+            lock.lock();
+            try
+            {
+                // other thread could have generated the bundle while we were waiting
+                cached = openCached( bundle );
+                if( cached == null )
+                {
+                    cached = generate( generator, bundle );
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the content digest of a file.
+     *
+     * @param file     digested file
+     * @param remember true if digest should be kept while file length and last modification time do not change,
+     *                 false if file is temporary
+     *
+     * @return SHA-256 of file content
+     *
+     * @throws IOException - If file cannot be read
+     */
+    public byte[] digest( final File file, final boolean remember )
+        throws IOException
+    {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final LocalDigest known = remember ? m_localDigests.get( path ) : null;
+        if( known != null && known.m_length == length && known.m_lastModified == lastModified )
+        {
+            return known.m_digest;
+        }
+        final DigestInputStream in = new DigestInputStream( new FileInputStream( file ), newDigest() );
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            while( in.read( buffer ) >= 0 )
+            {
+                // just digest
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        final byte[] digest = in.getMessageDigest().digest();
+        if( remember )
+        {
+            m_localDigests.put( path, new LocalDigest( length, lastModified, digest ) );
+        }
+        return digest;
+    }
+
+    /**
+     * Computes the cache key of a generated bundle.
+     *
+     * @param contentDigest digest of the content the bundle is generated from
+     * @param instructions  instructions the bundle is generated with
+     * @param parts         anything else the generated bundle depends on (as handler or bnd version), can contain
+     *                      nulls
+     *
+     * @return key (hexadecimal SHA-256)
+     *
+     * @throws IOException - If SHA-256 is not supported
+     */
+    public static String key( final byte[] contentDigest, final Properties instructions, final String... parts )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        digest.update( contentDigest );
+        final Map<String, String> sorted = new TreeMap<String, String>();
+        for( String name : instructions.stringPropertyNames() )
+        {
+            sorted.put( name, instructions.getProperty( name ) );
+        }
+        for( Map.Entry<String, String> instruction : sorted.entrySet() )
+        {
+            update( digest, instruction.getKey() );
+            update( digest, instruction.getValue() );
+        }
+        for( String part : parts )
+        {
+            update( digest, part );
+        }
+
+        final byte[] bytes = digest.digest();
+        final StringBuilder key = new StringBuilder( bytes.length * 2 );
+        for( byte b : bytes )
+        {
+            key.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Opens a cached bundle and marks it as used.
+     *
+     * @return bundle content, null if bundle is not cached
+     */
+    private InputStream openCached( final File bundle )
+    {
+        final InputStream in;
+        try
+        {
+            in = new FileInputStream( bundle );
+        }
+        catch( FileNotFoundException e )
+        {
+            // not generated yet, or evicted
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized( m_bundles )
+        {
+            // (access ordered) lookup makes it the most recently used bundle
+            if( m_bundles.get( bundle.getName() ) == null )
+            {
+                // generated by another process sharing the directory
+                add( bundle.getName(), bundle.length() );
+            }
+        }
+        if( now - bundle.lastModified() > TOUCH_INTERVAL )
+        {
+            bundle.setLastModified( now );
+        }
+        return new BufferedInputStream( in );
+    }
+
+    /**
+     * Generates the bundle, moves it in place, opens it and evicts least recently used bundles if the cache outgrew
+     * its maximum size.
+     */
+    private InputStream generate( final Generator generator, final File bundle )
+        throws IOException
+    {
+        final File tmp = File.createTempFile( bundle.getName(), EXT_TMP, m_directory );
+        try
+        {
+            copy( generator.generate(), new FileOutputStream( tmp ) );
+            try
+            {
+                Files.move( tmp.toPath(), bundle.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING
+                );
+            }
+            catch( AtomicMoveNotSupportedException e )
+            {
+                Files.move( tmp.toPath(), bundle.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+        // opened before eviction, so it can be read even if evicted right away
+        final InputStream in = new BufferedInputStream( new FileInputStream( bundle ) );
+        synchronized( m_bundles )
+        {
+            add( bundle.getName(), bundle.length() );
+        }
+        evict( bundle.getName() );
+        return in;
+    }
+
+    /**
+     * Registers a cached bundle as the most recently used one. Must be called while holding the lock of bundles.
+     */
+    private void add( final String name, final long size )
+    {
+        final Long previous = m_bundles.put( name, size );
+        m_size += size - ( previous == null ? 0 : previous );
+    }
+
+    /**
+     * Deletes least recently used bundles till total size of cached bundles does not exceed maximum size.
+     *
+     * @param keep name of a bundle that should not be deleted, null if any bundle can be deleted
+     */
+    private void evict( final String keep )
+    {
+        final long maxSize = m_maxSize;
+        if( maxSize < 0 )
+        {
+            return;
+        }
+        synchronized( m_bundles )
+        {
+            final Iterator<Map.Entry<String, Long>> bundles = m_bundles.entrySet().iterator();
+            while( m_size > maxSize && bundles.hasNext() )
+            {
+                final Map.Entry<String, Long> bundle = bundles.next();
+                if( !bundle.getKey().equals( keep ) )
+                {
+                    // streams already opened keep reading the deleted file
+                    new File( m_directory, bundle.getKey() ).delete();
+                    m_size -= bundle.getValue();
+                    bundles.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the bundles found in cache directory, least recently used first, and deletes temporary files left
+     * over by stopped processes.
+     */
+    private void load()
+    {
+        final File[] files = m_directory.listFiles();
+        if( files == null )
+        {
+            return;
+        }
+        final long staleBefore = System.currentTimeMillis() - STALE_TMP_AGE;
+        final List<File> bundles = new ArrayList<File>();
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for( File file : files )
+        {
+            if( file.getName().endsWith( EXT_TMP ) )
+            {
+                if( file.lastModified() < staleBefore )
+                {
+                    file.delete();
+                }
+            }
+            else if( file.getName().endsWith( EXT_BUNDLE ) && file.isFile() )
+            {
+                bundles.add( file );
+                lastModified.put( file, file.lastModified() );
+            }
+        }
+        Collections.sort( bundles, new Comparator<File>()
+        {
+            public int compare( final File file1, final File file2 )
+            {
+                return lastModified.get( file1 ).compareTo( lastModified.get( file2 ) );
+            }
+        }
+        );
+        synchronized( m_bundles )
+        {
+            for( File bundle : bundles )
+            {
+                add( bundle.getName(), bundle.length() );
+            }
+        }
+        evict( null );
+    }
+
+    /**
+     * Digests a (null terminated) string.
+     */
+    private static void update( final MessageDigest digest, final String value )
+    {
+        if( value != null )
+        {
+            digest.update( value.getBytes( UTF_8 ) );
+        }
+        digest.update( (byte) 0 );
+    }
+
+    private static MessageDigest newDigest()
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "Cannot compute cache key (SHA-256 not supported)", e );
+        }
+    }
+
+    /**
+     * Copies a stream to another, closing both.
+     */
+    private static void copy( final InputStream in, final OutputStream out )
+        throws IOException
+    {
+        try
+        {
+            final OutputStream bufferedOut = new BufferedOutputStream( out );
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) >= 0 )
+            {
+                bufferedOut.write( buffer, 0, read );
+            }
+            bufferedOut.flush();
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Content digest of a local file, valid as long as file length and last modification time do not change.
+     */
+    private static class LocalDigest
+    {
+
+        /**
+         * File length when digested.
+         */
+        private final long m_length;
+        /**
+         * File last modification time when digested.
+         */
+        private final long m_lastModified;
+        /**
+         * Content digest.
+         */
+        private final byte[] m_digest;
+
+        LocalDigest( final long length, final long lastModified, final byte[] digest )
+        {
+            m_length = length;
+            m_lastModified = lastModified;
+            m_digest = digest;
+        }
+
+    }
+
+}
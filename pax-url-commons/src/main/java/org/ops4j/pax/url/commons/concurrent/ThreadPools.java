@@ -0,0 +1,173 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.concurrent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread pools of protocol handlers: pools of named daemon threads, stopped when idle for a minute, and
+ * running of tasks whose failures are reported as IOExceptions.
+ */
+public final class ThreadPools
+{
+
+    /**
+     * Time (in seconds) after which idle threads stop.
+     */
+    private static final long KEEP_ALIVE = 60;
+
+    /**
+     * Utility class.
+     */
+    private ThreadPools()
+    {
+        // utility class
+    }
+
+    /**
+     * Creates a factory of daemon threads named after a prefix and a sequence number, as "pax-url-writer-1".
+     *
+     * @param prefix thread name prefix
+     *
+     * @return thread factory
+     */
+    public static ThreadFactory newThreadFactory( final String prefix )
+    {
+        return new ThreadFactory()
+        {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            public Thread newThread( final Runnable runnable )
+            {
+                final Thread thread = new Thread( runnable, prefix + "-" + m_count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Creates a pool of a fixed number of named daemon threads, queuing tasks while all threads are busy.
+     *
+     * @param prefix  thread name prefix
+     * @param threads number of threads
+     *
+     * @return thread pool
+     */
+    public static ThreadPoolExecutor newPool( final String prefix, final int threads )
+    {
+        return newPool(
+            newThreadFactory( prefix ), threads, new LinkedBlockingQueue<Runnable>(),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Creates a pool of a fixed number of threads.
+     *
+     * @param threadFactory factory of threads
+     * @param threads       number of threads
+     * @param queue         queue of tasks waiting for a thread
+     * @param handler       handler of tasks the queue does not accept
+     *
+     * @return thread pool
+     */
+    public static ThreadPoolExecutor newPool( final ThreadFactory threadFactory,
+                                              final int threads,
+                                              final BlockingQueue<Runnable> queue,
+                                              final RejectedExecutionHandler handler )
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, KEEP_ALIVE, TimeUnit.SECONDS, queue, threadFactory, handler
+        );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    /**
+     * Runs tasks using a pool (or the caller thread if there are only a few tasks) and returns their results, in
+     * order. IOExceptions of tasks are thrown as they are, other failures are thrown as IOExceptions.
+     *
+     * @param executor         pool running the tasks
+     * @param tasks            tasks to run
+     * @param minParallelTasks minimum number of tasks worth to be run concurrently
+     * @param failure          message of failures
+     *
+     * @return results of tasks, in order of tasks
+     *
+     * @throws IOException - If a task fails
+     */
+    public static <T> List<T> invokeAll( final ExecutorService executor,
+                                         final List<Callable<T>> tasks,
+                                         final int minParallelTasks,
+                                         final String failure )
+        throws IOException
+    {
+        final List<T> results = new ArrayList<T>( tasks.size() );
+        try
+        {
+            if( tasks.size() < minParallelTasks )
+            {
+                for( Callable<T> task : tasks )
+                {
+                    results.add( task.call() );
+                }
+                return results;
+            }
+            for( Future<T> future : executor.invokeAll( tasks ) )
+            {
+                results.add( future.get() );
+            }
+            return results;
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted: " + failure );
+        }
+        catch( ExecutionException e )
+        {
+            if( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( failure, e.getCause() );
+        }
+        catch( IOException e )
+        {
+            throw e;
+        }
+        catch( Exception e )
+        {
+            throw new IOException( failure, e );
+        }
+    }
+
+}
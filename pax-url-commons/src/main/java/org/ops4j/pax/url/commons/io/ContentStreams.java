@@ -0,0 +1,444 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.ops4j.pax.url.commons.concurrent.ThreadPools;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns generated content (as bundles written by protocol handlers) into input streams, either:<br/>
+ * - piped: content is written by a thread of a shared pool of named daemon threads, through a large pipe buffer,
+ * while the caller reads it;<br/>
+ * - spooled: content is written to a temporary file by the caller thread, deleted when the stream is closed.<br/>
+ * A failure of the writer is reported to the reader of a piped stream as an IOException, instead of a truncated
+ * stream.<br/>
+ * Writers never wait for a pooled thread: when all of them are busy (as with readers that are slow or do not read
+ * anymore), the content is spooled by the caller thread instead, so there are never more writer threads than the pool
+ * size. A writer gives up once its pipe has not been read for the write timeout, so abandoned streams do not keep
+ * threads forever.<br/>
+ * Pool size, pipe buffer size and write timeout can be set using system properties {@value #PROPERTY_THREADS},
+ * {@value #PROPERTY_BUFFER_SIZE} and {@value #PROPERTY_WRITE_TIMEOUT}.
+ */
+public final class ContentStreams
+{
+
+    /**
+     * Maximum number of writer threads system property name.
+     */
+    public static final String PROPERTY_THREADS = "org.ops4j.pax.url.commons.io.threads";
+    /**
+     * Pipe buffer size (in bytes) system property name.
+     */
+    public static final String PROPERTY_BUFFER_SIZE = "org.ops4j.pax.url.commons.io.bufferSize";
+    /**
+     * Write timeout (in seconds) system property name. A writer fails if its pipe is not read for that long.
+     */
+    public static final String PROPERTY_WRITE_TIMEOUT = "org.ops4j.pax.url.commons.io.writeTimeout";
+    /**
+     * Default pipe buffer size.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Default write timeout (in seconds).
+     */
+    private static final int DEFAULT_WRITE_TIMEOUT = 300;
+
+    private static final Logger LOG = LoggerFactory.getLogger( ContentStreams.class );
+
+    /**
+     * Writer threads.
+     */
+    private static final ThreadPoolExecutor WRITERS = createWriters();
+    /**
+     * Pipe buffer size.
+     */
+    private static final int BUFFER_SIZE = Integer.getInteger( PROPERTY_BUFFER_SIZE, DEFAULT_BUFFER_SIZE );
+    /**
+     * Write timeout (in milliseconds).
+     */
+    private static final long WRITE_TIMEOUT = TimeUnit.SECONDS.toMillis(
+        Integer.getInteger( PROPERTY_WRITE_TIMEOUT, DEFAULT_WRITE_TIMEOUT )
+    );
+
+    /**
+     * Content to be streamed.
+     */
+    public interface Content
+    {
+
+        /**
+         * Writes the content.
+         *
+         * @param out output stream to write to; closed by caller
+         *
+         * @throws IOException - If content cannot be written
+         */
+        void writeTo( OutputStream out )
+            throws IOException;
+
+    }
+
+    /**
+     * Utility class.
+     */
+    private ContentStreams()
+    {
+        // utility class
+    }
+
+    /**
+     * Returns a stream of content, written by a pooled thread while being read, or spooled if all pooled threads are
+     * busy.
+     *
+     * @param name    name of content (used in logs)
+     * @param content content
+     *
+     * @return input stream of content
+     *
+     * @throws IOException - If content has to be spooled and cannot be written
+     */
+    public static InputStream pipe( final String name, final Content content )
+        throws IOException
+    {
+        return pipe( name, content, WRITE_TIMEOUT );
+    }
+
+    /**
+     * Returns a stream of content, written by a pooled thread while being read, or spooled if all pooled threads are
+     * busy.
+     *
+     * @param name         name of content (used in logs)
+     * @param content      content
+     * @param writeTimeout time (in milliseconds) after which the writer fails if the pipe is not read
+     *
+     * @return input stream of content
+     *
+     * @throws IOException - If content has to be spooled and cannot be written
+     */
+    static InputStream pipe( final String name, final Content content, final long writeTimeout )
+        throws IOException
+    {
+        final Pipe pipe = new Pipe( BUFFER_SIZE, writeTimeout );
+        final Runnable writer = new Runnable()
+        {
+            public void run()
+            {
+                Throwable failure = null;
+                try
+                {
+                    content.writeTo( pipe.getOutputStream() );
+                }
+                catch( Throwable e )
+                {
+                    if( pipe.isClosed() )
+                    {
+                        // reader stopped reading
+                        LOG.debug( "Content of [" + name + "] cannot be written, pipe closed by reader", e );
+                    }
+                    else
+                    {
+                        LOG.warn( "Content of [" + name + "] cannot be written", e );
+                        failure = e;
+                    }
+                }
+                finally
+                {
+                    pipe.finish( failure );
+                }
+            }
+        };
+        try
+        {
+            WRITERS.execute( writer );
+        }
+        catch( RejectedExecutionException e )
+        {
+            LOG.debug( "All pooled writers are busy, spooling content of [" + name + "]" );
+            return spool( "content", content );
+        }
+        return pipe;
+    }
+
+    /**
+     * Writes content to a temporary file (in the caller thread) and returns a stream of it. The file is deleted
+     * when the stream is closed.
+     *
+     * @param prefix  temporary file name prefix (after "pax-url-")
+     * @param content content
+     *
+     * @return input stream of content
+     *
+     * @throws IOException - If content cannot be written
+     */
+    public static InputStream spool( final String prefix, final Content content )
+        throws IOException
+    {
+        final File file = File.createTempFile( "pax-url-" + prefix, ".tmp" );
+        boolean spooled = false;
+        try
+        {
+            final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), BUFFER_SIZE );
+            try
+            {
+                content.writeTo( out );
+            }
+            finally
+            {
+                out.close();
+            }
+            final InputStream in = new FilterInputStream( new BufferedInputStream( new FileInputStream( file ) ) )
+            {
+                @Override
+                public void close()
+                    throws IOException
+                {
+                    try
+                    {
+                        super.close();
+                    }
+                    finally
+                    {
+                        file.delete();
+                    }
+                }
+            };
+            spooled = true;
+            return in;
+        }
+        finally
+        {
+            if( !spooled )
+            {
+                file.delete();
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createWriters()
+    {
+        final int threads = Math.max(
+            1, Integer.getInteger( PROPERTY_THREADS, Math.max( 4, 2 * Runtime.getRuntime().availableProcessors() ) )
+        );
+        final ThreadFactory threadFactory = ThreadPools.newThreadFactory( "pax-url-writer" );
+        // no queue, so a writer never waits behind writers blocked by their readers: content is spooled instead
+        return ThreadPools.newPool(
+            threadFactory, threads, new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+
+    /**
+     * Bounded pipe, read by the caller and written by a writer thread. The reader is told about writer failures and
+     * the writer fails if the pipe is closed by the reader or not read for the write timeout.
+     */
+    private static final class Pipe
+        extends InputStream
+    {
+
+        /**
+         * Circular buffer.
+         */
+        private final byte[] m_buffer;
+        /**
+         * Time (in milliseconds) the writer waits for the reader to make room in a full buffer.
+         */
+        private final long m_writeTimeout;
+        /**
+         * Writing end.
+         */
+        private final OutputStream m_out;
+        /**
+         * Position of the next byte to be read.
+         */
+        private int m_position;
+        /**
+         * Number of bytes written but not read yet.
+         */
+        private int m_count;
+        /**
+         * True once the writer is done.
+         */
+        private boolean m_finished;
+        /**
+         * True once closed by the reader.
+         */
+        private volatile boolean m_closed;
+        /**
+         * Failure of the writer, if any.
+         */
+        private Throwable m_failure;
+
+        Pipe( final int bufferSize, final long writeTimeout )
+        {
+            m_buffer = new byte[bufferSize];
+            m_writeTimeout = writeTimeout;
+            m_out = new OutputStream()
+            {
+                @Override
+                public void write( final int b )
+                    throws IOException
+                {
+                    write( new byte[]{ (byte) b }, 0, 1 );
+                }
+
+                @Override
+                public void write( final byte[] b, final int off, final int len )
+                    throws IOException
+                {
+                    receive( b, off, len );
+                }
+            };
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            final byte[] b = new byte[1];
+            return read( b, 0, 1 ) < 0 ? -1 : b[ 0 ] & 0xff;
+        }
+
+        @Override
+        public synchronized int read( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            if( m_closed )
+            {
+                throw new IOException( "Pipe closed" );
+            }
+            if( len == 0 )
+            {
+                return 0;
+            }
+            while( m_count == 0 )
+            {
+                if( m_finished )
+                {
+                    if( m_failure != null )
+                    {
+                        throw new IOException( "Content cannot be written", m_failure );
+                    }
+                    return -1;
+                }
+                await( 0 );
+            }
+            final int read = Math.min( len, Math.min( m_count, m_buffer.length - m_position ) );
+            System.arraycopy( m_buffer, m_position, b, off, read );
+            m_position = ( m_position + read ) % m_buffer.length;
+            m_count -= read;
+            notifyAll();
+            return read;
+        }
+
+        @Override
+        public synchronized int available()
+        {
+            return m_count;
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            m_closed = true;
+            notifyAll();
+        }
+
+        OutputStream getOutputStream()
+        {
+            return m_out;
+        }
+
+        boolean isClosed()
+        {
+            return m_closed;
+        }
+
+        /**
+         * Called by the writer once done.
+         *
+         * @param failure writer failure, null if content was written
+         */
+        synchronized void finish( final Throwable failure )
+        {
+            m_finished = true;
+            m_failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Called by the writer to write bytes, waiting for room in the buffer.
+         */
+        private synchronized void receive( final byte[] b, int off, int len )
+            throws IOException
+        {
+            while( len > 0 )
+            {
+                final long deadline = System.currentTimeMillis() + m_writeTimeout;
+                while( !m_closed && m_count == m_buffer.length )
+                {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if( remaining <= 0 )
+                    {
+                        throw new IOException( "Pipe not read for " + m_writeTimeout + " ms" );
+                    }
+                    await( remaining );
+                }
+                if( m_closed )
+                {
+                    throw new IOException( "Pipe closed by reader" );
+                }
+                final int end = ( m_position + m_count ) % m_buffer.length;
+                final int written = Math.min( len, Math.min( m_buffer.length - m_count, m_buffer.length - end ) );
+                System.arraycopy( b, off, m_buffer, end, written );
+                m_count += written;
+                off += written;
+                len -= written;
+                notifyAll();
+            }
+        }
+
+        private void await( final long timeout )
+            throws InterruptedIOException
+        {
+            try
+            {
+                wait( timeout );
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting on pipe" );
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.analysis;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import javax.net.ssl.SSLContext;
+import javax.xml.namespace.QName;
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Jar;
+import org.junit.Test;
+import org.ops4j.pax.url.commons.bundle.WrappingInstructions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ParallelAnalyzer}.
+ */
+public class ParallelAnalyzerTest
+{
+
+    private static final String PACKAGE = "org.ops4j.pax.url.commons.analysis";
+    private static final String SAMPLE = "org/ops4j/pax/url/commons/analysis/ParallelAnalyzerTest$Sample.class";
+    private static final String OTHER_SAMPLE =
+        "org/ops4j/pax/url/commons/analysis/ParallelAnalyzerTest$OtherSample.class";
+    /**
+     * Headers bnd sets about itself.
+     */
+    private static final Set<String> BND_HEADERS = new HashSet<String>( Arrays.asList( "Tool", "Bnd-LastModified" ) );
+
+    @Test
+    public void exportsContainedAndImportsReferencedPackages()
+        throws IOException
+    {
+        final Map<String, byte[]> jar = new LinkedHashMap<String, byte[]>();
+        jar.put( SAMPLE, classFile( Sample.class ) );
+        jar.put( "other/resource.txt", new byte[]{ 1 } );
+
+        final Attributes main = ParallelAnalyzer.calcManifest( jar, new Properties(), "wrap:file:/sample.jar" )
+            .getMainAttributes();
+
+        assertEquals( "wrap_file__sample.jar", main.getValue( "Bundle-SymbolicName" ) );
+        assertEquals( "2", main.getValue( "Bundle-ManifestVersion" ) );
+        assertEquals( "wrap:file:/sample.jar", main.getValue( "Generated-By-Ops4j-Pax-From" ) );
+        assertEquals(
+            PACKAGE + ";uses:=\"javax.net.ssl,javax.xml.namespace\",other", main.getValue( "Export-Package" )
+        );
+        // field signature only references QName; own package is not used by other exported packages
+        assertEquals(
+            "javax.net.ssl;resolution:=optional,javax.xml.namespace;resolution:=optional",
+            main.getValue( "Import-Package" )
+        );
+        assertTrue( main.getValue( "Require-Capability" ).startsWith( "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)" ) );
+    }
+
+    @Test
+    public void embeddedJarsAreAnalyzed()
+        throws IOException
+    {
+        final Map<String, byte[]> jar = new LinkedHashMap<String, byte[]>();
+        jar.put( "WEB-INF/classes/" + SAMPLE, classFile( Sample.class ) );
+        jar.put( "WEB-INF/lib/other.jar", jar( OTHER_SAMPLE, classFile( OtherSample.class ) ) );
+        final Properties instructions = new Properties();
+        instructions.setProperty( "Bundle-ClassPath", "WEB-INF/classes,WEB-INF/lib/other.jar" );
+        instructions.setProperty( "Import-Package", "javax.servlet,javax.net.*;resolution:=optional,!javax.xml.*" );
+        instructions.setProperty( "Export-Package", "!*" );
+        instructions.setProperty( "-removeheaders", "Private-Package" );
+
+        final Attributes main = ParallelAnalyzer.calcManifest( jar, instructions, "war" ).getMainAttributes();
+
+        assertNull( main.getValue( "Export-Package" ) );
+        assertNull( main.getValue( "Private-Package" ) );
+        assertNull( main.getValue( "-removeheaders" ) );
+        assertEquals( "WEB-INF/classes,WEB-INF/lib/other.jar", main.getValue( "Bundle-ClassPath" ) );
+        assertEquals( "javax.net.ssl;resolution:=optional,javax.servlet", main.getValue( "Import-Package" ) );
+    }
+
+    @Test
+    public void exportedVersionIsImportedAsRange()
+        throws IOException
+    {
+        final Map<String, byte[]> jar = new LinkedHashMap<String, byte[]>();
+        jar.put( SAMPLE, classFile( Sample.class ) );
+        jar.put( "other/OtherSample.class", classFile( OtherSample.class ) );
+        final Properties instructions = new Properties();
+        instructions.setProperty( "Export-Package", PACKAGE + ";version=\"1.2.3\",*" );
+        instructions.setProperty( "Import-Package", "javax.*,*" );
+
+        final Attributes main = ParallelAnalyzer.calcManifest( jar, instructions, "wrap" ).getMainAttributes();
+
+        // used by the API of other exported package
+        assertTrue( main.getValue( "Import-Package" ).contains( PACKAGE + ";version=\"[1.2,2)\"" ) );
+        assertEquals(
+            PACKAGE + ";version=\"1.2.3\";uses:=\"javax.net.ssl,javax.xml.namespace\",other;uses:=\"" + PACKAGE + "\"",
+            main.getValue( "Export-Package" )
+        );
+    }
+
+    @Test
+    public void bundleIsWrittenWithoutSignatures()
+        throws IOException
+    {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue( "Manifest-Version", "1.0" );
+        manifest.getMainAttributes().putValue( "Implementation-Version", "1.0.0" );
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final JarOutputStream out = new JarOutputStream( content, manifest );
+        out.putNextEntry( new ZipEntry( SAMPLE ) );
+        out.write( classFile( Sample.class ) );
+        out.putNextEntry( new ZipEntry( "META-INF/SIGNER.SF" ) );
+        out.close();
+
+        final JarInputStream bundle = new JarInputStream(
+            ParallelAnalyzer.createBundle( content.toByteArray(), new Properties(), "sample", true )
+        );
+        try
+        {
+            final Attributes main = bundle.getManifest().getMainAttributes();
+            assertNotNull( main.getValue( "Export-Package" ) );
+            assertEquals( "1.0.0", main.getValue( "Implementation-Version" ) );
+            assertEquals( SAMPLE, bundle.getNextEntry().getName() );
+            assertNull( bundle.getNextEntry() );
+        }
+        finally
+        {
+            bundle.close();
+        }
+    }
+
+    @Test
+    public void invalidClassFallsBackToBnd()
+        throws IOException
+    {
+        assertNull(
+            ParallelAnalyzer.createBundle( jar( "a/Invalid.class", new byte[]{ 1, 2, 3 } ), new Properties(), "a", true )
+        );
+    }
+
+    @Test
+    public void packageVersionsFallBackToBnd()
+        throws IOException
+    {
+        assertNull( ParallelAnalyzer.createBundle(
+            jar( "a/packageinfo", "version 1.0".getBytes( "UTF-8" ) ), new Properties(), "a", true
+        ) );
+    }
+
+    @Test
+    public void onlySimpleInstructionsAreSupported()
+    {
+        assertTrue( ParallelAnalyzer.canAnalyze( instructions( "Import-Package", "javax.*;resolution:=optional" ) ) );
+        assertTrue( ParallelAnalyzer.canAnalyze( instructions( "-removeheaders", "Private-Package" ) ) );
+        assertTrue( ParallelAnalyzer.canAnalyze( instructions( "Web-ContextPath", "/sample" ) ) );
+        assertFalse( ParallelAnalyzer.canAnalyze( instructions( "Private-Package", "a.*" ) ) );
+        assertFalse( ParallelAnalyzer.canAnalyze( instructions( "-exportcontents", "*" ) ) );
+        assertFalse( ParallelAnalyzer.canAnalyze( instructions( "Bundle-Version", "${version}" ) ) );
+        assertFalse( ParallelAnalyzer.canAnalyze( instructions( "Export-Package", "a.b.[0-9]*" ) ) );
+    }
+
+    @Test
+    public void manifestOfJarIsTheOneOfBnd()
+        throws Exception
+    {
+        final Map<String, byte[]> jar = slf4jApi();
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue( "Manifest-Version", "1.0" );
+        manifest.getMainAttributes().putValue( "Implementation-Version", "1.7" );
+        manifest.getMainAttributes().putValue( "Created-By", "test" );
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write( content );
+        jar.put( "META-INF/MANIFEST.MF", content.toByteArray() );
+
+        assertSameManifestAsBnd( jar, new Properties() );
+        assertSameManifestAsBnd( jar, instructions( "Export-Package", "org.slf4j.*;version=\"1.7.25\"" ) );
+        // private packages, exports referencing them and literal imports
+        final Properties instructions = instructions( "Export-Package", "org.slf4j.spi,org.slf4j.helpers" );
+        instructions.setProperty( "Import-Package", "org.slf4j;version=1.7,*" );
+        instructions.setProperty( "Bundle-Version", "1.2" );
+        assertSameManifestAsBnd( jar, instructions );
+    }
+
+    @Test
+    public void manifestOfWarIsTheOneOfBnd()
+        throws Exception
+    {
+        assertSameManifestAsBnd( war(), warInstructions() );
+    }
+
+    @Test
+    public void manifestOfWarFileIsCalculatedOutOfNeededEntries()
+        throws IOException
+    {
+        final Map<String, byte[]> war = war();
+        final File file = File.createTempFile( "pax-url-test", ".war" );
+        try
+        {
+            Files.write( file.toPath(), jar( war ) );
+            final ZipFile zip = new ZipFile( file );
+            try
+            {
+                assertEquals(
+                    ParallelAnalyzer.calcManifest( war, warInstructions(), "sample" ).getMainAttributes(),
+                    ParallelAnalyzer.calcManifest( zip, warInstructions(), "sample" ).getMainAttributes()
+                );
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static Map<String, byte[]> war()
+        throws IOException
+    {
+        final Map<String, byte[]> war = new LinkedHashMap<String, byte[]>();
+        war.put( "WEB-INF/web.xml", "<web-app/>".getBytes( "UTF-8" ) );
+        war.put( "WEB-INF/classes/" + SAMPLE, classFile( Sample.class ) );
+        war.put( "WEB-INF/classes/" + OTHER_SAMPLE, classFile( OtherSample.class ) );
+        war.put( "WEB-INF/classes/other/resource.txt", new byte[]{ 1 } );
+        war.put( "WEB-INF/lib/slf4j-api.jar", jar( slf4jApi() ) );
+        return war;
+    }
+
+    /**
+     * Returns instructions as the ones of war: urls.
+     */
+    private static Properties warInstructions()
+    {
+        final Properties instructions = new Properties();
+        instructions.setProperty( "Bundle-ClassPath", "WEB-INF/classes,WEB-INF/lib/slf4j-api.jar" );
+        instructions.setProperty(
+            "Import-Package",
+            "javax.servlet,javax.servlet.http,javax.servlet.jsp; resolution:=optional,javax.*; resolution:=optional,"
+            + "org.xml.*; resolution:=optional"
+        );
+        instructions.setProperty( "Export-Package", "!*" );
+        instructions.setProperty( "-removeheaders", "Private-Package,Ignore-Package" );
+        instructions.setProperty( "Web-ContextPath", "/sample" );
+        return instructions;
+    }
+
+    private static void assertSameManifestAsBnd( final Map<String, byte[]> jar, final Properties instructions )
+        throws Exception
+    {
+        final Attributes expected;
+        final Analyzer analyzer = new Analyzer();
+        try
+        {
+            analyzer.setJar( new Jar( "dot", new ByteArrayInputStream( jar( jar ) ) ) );
+            analyzer.setProperties( WrappingInstructions.withDefaults( instructions, null, "sample" ) );
+            expected = analyzer.calcManifest().getMainAttributes();
+        }
+        finally
+        {
+            analyzer.close();
+        }
+        final Attributes actual = ParallelAnalyzer.calcManifest( jar, instructions, "sample" ).getMainAttributes();
+        for( Object name : expected.keySet() )
+        {
+            if( !BND_HEADERS.contains( name.toString() ) )
+            {
+                assertEquals( name.toString(), expected.get( name ), actual.get( name ) );
+            }
+        }
+        for( Object name : actual.keySet() )
+        {
+            assertTrue( name.toString(), expected.containsKey( name ) );
+        }
+    }
+
+    /**
+     * Returns the entries of slf4j api jar, apart from META-INF ones: classes of several packages referencing each
+     * other.
+     */
+    private static Map<String, byte[]> slf4jApi()
+        throws IOException
+    {
+        final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        final ZipInputStream in = new ZipInputStream(
+            org.slf4j.LoggerFactory.class.getProtectionDomain().getCodeSource().getLocation().openStream()
+        );
+        try
+        {
+            ZipEntry entry;
+            while( ( entry = in.getNextEntry() ) != null )
+            {
+                if( !entry.isDirectory() && !entry.getName().startsWith( "META-INF/" ) )
+                {
+                    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while( ( read = in.read( buffer ) ) >= 0 )
+                    {
+                        content.write( buffer, 0, read );
+                    }
+                    entries.put( entry.getName(), content.toByteArray() );
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return entries;
+    }
+
+    private static byte[] jar( final Map<String, byte[]> entries )
+        throws IOException
+    {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final JarOutputStream out = new JarOutputStream( content );
+        for( Map.Entry<String, byte[]> entry : entries.entrySet() )
+        {
+            out.putNextEntry( new ZipEntry( entry.getKey() ) );
+            out.write( entry.getValue() );
+        }
+        out.close();
+        return content.toByteArray();
+    }
+
+    private static Properties instructions( final String name, final String value )
+    {
+        final Properties instructions = new Properties();
+        instructions.setProperty( name, value );
+        return instructions;
+    }
+
+    private static byte[] jar( final String name, final byte[] entry )
+        throws IOException
+    {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final JarOutputStream out = new JarOutputStream( content );
+        out.putNextEntry( new ZipEntry( name ) );
+        out.write( entry );
+        out.close();
+        return content.toByteArray();
+    }
+
+    private static byte[] classFile( final Class<?> clazz )
+        throws IOException
+    {
+        final String name = clazz.getName();
+        final InputStream in = clazz.getResourceAsStream( name.substring( name.lastIndexOf( '.' ) + 1 ) + ".class" );
+        return ParallelAnalyzer.read( in );
+    }
+
+    /**
+     * API references javax.net.ssl (descriptor) and javax.xml.namespace (generic signature).
+     */
+    public static class Sample
+    {
+
+        public SSLContext m_context;
+        public List<QName> m_names;
+
+    }
+
+    /**
+     * API references Sample; references also java.util.logging and javax.xml.namespace.
+     */
+    public static class OtherSample
+    {
+
+        public Sample m_sample;
+        Logger m_logger;
+        QName m_name;
+
+    }
+
+}
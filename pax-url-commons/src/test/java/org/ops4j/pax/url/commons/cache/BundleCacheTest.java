@@ -0,0 +1,202 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BundleCache}.
+ */
+public class BundleCacheTest
+{
+
+    private File m_root;
+    private File m_directory;
+    private File m_source;
+    private int m_generated;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        m_root = Files.createTempDirectory( new File( "target" ).toPath(), "cache" ).toFile();
+        m_directory = new File( m_root, "cache" );
+        m_source = new File( m_root, "source.jar" );
+        Files.write( m_source.toPath(), "source".getBytes( "UTF-8" ) );
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete( m_root );
+    }
+
+    @Test
+    public void bundleIsGeneratedOnce()
+        throws IOException
+    {
+        final BundleCache cache = BundleCache.getInstance( m_directory, "owner", -1 );
+
+        assertEquals( "bundle", open( cache, "bundle", "type" ) );
+        assertEquals( "bundle", open( cache, "bundle", "type" ) );
+        assertEquals( 1, m_generated );
+
+        // other instructions or other type, other bundle
+        assertEquals( "other", open( cache, "other", "type" ) );
+        assertEquals( "bundle", open( cache, "bundle", "other type" ) );
+        assertEquals( 3, m_generated );
+        assertEquals( 3, bundles().length );
+
+        // changed source, other bundle
+        Files.write( m_source.toPath(), "changed source".getBytes( "UTF-8" ) );
+        assertEquals( "bundle", open( cache, "bundle", "type" ) );
+        assertEquals( 4, m_generated );
+    }
+
+    @Test
+    public void leastRecentlyUsedBundlesAreEvicted()
+        throws IOException
+    {
+        final BundleCache cache = BundleCache.getInstance( m_directory, "owner", -1 );
+        open( cache, "first", "type" );
+        open( cache, "other", "type" );
+        open( cache, "first", "type" );
+
+        // room for two bundles and a half, so the least recently used one is evicted
+        open( BundleCache.getInstance( m_directory, "owner", 12 ), "third", "type" );
+        final Set<String> contents = new HashSet<String>();
+        for( File bundle : bundles() )
+        {
+            contents.add( new String( Files.readAllBytes( bundle.toPath() ), "UTF-8" ) );
+        }
+        assertEquals( new HashSet<String>( Arrays.asList( "first", "third" ) ), contents );
+
+        // generated bundle is kept even if bigger than maximum size
+        assertEquals( "other", open( BundleCache.getInstance( m_directory, "owner", 1 ), "other", "type" ) );
+        assertEquals( 1, bundles().length );
+    }
+
+    @Test
+    public void largestLimitOfOwnersApplies()
+        throws IOException
+    {
+        final BundleCache cache = BundleCache.getInstance( m_directory, "large", 12 );
+        open( cache, "first", "type" );
+        open( cache, "other", "type" );
+
+        // a smaller limit of another owner does not evict the bundles of the first one
+        open( BundleCache.getInstance( m_directory, "small", 1 ), "third", "type" );
+        assertEquals( 2, bundles().length );
+        open( BundleCache.getInstance( m_directory, "large", 12 ), "first", "type" );
+        assertEquals( 2, bundles().length );
+
+        // till the first one lowers its limit
+        open( BundleCache.getInstance( m_directory, "large", 6 ), "first", "type" );
+        assertEquals( 1, bundles().length );
+    }
+
+    @Test
+    public void staleTemporaryFilesAreDeleted()
+        throws IOException
+    {
+        m_directory.mkdirs();
+        final File stale = new File( m_directory, "stale.jar.tmp" );
+        final File written = new File( m_directory, "written.jar.tmp" );
+        Files.write( stale.toPath(), new byte[1] );
+        Files.write( written.toPath(), new byte[1] );
+        stale.setLastModified( System.currentTimeMillis() - 2L * 60L * 60L * 1000L );
+
+        BundleCache.getInstance( m_directory, "owner", -1 );
+        assertFalse( stale.exists() );
+        assertTrue( written.exists() );
+    }
+
+    private String open( final BundleCache cache, final String content, final String type )
+        throws IOException
+    {
+        final Properties instructions = new Properties();
+        instructions.setProperty( "Bundle-SymbolicName", content );
+        final InputStream in = cache.open(
+            BundleCache.key( cache.digest( m_source, true ), instructions, type ),
+            new BundleCache.Generator()
+            {
+                public InputStream generate()
+                    throws IOException
+                {
+                    m_generated++;
+                    return new ByteArrayInputStream( content.getBytes( "UTF-8" ) );
+                }
+            }
+        );
+        try
+        {
+            final ByteArrayOutputStream read = new ByteArrayOutputStream();
+            int b;
+            while( ( b = in.read() ) >= 0 )
+            {
+                read.write( b );
+            }
+            return read.toString( "UTF-8" );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private File[] bundles()
+    {
+        return m_directory.listFiles( new FileFilter()
+        {
+            public boolean accept( final File file )
+            {
+                return file.getName().endsWith( ".jar" );
+            }
+        }
+        );
+    }
+
+    private static void delete( final File file )
+    {
+        final File[] children = file.listFiles();
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.commons.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link ContentStreams}.
+ */
+public class ContentStreamsTest
+{
+
+    private static final byte[] CONTENT = content( 1024 * 1024 );
+
+    @Test
+    public void contentIsPiped()
+        throws IOException
+    {
+        assertArrayEquals( CONTENT, read( ContentStreams.pipe( "test", write( CONTENT, null ) ) ) );
+        assertArrayEquals( CONTENT, read( ContentStreams.spool( "test", write( CONTENT, null ) ) ) );
+    }
+
+    @Test
+    public void writerFailureIsReported()
+        throws IOException
+    {
+        try
+        {
+            read( ContentStreams.pipe( "test", new ContentStreams.Content()
+            {
+                public void writeTo( final OutputStream out )
+                    throws IOException
+                {
+                    out.write( CONTENT, 0, 100 );
+                    throw new IOException( "failure" );
+                }
+            }
+            ) );
+            fail( "Writer failure not reported" );
+        }
+        catch( IOException e )
+        {
+            assertEquals( "failure", e.getCause().getMessage() );
+        }
+    }
+
+    @Test
+    public void writerOfAbandonedPipeTimesOut()
+        throws IOException, InterruptedException
+    {
+        final CountDownLatch written = new CountDownLatch( 1 );
+        ContentStreams.pipe( "test", write( CONTENT, written ), 100 );
+        assertTrue( written.await( 10, TimeUnit.SECONDS ) );
+    }
+
+    @Test
+    public void busyWritersDoNotBlockOtherPipes()
+        throws IOException
+    {
+        // more pipes than pooled writers, not read
+        final List<InputStream> abandoned = new ArrayList<InputStream>();
+        try
+        {
+            for( int i = 0; i < 2 * Runtime.getRuntime().availableProcessors() + 8; i++ )
+            {
+                abandoned.add( ContentStreams.pipe( "abandoned", write( CONTENT, null ) ) );
+            }
+            assertArrayEquals( CONTENT, read( ContentStreams.pipe( "test", write( CONTENT, null ) ) ) );
+
+            // pipes that found no pooled writer were spooled, no thread was started out of the pool
+            int writers = 0;
+            for( Thread thread : Thread.getAllStackTraces().keySet() )
+            {
+                if( thread.getName().startsWith( "pax-url-writer-" ) )
+                {
+                    writers++;
+                }
+            }
+            assertTrue( writers <= Math.max( 4, 2 * Runtime.getRuntime().availableProcessors() ) );
+        }
+        finally
+        {
+            for( InputStream in : abandoned )
+            {
+                in.close();
+            }
+        }
+    }
+
+    private static ContentStreams.Content write( final byte[] content, final CountDownLatch written )
+    {
+        return new ContentStreams.Content()
+        {
+            public void writeTo( final OutputStream out )
+                throws IOException
+            {
+                try
+                {
+                    out.write( content );
+                }
+                finally
+                {
+                    if( written != null )
+                    {
+                        written.countDown();
+                    }
+                }
+            }
+        };
+    }
+
+    private static byte[] content( final int size )
+    {
+        final byte[] content = new byte[size];
+        for( int i = 0; i < content.length; i++ )
+        {
+            content[ i ] = (byte) ( i * 31 % 251 );
+        }
+        return content;
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) >= 0 )
+            {
+                content.write( buffer, 0, read );
+            }
+            return content.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
@@ -29,6 +29,18 @@ public class ServiceConstants
      */
     public static final String PID = "org.ops4j.pax.url.dir";
 
+    /**
+     * Incremental build configuration property name. If true, bundles are rebuilt out of the previous build, reading
+     * only the changed files (by size and last modification time) and analyzing classes only if they changed.
+     */
+    public static final String PROPERTY_INCREMENTAL = PID + ".incremental";
+
+    /**
+     * Compression level configuration property name. Deflate level of bundle entries, from 1 (fastest) to 9 (best
+     * compression), -1 for default level or 0 to store entries uncompressed (as for bundles only used locally).
+     */
+    public static final String PROPERTY_COMPRESSION_LEVEL = PID + ".compressionLevel";
+
     /**
      * The protocol name.
      */
@@ -24,4 +24,18 @@ package org.ops4j.pax.url.dir.internal;
 public interface Configuration
 {
 
+    /**
+     * Returns true if bundles should be built incrementally, out of the previous build of the same directory.
+     *
+     * @return true if incremental build is enabled
+     */
+    Boolean getIncremental();
+
+    /**
+     * Returns the deflate level of bundle entries, 0 if entries are stored uncompressed.
+     *
+     * @return compression level, -1 for default level
+     */
+    Integer getCompressionLevel();
+
 }
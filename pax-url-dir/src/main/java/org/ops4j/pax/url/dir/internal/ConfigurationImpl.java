@@ -17,17 +17,63 @@
  */
 package org.ops4j.pax.url.dir.internal;
 
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.url.dir.ServiceConstants;
 import org.ops4j.util.property.PropertyResolver;
+import org.ops4j.util.property.PropertyStore;
 
 /**
  * @author Toni Menzel (tonit)
  * @since Dec 10, 2008
  */
-public class ConfigurationImpl implements Configuration
+public class ConfigurationImpl
+    extends PropertyStore
+    implements Configuration
 {
 
+    /**
+     * Default compression level.
+     */
+    private static final String DEFAULT_COMPRESSION_LEVEL = "-1";
+
+    /**
+     * Property resolver. Cannot be null.
+     */
+    private final PropertyResolver m_propertyResolver;
+
     public ConfigurationImpl( PropertyResolver propertyResolver )
     {
+        NullArgumentException.validateNotNull( propertyResolver, "Property resolver" );
+        m_propertyResolver = propertyResolver;
+    }
+
+    /**
+     * @see Configuration#getIncremental()
+     */
+    public Boolean getIncremental()
+    {
+        if( !contains( ServiceConstants.PROPERTY_INCREMENTAL ) )
+        {
+            return set( ServiceConstants.PROPERTY_INCREMENTAL,
+                        Boolean.valueOf( m_propertyResolver.get( ServiceConstants.PROPERTY_INCREMENTAL ) )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_INCREMENTAL );
+    }
 
+    /**
+     * @see Configuration#getCompressionLevel()
+     */
+    public Integer getCompressionLevel()
+    {
+        if( !contains( ServiceConstants.PROPERTY_COMPRESSION_LEVEL ) )
+        {
+            final String level = m_propertyResolver.get( ServiceConstants.PROPERTY_COMPRESSION_LEVEL );
+            return set( ServiceConstants.PROPERTY_COMPRESSION_LEVEL,
+                        Integer.valueOf( level == null ? DEFAULT_COMPRESSION_LEVEL : level.trim() )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_COMPRESSION_LEVEL );
     }
+
 }
@@ -17,12 +17,15 @@
  */
 package org.ops4j.pax.url.dir.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.zip.Deflater;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.url.dir.internal.bundle.BundleBuilder;
+import org.ops4j.pax.url.dir.internal.bundle.IncrementalBundleBuilder;
 import org.ops4j.pax.url.dir.internal.bundle.ResourceWriter;
 import org.ops4j.pax.url.dir.internal.FileTailImpl;
 
@@ -51,10 +54,13 @@ public class Connection extends URLConnection
 
     private Parser m_parser;
 
+    private Configuration m_config;
+
     public Connection( URL url, Configuration config )
     {
         super( url );
         NullArgumentException.validateNotNull( url, "url should be provided" );
+        m_config = config;
 
         try
         {
@@ -71,15 +77,18 @@ public class Connection extends URLConnection
     public InputStream getInputStream()
         throws IOException
     {
+        final File root = new FileTailImpl( m_parser.getDirectory(), m_parser.getTailExpr() ).getParentOfTail();
+        final Integer configuredLevel = m_config == null ? null : m_config.getCompressionLevel();
+        final int level = configuredLevel == null ? Deflater.DEFAULT_COMPRESSION : configuredLevel;
+        if( m_config != null && Boolean.TRUE.equals( m_config.getIncremental() ) )
+        {
+            return IncrementalBundleBuilder.getInstance( root, m_parser.getOptions(), level ).build();
+        }
         return new BundleBuilder(
             m_parser.getOptions(),
-            new ResourceWriter(
-                new FileTailImpl( m_parser.getDirectory(), m_parser.getTailExpr() )
-                    .getParentOfTail()
-            )
+            new ResourceWriter( root ),
+            level
         ).build();
-
-
     }
 
     public void connect()
@@ -19,6 +19,19 @@ package org.ops4j.pax.url.dir.internal;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.ops4j.lang.NullArgumentException;
 import org.slf4j.Logger;
@@ -26,7 +39,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Finds resources of the current module under test just by given top-level parent (whatever that is)
- * and name of the class under test using a narrowing approach.
+ * and name of the class under test using a narrowing approach.<br/>
+ * Each folder is checked once for containing the tail, and hidden folders and folders known not to contain classes
+ * (as node_modules) are not crawled. Found parents are kept, and reused as long as they still contain the tail.
  *
  * @author Toni Menzel (tonit)
  * @since May 30, 2008
@@ -37,6 +52,29 @@ public class FileTailImpl implements FileTail
 
     public static final Logger logger = LoggerFactory.getLogger( FileTailImpl.class );
 
+    /**
+     * Names of folders that are not crawled.
+     */
+    private static final Set<String> EXCLUDED_FOLDERS =
+        Collections.unmodifiableSet( new HashSet<String>( Arrays.asList( "node_modules", "bower_components" ) ) );
+
+    /**
+     * Maximum number of kept parents.
+     */
+    private static final int MAX_PARENTS = 64;
+
+    /**
+     * Kept parents of tails by top level dir and tail, least recently used first.
+     */
+    private static final Map<String, File> PARENTS = new LinkedHashMap<String, File>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, File> eldest )
+        {
+            return size() > MAX_PARENTS;
+        }
+    };
+
     private File m_topLevelDir;
 
     private String m_tail;
@@ -80,8 +118,28 @@ public class FileTailImpl implements FileTail
         }
         else
         {
-
+            final String key = m_topLevelDir.getCanonicalPath() + "$" + m_tail;
+            synchronized( PARENTS )
+            {
+                m_parentOfTail = PARENTS.get( key );
+            }
+            if( m_parentOfTail != null && new File( m_parentOfTail, m_tail ).isFile() )
+            {
+                logger.debug( "Parent of tail is (still): " + m_parentOfTail.getAbsolutePath() );
+                return;
+            }
             m_parentOfTail = findParentOfTail( m_topLevelDir );
+            synchronized( PARENTS )
+            {
+                if( m_parentOfTail == null )
+                {
+                    PARENTS.remove( key );
+                }
+                else
+                {
+                    PARENTS.put( key, m_parentOfTail );
+                }
+            }
             if( m_parentOfTail == null )
             {
                 throw new IllegalArgumentException(
@@ -98,9 +156,8 @@ public class FileTailImpl implements FileTail
     /**
      * Tries to find the parent of tail in sub folders of folder parameter.
      * Tail is a relative path to a file in any depth of folder parameter.
-     * It will recursively call this method trying to find the given tail's parent.
-     *
-     * Note: THIS is being called recursively !!
+     * Folders are crawled depth first, each one being checked for containing the tail. Hidden and excluded folders
+     * are skipped.
      *
      * @param folder local folder that is used as (current) root. Sub folders wll be crawled recursively.
      *
@@ -112,28 +169,39 @@ public class FileTailImpl implements FileTail
         throws IOException
     {
         logger.debug( "findParentOfTail " + folder.getAbsolutePath() );
-        for( File f : folder.listFiles() )
+        final Path root = folder.toPath();
+        final String tail = m_tail.replaceFirst( "^/+", "" );
+        final Path[] found = new Path[1];
+        Files.walkFileTree(
+            root, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
         {
-            if( !f.isHidden() && f.isDirectory() )
+            @Override
+            public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attributes )
+                throws IOException
             {
-                File r = findParentOfTail( f );
-                if( r != null )
+                if( !dir.equals( root )
+                    && ( Files.isHidden( dir ) || EXCLUDED_FOLDERS.contains( dir.getFileName().toString() ) ) )
                 {
-                    return r;
+                    return FileVisitResult.SKIP_SUBTREE;
                 }
-            }
-            else if( !f.isHidden() )
-            {
-                String p = f.getCanonicalPath().replaceAll( "\\\\", "/" );
-                if( p.endsWith( m_tail ) )
+                final Path candidate = dir.resolve( tail );
+                if( Files.isRegularFile( candidate ) && !Files.isHidden( candidate ) )
                 {
-                    return new File(
-                        f.getCanonicalPath().substring( 0, f.getCanonicalPath().length() - m_tail.length() )
-                    );
+                    found[ 0 ] = dir;
+                    return FileVisitResult.TERMINATE;
                 }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException e )
+            {
+                // not readable (or a link loop)
+                return FileVisitResult.CONTINUE;
             }
         }
-        return null;
+        );
+        return found[ 0 ] == null ? null : found[ 0 ].toFile().getCanonicalFile();
     }
 
     /**
@@ -18,15 +18,27 @@
  */
 package org.ops4j.pax.url.dir.internal.bundle;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
 import org.osgi.framework.Constants;
+import org.ops4j.io.StreamUtils;
 import org.ops4j.lang.NullArgumentException;
-import org.ops4j.pax.swissbox.bnd.BndUtils;
+import org.ops4j.pax.url.commons.bundle.WrappingInstructions;
+import org.ops4j.pax.url.commons.io.ContentStreams;
 import org.ops4j.pax.url.dir.internal.ResourceLocator;
 
 /**
@@ -39,10 +51,20 @@ import org.ops4j.pax.url.dir.internal.ResourceLocator;
 public class BundleBuilder
 {
 
+    /**
+     * Bundle symbolic name used if not set by instructions.
+     */
+    static final String DEFAULT_SYMBOLIC_NAME = "BuiltByDirUrlHandler";
+
     private ResourceLocator m_resourceLocator;
 
     private Properties m_refs;
 
+    /**
+     * Deflate level of bundle entries (0 for stored entries).
+     */
+    private final int m_compressionLevel;
+
     /**
      * Constructor.
      *
@@ -51,68 +73,87 @@ public class BundleBuilder
      */
     public BundleBuilder( final Properties ref,
                           final ResourceLocator resourceLocator )
+    {
+        this( ref, resourceLocator, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ref              name of test class
+     * @param resourceLocator  locator that gathers all resources that have to be inside the test probe
+     * @param compressionLevel deflate level of bundle entries, from 1 to 9, -1 for default level or 0 to store
+     *                         entries uncompressed
+     */
+    public BundleBuilder( final Properties ref,
+                          final ResourceLocator resourceLocator,
+                          final int compressionLevel )
     {
         NullArgumentException.validateNotNull( ref, "ref" );
         NullArgumentException.validateNotNull( resourceLocator, "resourceLocator" );
 
         m_resourceLocator = resourceLocator;
         m_refs = ref;
-
+        m_compressionLevel = compressionLevel;
     }
 
     /**
      * Builds an osgi bundle out of settings given while creating this instance.
-     * Output is being asynchronously in a new thread when reading from the InputStream returned by this method.
+     * Resources are first written to a temporary jar (in the calling thread), which is then analyzed by bnd. Entries
+     * of the bundle are compressed concurrently.
      *
-     * @return an inputstream that must be flushed in order to actually invoke the bundle build process.
+     * @return an inputstream of the bundle.
      */
     public InputStream build()
     {
         try
         {
             // 1. create a basic jar with all classes in it..
-            final PipedOutputStream pout = new PipedOutputStream();
-            PipedInputStream fis = new PipedInputStream( pout );
-            new Thread()
+            final InputStream jar = ContentStreams.spool( "dir", new ContentStreams.Content()
             {
 
-                public void run()
+                public void writeTo( final OutputStream out )
+                    throws IOException
                 {
-                    JarOutputStream jos;
-                    try
-                    {
-                        jos = new DuplicateAwareJarOutputStream( pout );
-                        m_resourceLocator.write( jos );
-                        jos.close();
-                    }
-
-                    catch( IOException e )
-                    {
-                        //throw new RuntimeException( e );
-                    }
-                    finally
-                    {
-                        try
-                        {
-                            pout.close();
-                        }
-                        catch( Exception e )
-                        {
-                            //  throw new TestExecutionException( "Cannot close builder stream ??", e );
-                        }
-                    }
+                    final JarOutputStream jos = new DuplicateAwareJarOutputStream( out );
+                    m_resourceLocator.write( jos );
+                    jos.close();
                 }
-            }.start();
+            } );
 
-            // TODO set args on BndUtils
             if( m_refs.getProperty( Constants.BUNDLE_SYMBOLICNAME ) == null )
             {
-                m_refs.setProperty( Constants.BUNDLE_SYMBOLICNAME, "BuiltByDirUrlHandler" );
+                m_refs.setProperty( Constants.BUNDLE_SYMBOLICNAME, DEFAULT_SYMBOLIC_NAME );
+            }
+            final Manifest manifest;
+            final List<CompressedEntry> entries;
+            try
+            {
+                final Jar bundle = new Jar( "dot", jar );
+                try
+                {
+                    // analysis does not change resources
+                    entries = compress( bundle, m_compressionLevel );
+                    manifest = calculateManifest( bundle, m_refs, m_resourceLocator.toString() );
+                }
+                finally
+                {
+                    bundle.close();
+                }
             }
-            InputStream result = BndUtils.createBundle( fis, m_refs, m_resourceLocator.toString() );
-            fis.close();
-            pout.close();
-            return result;
+            finally
+            {
+                jar.close();
+            }
+            return ContentStreams.pipe( "dir", new ContentStreams.Content()
+            {
+
+                public void writeTo( final OutputStream out )
+                    throws IOException
+                {
+                    JarWriter.write( manifest, entries, out );
+                }
+            } );
         }
         catch( IOException e )
         {
@@ -120,5 +161,76 @@ public class BundleBuilder
         }
     }
 
+    /**
+     * Calculates the manifest of a bundle with bnd.
+     *
+     * @param jar          bundle content; closed
+     * @param instructions bnd instructions
+     * @param location     location of bundle content, set as Generated-By-Ops4j-Pax-From header
+     *
+     * @return calculated manifest
+     *
+     * @throws IOException - If content cannot be analyzed
+     */
+    static Manifest calculateManifest( final Jar jar, final Properties instructions, final String location )
+        throws IOException
+    {
+        final Analyzer analyzer = new Analyzer();
+        try
+        {
+            analyzer.setJar( jar );
+            analyzer.setProperties( WrappingInstructions.withDefaults( instructions, null, location ) );
+            return analyzer.calcManifest();
+        }
+        catch( IOException e )
+        {
+            throw e;
+        }
+        catch( Exception e )
+        {
+            throw new IOException( "Bundle of [" + location + "] cannot be analyzed", e );
+        }
+        finally
+        {
+            analyzer.close();
+        }
+    }
+
+    /**
+     * Compresses the resources of a jar (but the manifest) concurrently, in order of their names.
+     */
+    private static List<CompressedEntry> compress( final Jar jar, final int level )
+        throws IOException
+    {
+        final List<Callable<CompressedEntry>> tasks = new ArrayList<Callable<CompressedEntry>>();
+        for( final Map.Entry<String, Resource> resource : jar.getResources().entrySet() )
+        {
+            if( !JarFile.MANIFEST_NAME.equals( resource.getKey() ) )
+            {
+                tasks.add( new Callable<CompressedEntry>()
+                {
+
+                    public CompressedEntry call()
+                        throws Exception
+                    {
+                        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                        final InputStream in = resource.getValue().openInputStream();
+                        try
+                        {
+                            StreamUtils.copyStream( in, content, false );
+                        }
+                        finally
+                        {
+                            in.close();
+                        }
+                        return CompressedEntry.compress(
+                            resource.getKey(), resource.getValue().lastModified(), content.toByteArray(), level
+                        );
+                    }
+                } );
+            }
+        }
+        return Workers.invokeAll( tasks );
+    }
 
 }
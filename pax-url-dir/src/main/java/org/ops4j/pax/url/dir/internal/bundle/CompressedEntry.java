@@ -0,0 +1,211 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.dir.internal.bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A jar entry compressed once, that can be written as is (any number of times) by {@link JarWriter}. The content of
+ * a stored entry can also be left in its file, to be read again each time the entry is written.
+ */
+final class CompressedEntry
+{
+
+    /**
+     * Entry name.
+     */
+    private final String m_name;
+    /**
+     * Last modification time.
+     */
+    private final long m_time;
+    /**
+     * CRC-32 of uncompressed content.
+     */
+    private final long m_crc;
+    /**
+     * Uncompressed content size.
+     */
+    private final int m_size;
+    /**
+     * Compression method, {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}.
+     */
+    private final int m_method;
+    /**
+     * Compressed (deflated, without zlib wrapper) or stored content, null if content is read from file.
+     */
+    private final byte[] m_data;
+    /**
+     * File of stored content, null if content is kept in memory.
+     */
+    private final File m_file;
+
+    private CompressedEntry( final String name,
+                             final long time,
+                             final long crc,
+                             final int size,
+                             final int method,
+                             final byte[] data,
+                             final File file )
+    {
+        m_name = name;
+        m_time = time;
+        m_crc = crc;
+        m_size = size;
+        m_method = method;
+        m_data = data;
+        m_file = file;
+    }
+
+    /**
+     * Compresses an entry content at default level.
+     *
+     * @param name    entry name
+     * @param time    last modification time
+     * @param content entry content
+     *
+     * @return compressed entry
+     *
+     * @throws IOException - If content cannot be compressed
+     */
+    static CompressedEntry compress( final String name, final long time, final byte[] content )
+        throws IOException
+    {
+        return compress( name, time, content, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    /**
+     * Compresses an entry content.
+     *
+     * @param name    entry name
+     * @param time    last modification time
+     * @param content entry content
+     * @param level   deflate level, from 1 to 9, -1 for default level or 0 to store content uncompressed
+     *
+     * @return compressed entry
+     *
+     * @throws IOException - If content cannot be compressed
+     */
+    static CompressedEntry compress( final String name, final long time, final byte[] content, final int level )
+        throws IOException
+    {
+        final CRC32 crc = new CRC32();
+        crc.update( content );
+        if( level == Deflater.NO_COMPRESSION )
+        {
+            return new CompressedEntry( name, time, crc.getValue(), content.length, ZipEntry.STORED, content, null );
+        }
+        final Deflater deflater = new Deflater( level, true );
+        try
+        {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream( content.length / 2 + 64 );
+            final DeflaterOutputStream out = new DeflaterOutputStream( data, deflater );
+            out.write( content );
+            out.close();
+            return new CompressedEntry(
+                name, time, crc.getValue(), content.length, ZipEntry.DEFLATED, data.toByteArray(), null
+            );
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Creates a stored entry whose content is not kept in memory but read again from its file when written.
+     *
+     * @param name    entry name
+     * @param time    last modification time
+     * @param content current content of file
+     * @param file    file of content
+     *
+     * @return stored entry
+     */
+    static CompressedEntry storeFile( final String name, final long time, final byte[] content, final File file )
+    {
+        final CRC32 crc = new CRC32();
+        crc.update( content );
+        return new CompressedEntry( name, time, crc.getValue(), content.length, ZipEntry.STORED, null, file );
+    }
+
+    String getName()
+    {
+        return m_name;
+    }
+
+    long getTime()
+    {
+        return m_time;
+    }
+
+    long getCrc()
+    {
+        return m_crc;
+    }
+
+    int getSize()
+    {
+        return m_size;
+    }
+
+    int getMethod()
+    {
+        return m_method;
+    }
+
+    /**
+     * Returns the entry data, reading it from file if not kept in memory.
+     *
+     * @return compressed or stored content
+     *
+     * @throws IOException - If file cannot be read or changed since the entry was created
+     */
+    byte[] getData()
+        throws IOException
+    {
+        if( m_file == null )
+        {
+            return m_data;
+        }
+        final byte[] content = Files.readAllBytes( m_file.toPath() );
+        final CRC32 crc = new CRC32();
+        crc.update( content );
+        if( content.length != m_size || crc.getValue() != m_crc )
+        {
+            throw new IOException( "File [" + m_file + "] changed while the bundle was written" );
+        }
+        return content;
+    }
+
+    /**
+     * Returns the number of bytes of content kept in memory.
+     *
+     * @return kept size
+     */
+    int getKeptSize()
+    {
+        return m_data == null ? 0 : m_data.length;
+    }
+
+}
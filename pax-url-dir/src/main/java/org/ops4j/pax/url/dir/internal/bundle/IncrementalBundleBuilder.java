@@ -0,0 +1,425 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.dir.internal.bundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+
+import aQute.bnd.osgi.FileResource;
+import aQute.bnd.osgi.Jar;
+import org.ops4j.lang.NullArgumentException;
+import org.ops4j.pax.url.commons.io.ContentStreams;
+import org.osgi.framework.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the bundle of a directory out of the previous build of the same directory (and instructions).<br/>
+ * On each build the directory tree is walked, looking only at sizes and last modification times: only the changed
+ * files are read and compressed again, and classes are analyzed again by bnd only if a file bnd reads to calculate the
+ * manifest changed or the set of packages changed. Files are kept compressed only; bnd reads them again from the
+ * directory when analyzing. Files that are not compressed (compression level 0) are not kept at all but read again
+ * when the bundle is written.<br/>
+ * Builders of the most recently built directories are kept, as long as the compressed content they keep does not
+ * exceed {@value #MAX_KEPT_SIZE} bytes.
+ *
+ * @see BundleBuilder
+ */
+public class IncrementalBundleBuilder
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( IncrementalBundleBuilder.class );
+
+    /**
+     * Maximum number of kept builders.
+     */
+    private static final int MAX_BUILDERS = 16;
+    /**
+     * Maximum total size (in bytes) of the compressed content kept by builders.
+     */
+    private static final long MAX_KEPT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Kept builders by directory and instructions, least recently used first.
+     */
+    private static final Map<String, IncrementalBundleBuilder> BUILDERS =
+        new LinkedHashMap<String, IncrementalBundleBuilder>( 16, 0.75f, true )
+        {
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String, IncrementalBundleBuilder> eldest )
+            {
+                return size() > MAX_BUILDERS;
+            }
+        };
+
+    /**
+     * Directory to build.
+     */
+    private final Path m_root;
+    /**
+     * Bnd instructions.
+     */
+    private final Properties m_instructions;
+    /**
+     * Deflate level of bundle entries (0 for stored entries).
+     */
+    private final int m_compressionLevel;
+    /**
+     * Files of last build, by name relative to root.
+     */
+    private final Map<String, BuiltFile> m_files;
+    /**
+     * Packages (directories of files) at last analysis.
+     */
+    private Set<String> m_packages;
+    /**
+     * Manifest calculated at last analysis, null if last build failed.
+     */
+    private Manifest m_manifest;
+    /**
+     * Size of the compressed content of the files of last build kept in memory.
+     */
+    private volatile long m_keptSize;
+
+    private IncrementalBundleBuilder( final Path root, final Properties instructions, final int compressionLevel )
+    {
+        m_root = root;
+        m_compressionLevel = compressionLevel;
+        m_instructions = new Properties();
+        m_instructions.putAll( instructions );
+        if( m_instructions.getProperty( Constants.BUNDLE_SYMBOLICNAME ) == null )
+        {
+            m_instructions.setProperty( Constants.BUNDLE_SYMBOLICNAME, BundleBuilder.DEFAULT_SYMBOLIC_NAME );
+        }
+        m_files = new TreeMap<String, BuiltFile>();
+    }
+
+    /**
+     * Returns the builder of a directory, reusing the one of previous builds with the same instructions.
+     *
+     * @param base         directory to build
+     * @param instructions bnd instructions
+     *
+     * @return builder
+     *
+     * @throws IOException - If directory path cannot be resolved
+     */
+    public static IncrementalBundleBuilder getInstance( final File base, final Properties instructions )
+        throws IOException
+    {
+        return getInstance( base, instructions, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    /**
+     * Returns the builder of a directory, reusing the one of previous builds with the same instructions and
+     * compression level.
+     *
+     * @param base             directory to build
+     * @param instructions     bnd instructions
+     * @param compressionLevel deflate level of bundle entries, from 1 to 9, -1 for default level or 0 to store
+     *                         entries uncompressed
+     *
+     * @return builder
+     *
+     * @throws IOException - If directory path cannot be resolved
+     */
+    public static IncrementalBundleBuilder getInstance( final File base,
+                                                        final Properties instructions,
+                                                        final int compressionLevel )
+        throws IOException
+    {
+        NullArgumentException.validateNotNull( base, "base" );
+        NullArgumentException.validateNotNull( instructions, "instructions" );
+
+        final Path root = base.getCanonicalFile().toPath();
+        final String key = root + "$" + compressionLevel + "$" + new TreeMap<Object, Object>( instructions );
+        synchronized( BUILDERS )
+        {
+            IncrementalBundleBuilder builder = BUILDERS.get( key );
+            if( builder == null )
+            {
+                builder = new IncrementalBundleBuilder( root, instructions, compressionLevel );
+                BUILDERS.put( key, builder );
+            }
+            return builder;
+        }
+    }
+
+    /**
+     * Builds the bundle, out of the previous build if any.
+     *
+     * @return an inputstream of the bundle.
+     *
+     * @throws IOException - If directory cannot be read or bundle cannot be built
+     */
+    public synchronized InputStream build()
+        throws IOException
+    {
+        final Set<String> changed = new HashSet<String>();
+        scanAll( changed );
+        if( m_manifest == null || needsAnalysis( changed ) )
+        {
+            LOG.debug( "Analyzing [" + m_root + "], changed files: " + changed );
+            // if this analysis fails, next one starts from scratch
+            m_manifest = null;
+            m_manifest = analyze();
+        }
+        final Manifest manifest = m_manifest;
+        final List<CompressedEntry> entries = new ArrayList<CompressedEntry>( m_files.size() );
+        long keptSize = 0;
+        for( BuiltFile file : m_files.values() )
+        {
+            entries.add( file.getEntry() );
+            keptSize += file.getEntry().getKeptSize();
+        }
+        m_keptSize = keptSize;
+        trim();
+        // entries are compressed already, so writing them again is cheap
+        return ContentStreams.pipe( "dir", new ContentStreams.Content()
+        {
+            public void writeTo( final OutputStream out )
+                throws IOException
+            {
+                JarWriter.write( manifest, entries, out );
+            }
+        } );
+    }
+
+    /**
+     * Drops the least recently used builders while the compressed content kept by all builders exceeds the maximum
+     * size.
+     */
+    private static void trim()
+    {
+        synchronized( BUILDERS )
+        {
+            long keptSize = 0;
+            for( IncrementalBundleBuilder builder : BUILDERS.values() )
+            {
+                keptSize += builder.m_keptSize;
+            }
+            for( Iterator<IncrementalBundleBuilder> builders = BUILDERS.values().iterator();
+                 keptSize > MAX_KEPT_SIZE && builders.hasNext(); )
+            {
+                keptSize -= builders.next().m_keptSize;
+                builders.remove();
+            }
+        }
+    }
+
+    /**
+     * Walks the whole tree, finding changed, new and removed files.
+     */
+    private void scanAll( final Set<String> changed )
+        throws IOException
+    {
+        final Set<String> found = new HashSet<String>();
+        Files.walkFileTree(
+            m_root, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( final Path file, final BasicFileAttributes attributes )
+                throws IOException
+            {
+                if( attributes.isRegularFile() )
+                {
+                    update( file, attributes, changed, found );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException e )
+            {
+                // not readable, as skipped by resource writer
+                return FileVisitResult.CONTINUE;
+            }
+        }
+        );
+        for( Iterator<String> names = m_files.keySet().iterator(); names.hasNext(); )
+        {
+            final String name = names.next();
+            if( !found.contains( name ) )
+            {
+                names.remove();
+                changed.add( name );
+            }
+        }
+    }
+
+    /**
+     * Reads and compresses a file again if it changed since last build. Hidden files are skipped.
+     */
+    private void update( final Path file,
+                         final BasicFileAttributes attributes,
+                         final Set<String> changed,
+                         final Set<String> found )
+        throws IOException
+    {
+        if( file.toFile().isHidden() )
+        {
+            return;
+        }
+        final String name = nameOf( file );
+        ResourceWriter.checkName( name );
+        found.add( name );
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final BuiltFile built = m_files.get( name );
+        if( built != null && built.getLastModified() == lastModified && built.getSize() == attributes.size() )
+        {
+            return;
+        }
+        final byte[] content;
+        try
+        {
+            content = Files.readAllBytes( file );
+        }
+        catch( NoSuchFileException e )
+        {
+            // deleted meanwhile
+            found.remove( name );
+            return;
+        }
+        m_files.put(
+            name,
+            new BuiltFile(
+                lastModified, attributes.size(),
+                m_compressionLevel == Deflater.NO_COMPRESSION
+                ? CompressedEntry.storeFile( name, lastModified, content, file.toFile() )
+                : CompressedEntry.compress( name, lastModified, content, m_compressionLevel )
+            )
+        );
+        changed.add( name );
+    }
+
+    /**
+     * Checks if classes have to be analyzed again: a file bnd reads to calculate the manifest changed (a class, a
+     * packageinfo file, an embedded jar or a file under META-INF or OSGI-INF) or the set of packages changed. Other
+     * resources in existing packages do not change the manifest.
+     */
+    private boolean needsAnalysis( final Set<String> changed )
+    {
+        for( String name : changed )
+        {
+            if( name.endsWith( ".class" ) || name.endsWith( "packageinfo" ) || name.endsWith( ".jar" )
+                || name.startsWith( "META-INF/" ) || name.startsWith( "OSGI-INF/" ) )
+            {
+                return true;
+            }
+        }
+        return !packages().equals( m_packages );
+    }
+
+    /**
+     * Calculates the manifest of current files with bnd, that reads the files it needs from the directory.
+     */
+    private Manifest analyze()
+        throws IOException
+    {
+        final Jar jar = new Jar( "dot" );
+        for( String name : m_files.keySet() )
+        {
+            jar.putResource( name, new FileResource( m_root.resolve( name ).toFile() ) );
+        }
+        final Manifest manifest = BundleBuilder.calculateManifest( jar, m_instructions, m_root.toString() );
+        m_packages = packages();
+        return manifest;
+    }
+
+    /**
+     * Returns the packages (directories) of the current files.
+     */
+    private Set<String> packages()
+    {
+        final Set<String> packages = new HashSet<String>();
+        for( String name : m_files.keySet() )
+        {
+            final int slash = name.lastIndexOf( '/' );
+            packages.add( slash < 0 ? "" : name.substring( 0, slash ) );
+        }
+        return packages;
+    }
+
+    private String nameOf( final Path path )
+    {
+        return m_root.relativize( path ).toString().replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * A file of last build: its compressed entry and the size and last modification time it was read with.
+     */
+    private static final class BuiltFile
+    {
+
+        /**
+         * Last modification time of file.
+         */
+        private final long m_lastModified;
+        /**
+         * Size of file.
+         */
+        private final long m_size;
+        /**
+         * Compressed entry of file.
+         */
+        private final CompressedEntry m_entry;
+
+        BuiltFile( final long lastModified, final long size, final CompressedEntry entry )
+        {
+            m_lastModified = lastModified;
+            m_size = size;
+            m_entry = entry;
+        }
+
+        long getLastModified()
+        {
+            return m_lastModified;
+        }
+
+        long getSize()
+        {
+            return m_size;
+        }
+
+        CompressedEntry getEntry()
+        {
+            return m_entry;
+        }
+
+    }
+
+}
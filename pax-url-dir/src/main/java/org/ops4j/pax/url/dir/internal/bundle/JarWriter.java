@@ -0,0 +1,221 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.dir.internal.bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a jar out of already compressed entries: the manifest first, then the entries in the given order, each one
+ * preceded by the directory entries of its parents (as bnd does). Entry data is written as is (deflated or stored).
+ */
+final class JarWriter
+{
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    /**
+     * General purpose flag telling that names are UTF-8 encoded.
+     */
+    private static final int UTF8_FLAG = 0x800;
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /**
+     * Stream to write to.
+     */
+    private final OutputStream m_out;
+    /**
+     * Central directory, written at the end.
+     */
+    private final ByteArrayOutputStream m_centralDirectory;
+    /**
+     * Directory entries written so far.
+     */
+    private final Set<String> m_directories;
+    /**
+     * Number of bytes written so far.
+     */
+    private long m_offset;
+    /**
+     * Number of entries written so far.
+     */
+    private int m_count;
+
+    private JarWriter( final OutputStream out )
+    {
+        m_out = out;
+        m_centralDirectory = new ByteArrayOutputStream();
+        m_directories = new HashSet<String>();
+    }
+
+    /**
+     * Writes a jar.
+     *
+     * @param manifest jar manifest
+     * @param entries  compressed entries, in the order to be written; must not contain the manifest
+     * @param out      stream to write to; not closed
+     *
+     * @throws IOException - If jar cannot be written
+     */
+    static void write( final Manifest manifest, final Iterable<CompressedEntry> entries, final OutputStream out )
+        throws IOException
+    {
+        final JarWriter writer = new JarWriter( out );
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write( content );
+        writer.writeEntry(
+            CompressedEntry.compress( JarFile.MANIFEST_NAME, System.currentTimeMillis(), content.toByteArray() )
+        );
+        for( CompressedEntry entry : entries )
+        {
+            writer.writeEntry( entry );
+        }
+        writer.finish();
+    }
+
+    private void writeEntry( final CompressedEntry entry )
+        throws IOException
+    {
+        writeDirectories( entry.getName(), entry.getTime() );
+        write( entry.getName(), entry.getMethod(), entry.getTime(), entry.getCrc(), entry.getSize(), entry.getData() );
+    }
+
+    /**
+     * Writes the directory entries of the parents of an entry, if not yet written.
+     */
+    private void writeDirectories( final String name, final long time )
+        throws IOException
+    {
+        int slash = name.indexOf( '/' );
+        while( slash > 0 )
+        {
+            final String directory = name.substring( 0, slash + 1 );
+            if( m_directories.add( directory ) )
+            {
+                write( directory, ZipEntry.STORED, time, 0, 0, new byte[0] );
+            }
+            slash = name.indexOf( '/', slash + 1 );
+        }
+    }
+
+    private void write( final String name,
+                        final int method,
+                        final long time,
+                        final long crc,
+                        final int size,
+                        final byte[] data )
+        throws IOException
+    {
+        if( m_count == 0xffff || m_offset > 0xffffffffL )
+        {
+            throw new IOException( "Too many or too large entries" );
+        }
+        final byte[] nameBytes = name.getBytes( UTF_8 );
+        final int dosTime = dosTime( time );
+
+        final byte[] local = new byte[30];
+        putInt( local, 0, LOCAL_HEADER );
+        putShort( local, 4, 20 );
+        putShort( local, 6, UTF8_FLAG );
+        putShort( local, 8, method );
+        putInt( local, 10, dosTime );
+        putInt( local, 14, crc );
+        putInt( local, 18, data.length );
+        putInt( local, 22, size );
+        putShort( local, 26, nameBytes.length );
+        m_out.write( local );
+        m_out.write( nameBytes );
+        m_out.write( data );
+
+        final byte[] central = new byte[46];
+        putInt( central, 0, CENTRAL_HEADER );
+        putShort( central, 4, 20 );
+        putShort( central, 6, 20 );
+        putShort( central, 8, UTF8_FLAG );
+        putShort( central, 10, method );
+        putInt( central, 12, dosTime );
+        putInt( central, 16, crc );
+        putInt( central, 20, data.length );
+        putInt( central, 24, size );
+        putShort( central, 28, nameBytes.length );
+        putInt( central, 42, m_offset );
+        m_centralDirectory.write( central );
+        m_centralDirectory.write( nameBytes );
+
+        m_offset += local.length + nameBytes.length + data.length;
+        m_count++;
+    }
+
+    private void finish()
+        throws IOException
+    {
+        if( m_offset > 0xffffffffL )
+        {
+            throw new IOException( "Too large entries" );
+        }
+        m_centralDirectory.writeTo( m_out );
+        final byte[] end = new byte[22];
+        putInt( end, 0, END_HEADER );
+        putShort( end, 8, m_count );
+        putShort( end, 10, m_count );
+        putInt( end, 12, m_centralDirectory.size() );
+        putInt( end, 16, m_offset );
+        m_out.write( end );
+        m_out.flush();
+    }
+
+    /**
+     * Converts a time to MS-DOS date (high word) and time (low word).
+     */
+    private static int dosTime( final long time )
+    {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis( time );
+        final int year = calendar.get( Calendar.YEAR );
+        if( year < 1980 )
+        {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        return ( year - 1980 ) << 25
+               | ( calendar.get( Calendar.MONTH ) + 1 ) << 21
+               | calendar.get( Calendar.DAY_OF_MONTH ) << 16
+               | calendar.get( Calendar.HOUR_OF_DAY ) << 11
+               | calendar.get( Calendar.MINUTE ) << 5
+               | calendar.get( Calendar.SECOND ) >> 1;
+    }
+
+    private static void putShort( final byte[] bytes, final int offset, final int value )
+    {
+        bytes[ offset ] = (byte) value;
+        bytes[ offset + 1 ] = (byte) ( value >> 8 );
+    }
+
+    private static void putInt( final byte[] bytes, final int offset, final long value )
+    {
+        putShort( bytes, offset, (int) value );
+        putShort( bytes, offset + 2, (int) ( value >> 16 ) );
+    }
+
+}
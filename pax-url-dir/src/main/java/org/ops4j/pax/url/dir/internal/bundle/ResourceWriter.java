@@ -1,23 +1,40 @@
 package org.ops4j.pax.url.dir.internal.bundle;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.jar.JarOutputStream;
 import java.util.jar.JarEntry;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 import java.io.IOException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
-import java.io.InputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import org.ops4j.pax.url.dir.internal.ResourceLocator;
 import org.ops4j.lang.NullArgumentException;
-import org.ops4j.io.StreamUtils;
 
 /**
+ * Writes the files of a directory tree. Files are read concurrently, and written uncompressed (stored), as the written
+ * jar is only read again to build the bundle.
+ *
  * @author Toni Menzel (tonit)
  * @since Jan 14, 2009
  */
 public class ResourceWriter implements ResourceLocator
 {
 
+    /**
+     * Maximum number of files read before being written.
+     */
+    private static final int BATCH_SIZE = 256;
+
     private final File m_base;
     private final FilenameFilter m_filter;
 
@@ -52,7 +69,7 @@ public class ResourceWriter implements ResourceLocator
 
         if( m_base != null )
         {
-            findAndWriteResources( target, m_base );
+            findAndWriteResources( target, m_base.getCanonicalFile().toPath() );
         }
         else
         {
@@ -64,56 +81,106 @@ public class ResourceWriter implements ResourceLocator
 
     /**
      * @param target the JarOutputStream to write to.
-     * @param dir    the current folder to list and write (recursive call!)
+     * @param base   the folder to walk and write
      */
-    private void findAndWriteResources( final JarOutputStream target, final File dir )
+    private void findAndWriteResources( final JarOutputStream target, final Path base )
         throws IOException
     {
-        if( dir != null && dir.canRead() && dir.isDirectory() )
+        if( !Files.isDirectory( base ) || !Files.isReadable( base ) )
+        {
+            return;
+        }
+        final List<Callable<CompressedEntry>> batch = new ArrayList<Callable<CompressedEntry>>();
+        Files.walkFileTree(
+            base, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE, new SimpleFileVisitor<Path>()
         {
-            for( File f : dir.listFiles( m_filter ) )
+            @Override
+            public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attributes )
             {
-                if( f.isDirectory() )
-                {
-                    findAndWriteResources( target, f );
-                }
-                else if( !f.isHidden() )
+                return dir.equals( base ) || accept( dir )
+                       ? FileVisitResult.CONTINUE
+                       : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( final Path file, final BasicFileAttributes attributes )
+                throws IOException
+            {
+                if( attributes.isRegularFile() && accept( file ) && !file.toFile().isHidden() )
                 {
-                    writeToTarget( target, f );
+                    final String name = base.relativize( file ).toString().replace( File.separatorChar, '/' );
+                    checkName( name );
+                    batch.add( read( name, file, attributes.lastModifiedTime().toMillis() ) );
+                    if( batch.size() == BATCH_SIZE )
+                    {
+                        writeToTarget( target, batch );
+                    }
                 }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException e )
+            {
+                // not readable (or a link loop)
+                return FileVisitResult.CONTINUE;
             }
         }
+        );
+        writeToTarget( target, batch );
     }
 
-    private void writeToTarget( JarOutputStream target, File f )
-        throws IOException
+    private boolean accept( final Path path )
     {
+        return m_filter.accept( path.getParent().toFile(), path.getFileName().toString() );
+    }
 
-        String name =
-            f.getCanonicalPath()
-                .substring( m_base.getCanonicalPath().length() + 1 )
-                .replace( File.separatorChar, '/' );
-        if( name.equals( "META-INF/MANIFEST.MF" ) )
-        {
-            throw new RuntimeException( "You have specified a " + name
-                                        + " in your probe bundle. Please make sure that you don't have it in your project's target folder. Otherwise it would lead to false assumptions and unexpected results."
-            );
-        }
-        FileInputStream fis = new FileInputStream( f );
-        try
+    private static Callable<CompressedEntry> read( final String name, final Path file, final long lastModified )
+    {
+        return new Callable<CompressedEntry>()
         {
-            write( name, fis, target );
+            public CompressedEntry call()
+                throws IOException
+            {
+                return CompressedEntry.compress(
+                    name, lastModified, Files.readAllBytes( file ), Deflater.NO_COMPRESSION
+                );
+            }
+        };
+    }
 
-        } finally
+    /**
+     * Reads a batch of files concurrently and writes them in order.
+     */
+    private static void writeToTarget( final JarOutputStream target, final List<Callable<CompressedEntry>> batch )
+        throws IOException
+    {
+        for( CompressedEntry stored : Workers.invokeAll( batch ) )
         {
-            fis.close();
+            final JarEntry entry = new JarEntry( stored.getName() );
+            entry.setMethod( ZipEntry.STORED );
+            entry.setTime( stored.getTime() );
+            entry.setSize( stored.getSize() );
+            entry.setCompressedSize( stored.getSize() );
+            entry.setCrc( stored.getCrc() );
+            target.putNextEntry( entry );
+            target.write( stored.getData() );
         }
+        batch.clear();
     }
 
-    void write( String name, InputStream fileIn, JarOutputStream target )
-        throws IOException
+    /**
+     * Fails if a resource cannot be part of the bundle (as a manifest, which is generated).
+     *
+     * @param name resource name, relative to base
+     */
+    static void checkName( String name )
     {
-        target.putNextEntry( new JarEntry( name ) );
-        StreamUtils.copyStream( fileIn, target, false );
+        if( name.equals( "META-INF/MANIFEST.MF" ) )
+        {
+            throw new RuntimeException( "You have specified a " + name
+                                        + " in your probe bundle. Please make sure that you don't have it in your project's target folder. Otherwise it would lead to false assumptions and unexpected results."
+            );
+        }
     }
 }
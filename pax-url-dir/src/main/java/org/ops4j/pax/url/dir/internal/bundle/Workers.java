@@ -0,0 +1,66 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.dir.internal.bundle;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import org.ops4j.pax.url.commons.concurrent.ThreadPools;
+
+/**
+ * Threads reading and compressing the files of dir bundles, one per processor.
+ */
+final class Workers
+{
+
+    /**
+     * Minimum number of tasks worth to be run concurrently.
+     */
+    private static final int MIN_PARALLEL_TASKS = 8;
+
+    /**
+     * Reading and compressing threads.
+     */
+    private static final ExecutorService WORKERS = ThreadPools.newPool(
+        "pax-url-dir-worker", Runtime.getRuntime().availableProcessors()
+    );
+
+    /**
+     * Utility class.
+     */
+    private Workers()
+    {
+        // utility class
+    }
+
+    /**
+     * Runs tasks using the worker threads (or the caller thread if there are only a few tasks) and returns their
+     * results, in order.
+     *
+     * @param tasks tasks to run
+     *
+     * @return results of tasks, in order of tasks
+     *
+     * @throws IOException - If a task fails
+     */
+    static <T> List<T> invokeAll( final List<Callable<T>> tasks )
+        throws IOException
+    {
+        return ThreadPools.invokeAll( WORKERS, tasks, MIN_PARALLEL_TASKS, "Bundle cannot be built" );
+    }
+
+}
@@ -20,10 +20,14 @@ public class ConnectionTest
         String clazz = this.getClass().getName().replaceAll( "\\.", "/" ) + ".class";
         URL url = new URL( "http:.$tail=" + clazz + "&Foo=bar" );
         Configuration config = createMock( Configuration.class );
+        expect( config.getCompressionLevel() ).andReturn( null );
+        expect( config.getIncremental() ).andReturn( false );
+        replay( config );
 
         Connection con = new Connection( url, config );
         InputStream inp = con.getInputStream();
-        FunctionalTest.dumpToConsole( inp, 16 );
+        FunctionalTest.dumpToConsole( inp, 17 );
+        verify( config );
     }
 
 }
@@ -8,8 +8,11 @@ import java.util.ArrayList;
 import java.util.Properties;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import org.ops4j.io.StreamUtils;
@@ -41,7 +44,34 @@ public class FunctionalTest
         assertNotNull( in );
 
         // stream is filled lazily, so a complete read is important to verify
-        dumpToConsole( in, 16 );
+        dumpToConsole( in, 17 );
+    }
+
+    @Test
+    public void storedEntries()
+        throws IOException
+    {
+        String clazz = this.getClass().getName().replaceAll( "\\.", "/" ) + ".class";
+        FileTail loc = new FileTailImpl( new File( "." ), clazz );
+
+        BundleBuilder b = new BundleBuilder( new Properties(), new ResourceWriter( loc.getParentOfTail() ), 0 );
+
+        ZipInputStream zin = new ZipInputStream( b.build() );
+        try
+        {
+            ZipEntry entry;
+            while( ( entry = zin.getNextEntry() ) != null )
+            {
+                // manifest is always deflated
+                if( !entry.getName().equals( JarFile.MANIFEST_NAME ) )
+                {
+                    assertEquals( entry.getName(), ZipEntry.STORED, entry.getMethod() );
+                }
+            }
+        } finally
+        {
+            zin.close();
+        }
     }
 
     public static void dumpToConsole( InputStream in, int expecedEntries )
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.junit.Test;
 import org.ops4j.pax.url.dir.internal.FileTail;
@@ -34,4 +35,51 @@ public class FileTailTest
         assertEquals( "test-classes", loc.getParentOfTail().getName() );
 
     }
+
+    @Test
+    public void excludedAndMovedTail()
+        throws IOException
+    {
+        File root = Files.createTempDirectory( new File( "target" ).toPath(), "tail" ).toFile();
+        try
+        {
+            String tail = "org/foo/Bar.class";
+            touch( new File( root, ".hidden/" + tail ) );
+            touch( new File( root, "node_modules/" + tail ) );
+            touch( new File( root, "classes/" + tail ) );
+
+            assertEquals(
+                new File( root, "classes" ).getCanonicalFile(), new FileTailImpl( root, tail ).getParentOfTail()
+            );
+
+            new File( root, "classes/" + tail ).delete();
+            touch( new File( root, "test-classes/" + tail ) );
+            assertEquals(
+                new File( root, "test-classes" ).getCanonicalFile(), new FileTailImpl( root, tail ).getParentOfTail()
+            );
+        } finally
+        {
+            delete( root );
+        }
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+    private static void touch( File file )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
 }
@@ -0,0 +1,197 @@
+package org.ops4j.pax.url.dir.internal.bundle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import org.junit.Test;
+import org.ops4j.io.StreamUtils;
+
+public class IncrementalBundleBuilderTest
+{
+
+    @Test
+    public void onlyChangesAreBuilt()
+        throws Exception
+    {
+        File root = Files.createTempDirectory( new File( "target" ).toPath(), "dir" ).toFile();
+        try
+        {
+            String className = getClass().getName().replace( '.', '/' ) + ".class";
+            File clazz = writeClass( root );
+            File text = new File( root, "data/test.txt" );
+            write( text, "first".getBytes( "UTF-8" ) );
+
+            Properties instructions = new Properties();
+            instructions.setProperty( "Bundle-SymbolicName", "incremental" );
+            IncrementalBundleBuilder builder = IncrementalBundleBuilder.getInstance( root, instructions );
+
+            byte[] bundle = read( builder.build() );
+            assertEquals( "first", entry( bundle, "data/test.txt" ) );
+            assertTrue( exports( bundle ).contains( "org.ops4j.pax.url.dir.internal.bundle" ) );
+            assertArrayEquals( bundle, read( IncrementalBundleBuilder.getInstance( root, instructions ).build() ) );
+
+            // changes are found as soon as made
+            write( text, "second".getBytes( "UTF-8" ) );
+            text.setLastModified( text.lastModified() + 2000 );
+            bundle = read( builder.build() );
+            assertEquals( "second", entry( bundle, "data/test.txt" ) );
+
+            clazz.delete();
+            bundle = read( builder.build() );
+            assertNull( entry( bundle, className ) );
+            assertFalse( exports( bundle ).contains( "org.ops4j.pax.url.dir.internal.bundle" ) );
+        } finally
+        {
+            delete( root );
+        }
+    }
+
+    @Test
+    public void changedPackageVersionIsAnalyzed()
+        throws Exception
+    {
+        File root = Files.createTempDirectory( new File( "target" ).toPath(), "dir" ).toFile();
+        try
+        {
+            File packageInfo = new File( writeClass( root ).getParentFile(), "packageinfo" );
+            write( packageInfo, "version 1.0".getBytes( "UTF-8" ) );
+
+            Properties instructions = new Properties();
+            instructions.setProperty( "Bundle-SymbolicName", "incremental" );
+            IncrementalBundleBuilder builder = IncrementalBundleBuilder.getInstance( root, instructions );
+            assertTrue( exports( read( builder.build() ) ).contains( "version=\"1.0\"" ) );
+
+            // no class changed, but the package version did
+            write( packageInfo, "version 2.0.0".getBytes( "UTF-8" ) );
+            packageInfo.setLastModified( packageInfo.lastModified() + 2000 );
+            assertTrue( exports( read( builder.build() ) ).contains( "version=\"2.0.0\"" ) );
+        } finally
+        {
+            delete( root );
+        }
+    }
+
+    @Test
+    public void storedFilesAreReadWhenWritten()
+        throws Exception
+    {
+        File root = Files.createTempDirectory( new File( "target" ).toPath(), "dir" ).toFile();
+        try
+        {
+            File text = new File( root, "data/test.txt" );
+            write( text, "first".getBytes( "UTF-8" ) );
+
+            Properties instructions = new Properties();
+            instructions.setProperty( "Bundle-SymbolicName", "stored" );
+            IncrementalBundleBuilder builder = IncrementalBundleBuilder.getInstance( root, instructions, 0 );
+            assertEquals( "first", entry( read( builder.build() ), "data/test.txt" ) );
+
+            write( text, "second".getBytes( "UTF-8" ) );
+            text.setLastModified( text.lastModified() + 2000 );
+            assertEquals( "second", entry( read( builder.build() ), "data/test.txt" ) );
+        } finally
+        {
+            delete( root );
+        }
+    }
+
+    private File writeClass( File root )
+        throws IOException
+    {
+        String className = getClass().getName().replace( '.', '/' ) + ".class";
+        File clazz = new File( root, className );
+        InputStream in = getClass().getResourceAsStream( "/" + className );
+        try
+        {
+            write( clazz, read( in ) );
+        } finally
+        {
+            in.close();
+        }
+        return clazz;
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+    private static String entry( byte[] bundle, String name )
+        throws IOException
+    {
+        JarInputStream jar = new JarInputStream( new ByteArrayInputStream( bundle ) );
+        try
+        {
+            JarEntry entry;
+            while( ( entry = jar.getNextJarEntry() ) != null )
+            {
+                if( entry.getName().equals( name ) )
+                {
+                    return new String( read( jar ), "UTF-8" );
+                }
+            }
+            return null;
+        } finally
+        {
+            jar.close();
+        }
+    }
+
+    private static String exports( byte[] bundle )
+        throws IOException
+    {
+        JarInputStream jar = new JarInputStream( new ByteArrayInputStream( bundle ) );
+        try
+        {
+            return jar.getManifest().getMainAttributes().getValue( "Export-Package" );
+        } finally
+        {
+            jar.close();
+        }
+    }
+
+    private static void write( File file, byte[] content )
+        throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        } finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] read( InputStream in )
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamUtils.copyStream( in, out, false );
+        return out.toByteArray();
+    }
+
+}
@@ -55,6 +55,24 @@ public interface ServiceConstants
      * when pax-logging is present.
      */
     static final String PROPERTY_IMPORT_PAXLOGGING_PACKAGES = PID + ".importPaxLoggingPackages";
+    /**
+     * Parallel analysis configuration property name. If true, bundle manifest is calculated by analyzing classes in
+     * parallel, without bnd, when the instructions are simple enough.
+     */
+    static final String PROPERTY_PARALLEL_ANALYSIS = PID + ".parallelAnalysis";
+    /**
+     * Directory where generated web bundles are cached configuration property name. Caching is disabled if not set.
+     */
+    static final String PROPERTY_CACHE_DIRECTORY = PID + ".cacheDirectory";
+    /**
+     * Maximum total size (in bytes) of cached web bundles configuration property name. When exceeded, least recently
+     * used web bundles are deleted from cache directory. Negative value means that the size of cache is not limited.
+     */
+    static final String PROPERTY_CACHE_MAX_SIZE = PID + ".cacheMaxSize";
+    /**
+     * Default maximum size of cached web bundles (512 MiB).
+     */
+    static final long DEFAULT_CACHE_MAX_SIZE = 512L * 1024 * 1024;
     /**
      * URI of the war file to be processed.
      */
@@ -17,57 +17,48 @@
  */
 package org.ops4j.pax.url.war.internal;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
-import java.net.JarURLConnection;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.Set;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 
+import aQute.bnd.osgi.About;
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+import aQute.bnd.osgi.ZipResource;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.lang.Ops4jException;
 import org.ops4j.lang.PreConditionException;
-import org.ops4j.net.URLUtils;
 import org.ops4j.pax.swissbox.bnd.BndUtils;
 import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+import org.ops4j.pax.url.commons.analysis.ParallelAnalyzer;
+import org.ops4j.pax.url.commons.bundle.WrappingInstructions;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.commons.io.ContentStreams;
 import org.ops4j.pax.url.war.ServiceConstants;
 import org.osgi.framework.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Abstract url connection for wrap protocol handler.
@@ -85,13 +76,11 @@ abstract class AbstractConnection
      * Service configuration.
      */
     private final Configuration m_configuration;
+    /**
+     * War being processed, if any. Its entries are read lazily and copied as they are stored when bundle is written.
+     */
+    private WarArchive m_war;
 
-	/**
-	 * DocumentBuilderFactory for parsing web.xml files
-	 */
-	private static DocumentBuilderFactory dbf = null;
-
-    
     /**
      * The pattern blacklist to verify that the jar is "legal" within a web-context.
      */
@@ -163,18 +152,72 @@ abstract class AbstractConnection
                     + ": " + manifestVersion);
         }
 
-        generateClassPathInstruction( instructions );
-        
-        generateImportPackageFromWebXML( instructions );
+        // the war is fetched (if not local) and indexed once for all the processing
+        final WarArchive war = WarArchive.open( warUri, !m_configuration.getCertificateCheck() );
+        try
+        {
+            final File cacheDirectory = m_configuration.getCacheDirectory();
+            if( cacheDirectory == null )
+            {
+                return createBundle( war, instructions, warUri );
+            }
+            // key out of instructions as returned by getInstructions(), the rest is derived from war content
+            final String type = getClass().getName() + ( m_configuration.getParallelAnalysis() ? "/parallel" : "" );
+            final BundleCache cache = BundleCache.getInstance(
+                cacheDirectory, ServiceConstants.PROTOCOL_WAR, m_configuration.getCacheMaxSize()
+            );
+            // digests of downloaded (temporary) wars are not kept
+            final byte[] contentDigest = cache.digest( war.getFile(), !war.isTemporary() );
+            return cache.open(
+                BundleCache.key( contentDigest, instructions, type, About.CURRENT.toString() ),
+                new BundleCache.Generator()
+                {
+                    public InputStream generate()
+                        throws IOException
+                    {
+                        return createBundle( war, instructions, warUri );
+                    }
+                }
+            );
+        }
+        finally
+        {
+            war.close();
+        }
+    }
+
+    /**
+     * Completes the instructions out of war content and creates the bundle.
+     *
+     * @param war          processed war
+     * @param instructions instructions
+     * @param warUri       war uri
+     *
+     * @return the input stream for the created bundle
+     *
+     * @throws IOException re-thrown
+     */
+    private InputStream createBundle( final WarArchive war, final Properties instructions, final String warUri )
+        throws IOException
+    {
+        generateClassPathInstruction( instructions, war );
+
+        generateImportPackageFromWebXML( instructions, war );
 
-        return createBundle(
-                    URLUtils.prepareInputStream(new URL(warUri), !m_configuration.getCertificateCheck()),
-                    instructions,
-                    warUri );
+        m_war = war;
+        try
+        {
+            return createBundle( war.openStream(), instructions, warUri );
+        }
+        finally
+        {
+            m_war = null;
+        }
     }
 
 	/**
-     * Actually create the bundle based on the parsed instructions and  the given stream
+     * Actually create the bundle based on the parsed instructions and  the given stream.
+     * If parallel analysis is enabled and instructions allow it, the manifest is calculated without bnd.
      * @param warUri
      * @param instructions
      * @return
@@ -182,11 +225,52 @@ abstract class AbstractConnection
      */
     protected InputStream createBundle(InputStream inputStream, Properties instructions, String warUri) throws IOException
     {
-        return BndUtils.createBundle( inputStream, instructions, warUri );
+        if( m_configuration.getParallelAnalysis() && m_war != null && ParallelAnalyzer.canAnalyze( instructions ) )
+        {
+            final InputStream bundle = analyzeWar( instructions, warUri );
+            if( bundle != null )
+            {
+                return bundle;
+            }
+        }
+        return createBundle( inputStream, instructions, warUri, OverwriteMode.KEEP );
+    }
+
+    /**
+     * Creates the bundle of the war being processed without bnd. Only the entries the analysis needs (class files
+     * foremost) are read from the war file and the bundle is written as a copy of the war with the calculated
+     * manifest, where all other entries are copied as they are stored.
+     *
+     * @param instructions instructions
+     * @param warUri       war uri
+     *
+     * @return bundle content or null if bnd has to be used
+     *
+     * @throws IOException re-thrown
+     */
+    private InputStream analyzeWar( final Properties instructions, final String warUri )
+        throws IOException
+    {
+        final Manifest warManifest = m_war.getManifest();
+        if( warManifest != null
+            && ( warManifest.getMainAttributes().getValue( Analyzer.EXPORT_PACKAGE ) != null
+                 || warManifest.getMainAttributes().getValue( Analyzer.IMPORT_PACKAGE ) != null ) )
+        {
+            // already a bundle
+            return copyWar( null );
+        }
+        if( m_war.isSigned() )
+        {
+            // copied signatures would not match the new manifest
+            return null;
+        }
+        final Manifest manifest = ParallelAnalyzer.calcManifest( m_war.getZipFile(), instructions, warUri );
+        return manifest == null ? null : copyWar( manifest );
     }
     
     /**
-     * Actually create the bundle based on the parsed instructions and  the given stream
+     * Actually create the bundle based on the parsed instructions and  the given stream.
+     * While a war is processed, the stream is the war content and the war file is used instead.
      * @param jarInputStream
      * @param instructions
      * @param jarInfo
@@ -208,7 +292,7 @@ abstract class AbstractConnection
         LOG.debug( "Overwrite mode: " + overwriteMode );
         LOG.trace( "Using instructions " + instructions );
 
-        final Jar jar = new Jar( "dot", jarInputStream );
+        final Jar jar = m_war == null ? new Jar( "dot", jarInputStream ) : new Jar( "dot", m_war.getFile() );
         Manifest manifest = null;
         try
         {
@@ -231,19 +315,11 @@ abstract class AbstractConnection
             // Do not use instructions as default for properties because it looks like BND uses the props
             // via some other means then getProperty() and so the instructions will not be used at all
             // So, just copy instructions to properties
-            final Properties properties = new Properties();
-            properties.putAll( instructions );
-
-            properties.put( "Generated-By-Ops4j-Pax-From", jarInfo );
-
             final Analyzer analyzer = new Analyzer();
             analyzer.setJar( jar );
-            analyzer.setProperties( properties );
-            if( manifest != null && OverwriteMode.MERGE == overwriteMode )
-            {
-                analyzer.mergeManifest( manifest );
-            }
-            checkMandatoryProperties( analyzer, jar, jarInfo );
+            analyzer.setProperties( WrappingInstructions.withDefaults(
+                instructions, OverwriteMode.MERGE == overwriteMode ? manifest : null, jarInfo
+            ) );
             try
             {
                 Manifest newManifest = analyzer.calcManifest();
@@ -266,87 +342,142 @@ abstract class AbstractConnection
             }
         }
 
-        return createInputStream( jar );
+        return createInputStream( jar, m_war );
     }
 
     /**
      * Creates an piped input stream for the wrapped jar.
-     * This is done in a thread so we can return quickly.
+     * The jar is written by a shared writer thread so we can return quickly.
+     * If the jar content is the unchanged content of the war, only the manifest is written anew and all other war
+     * entries are copied as they are stored, without being inflated and deflated again.
      *
      * @param jar the wrapped jar
+     * @param war war the jar was read from or null
      *
      * @return an input stream for the wrapped jar
      *
      * @throws java.io.IOException re-thrown
      */
-    private static PipedInputStream createInputStream( final Jar jar )
+    private static InputStream createInputStream( final Jar jar, final WarArchive war )
             throws IOException
     {
-        final CloseAwarePipedInputStream pin = new CloseAwarePipedInputStream();
-        final PipedOutputStream pout = new PipedOutputStream( pin );
-
-        new Thread()
+        final RawZipCopy copy = war == null ? null : RawZipCopy.read( war.getFile() );
+        final boolean raw = copy != null && isCopyOf( jar, copy );
+        if( war != null )
+        {
+            // jar is read from war file, that must stay until written
+            war.retain();
+        }
+        return ContentStreams.pipe( jar.getName(), new ContentStreams.Content()
         {
-            public void run()
+            public void writeTo( final OutputStream out )
+                throws IOException
             {
                 try
                 {
-                    jar.write( pout );
-                }
-                catch( Exception e )
-                {
-                    if (pin.closed)
+                    if( raw && jar.getManifest() != null )
                     {
-                        // logging the message at DEBUG logging instead
-                        // -- reading thread probably stopped reading
-                        LOG.debug( "Bundle cannot be generated, pipe closed by reader", e );
+                        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                        jar.writeManifest( manifest );
+                        copy.write( manifest.toByteArray(), out );
                     }
-                    else {
-                        LOG.warn( "Bundle cannot be generated", e );
+                    else
+                    {
+                        jar.write( out );
                     }
                 }
+                catch( IOException e )
+                {
+                    throw e;
+                }
+                catch( Exception e )
+                {
+                    throw new IOException( "Bundle cannot be generated", e );
+                }
                 finally
                 {
-                    try
-                    {
-                        jar.close();
-                        pout.close();
-                    }
-                    catch( IOException ignore )
+                    jar.close();
+                    if( war != null )
                     {
-                        // if we get here something is very wrong
-                        LOG.error( "Bundle cannot be generated", ignore );
+                        war.close();
                     }
                 }
             }
-        }.start();
+        } );
+    }
 
-        return pin;
+    /**
+     * Checks that the jar content is made of the stored entries of a zip copy (apart from the manifest).
+     */
+    private static boolean isCopyOf( final Jar jar, final RawZipCopy copy )
+    {
+        final Map<String, Resource> resources = new HashMap<String, Resource>( jar.getResources() );
+        resources.remove( JarFile.MANIFEST_NAME );
+        for( Resource resource : resources.values() )
+        {
+            if( !( resource instanceof ZipResource ) )
+            {
+                return false;
+            }
+        }
+        return resources.keySet().equals( copy.getEntryNames() );
     }
 
     /**
-     * Check if manadatory properties are present, otherwise generate default.
+     * Returns the manifest of the war being processed, read via the war central directory.
+     *
+     * @return war manifest or null if war has no manifest
      *
-     * @param analyzer     bnd analyzer
-     * @param jar          bnd jar
-     * @param symbolicName bundle symbolic name
+     * @throws IOException re-thrown
      */
-    private static void checkMandatoryProperties( final Analyzer analyzer,
-            final Jar jar,
-            final String symbolicName )
+    protected Manifest getWarManifest()
+        throws IOException
     {
-        final String importPackage = analyzer.getProperty( Analyzer.IMPORT_PACKAGE );
-        if( importPackage == null || importPackage.trim().length() == 0 )
+        PreConditionException.validateNotNull( m_war, "War" );
+        return m_war.getManifest();
+    }
+
+    /**
+     * Returns the war being processed without any analysis: the war file itself or, if a manifest is given, a copy
+     * of the war with that manifest where all other entries are copied as they are stored.
+     *
+     * @param manifest manifest replacing the war manifest or null to return the war as is
+     *
+     * @return war content or null if war manifest cannot be replaced this way
+     *
+     * @throws IOException re-thrown
+     */
+    protected InputStream copyWar( final Manifest manifest )
+        throws IOException
+    {
+        PreConditionException.validateNotNull( m_war, "War" );
+        if( manifest == null )
         {
-            analyzer.setProperty( Analyzer.IMPORT_PACKAGE, "*;resolution:=optional" );
+            return m_war.openDetachedStream();
         }
-        final String exportPackage = analyzer.getProperty( Analyzer.EXPORT_PACKAGE );
-        if( exportPackage == null || exportPackage.trim().length() == 0 )
+        final RawZipCopy copy = RawZipCopy.read( m_war.getFile() );
+        if( copy == null )
         {
-            analyzer.setProperty( Analyzer.EXPORT_PACKAGE, "*" );
+            return null;
         }
-        final String localSymbolicName = analyzer.getProperty( Analyzer.BUNDLE_SYMBOLICNAME, symbolicName );
-        analyzer.setProperty( Analyzer.BUNDLE_SYMBOLICNAME, localSymbolicName.replaceAll( "[^a-zA-Z_0-9.-]", "_" ) );
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        manifest.write( content );
+        final WarArchive war = m_war.retain();
+        return ContentStreams.pipe( war.getFile().getName(), new ContentStreams.Content()
+        {
+            public void writeTo( final OutputStream out )
+                throws IOException
+            {
+                try
+                {
+                    copy.write( content.toByteArray(), out );
+                }
+                finally
+                {
+                    war.close();
+                }
+            }
+        } );
     }
 
     /**
@@ -376,10 +507,11 @@ abstract class AbstractConnection
      * all jars found in WEB-INF/lib
      *
      * @param instructions instructions
+     * @param war          processed war
      *
-     * @throws java.io.IOException re-thrown from extractJarListFromWar()
+     * @throws java.io.IOException re-thrown from WarArchive.getLibJars()
      */
-    private static void generateClassPathInstruction( final Properties instructions )
+    private static void generateClassPathInstruction( final Properties instructions, final WarArchive war )
         throws IOException
     {
         final List<String> bundleClassPath = new ArrayList<String>();
@@ -393,7 +525,7 @@ abstract class AbstractConnection
             bundleClassPath.add("WEB-INF/classes");
             // then get the list of jars in WEB-INF/lib - but also sanitazed list of entries referenced from those
             // jars' Class-Path header (non-OSGi)
-            bundleClassPath.addAll( extractJarListFromWar( instructions.getProperty( ServiceConstants.INSTR_WAR_URL ) ) );
+            bundleClassPath.addAll( war.getLibJars() );
         }
 
         // set back the new bundle classpath
@@ -401,106 +533,83 @@ abstract class AbstractConnection
     }
     
     /**
-     * Adds Package-Import for classes contained in the web.xml of the war. 
+     * Adds Package-Import for classes named in the web.xml of the war and in the web-fragment.xml of its lib jars.
+     * Packages already imported by name are not added again.
      * 
      * @param instructions - Properties containing the instructions for the manifest generation
-     * @throws IOException 
+     * @param war - processed war
+     * @throws IOException if web.xml cannot be parsed
      */
-    private static void generateImportPackageFromWebXML(Properties instructions) throws IOException {
-    	String warUri = instructions.getProperty( ServiceConstants.INSTR_WAR_URL );
-    	JarFile jarFile = null;
-    	List<String> webXmlImports = new ArrayList<String>();
-        try
-        {
-            final JarURLConnection conn = (JarURLConnection) new URL( "jar:" + warUri + "!/" ).openConnection();
-            conn.setUseCaches( false );
-            jarFile = conn.getJarFile();
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while( entries.hasMoreElements() )
-            {
-            	JarEntry entry = (JarEntry) entries.nextElement();
-            	if ("WEB-INF/web.xml".equalsIgnoreCase(entry.getName())){
-            		//Found the web.xml will try to get all "-class" attributes from it to import them
-            		if (dbf == null) {
-            			dbf = DocumentBuilderFactory.newInstance();
-            			dbf.setNamespaceAware(true);
-            			dbf.setValidating(false);
-            			dbf.setAttribute("http://xml.org/sax/features/namespaces", true);
-            	        dbf.setAttribute("http://xml.org/sax/features/validation", false);
-            	        dbf.setAttribute("http://apache.org/xml/features/nonvalidating/load-dtd-grammar", false);
-            	        dbf.setAttribute("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
-                        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-
-            		}
-            		DocumentBuilder db = dbf.newDocumentBuilder();
-
-            		Document doc = db.parse(jarFile.getInputStream(entry));
-
-            		NodeList childNodes = doc.getDocumentElement().getChildNodes();
-            		parseChildNodes(webXmlImports, childNodes);
-
-            		break;
-            	}
-            }
-
-            StringBuffer buff = new StringBuffer(instructions.getProperty("Import-Package"));
-            
-            for (String importPackage : webXmlImports) {
-            	if (buff.toString().contains(importPackage))
-            		continue; //skip this one it's already included
-            	buff.append(",");
-            	buff.append(importPackage);
-            	buff.append(";resolution:=optional");
+    private static void generateImportPackageFromWebXML(Properties instructions, WarArchive war) throws IOException {
+        final String importPackage = instructions.getProperty("Import-Package");
+        if (importPackage == null) {
+            // bnd default imports all referenced packages
+            return;
+        }
+        final Set<String> webXmlImports = new LinkedHashSet<String>();
+        final InputStream webXml = war.getEntryIgnoreCase("WEB-INF/web.xml");
+        if (webXml != null) {
+            try {
+                WebXmlScanner.scan(webXml, webXmlImports);
+            } catch (IOException e) {
+                throw new IOException( "Provided url [" + instructions.getProperty( ServiceConstants.INSTR_WAR_URL )
+                        + "] does not refer a valid war file", e );
+            } finally {
+                webXml.close();
             }
-
-            instructions.setProperty("Import-Package", buff.toString());
-        } catch( ClassCastException e ) {
-            throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-        } catch (MalformedURLException e) {
-        	throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (IOException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (ParserConfigurationException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		} catch (SAXException e) {
-			throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
-		}
-        finally {
-            if( jarFile != null )
-            {
-                try
-                {
-                    jarFile.close();
+        }
+        for (String jarName : war.getWebInfLibJars()) {
+            InputStream webFragment = null;
+            try {
+                webFragment = war.getEmbeddedEntry(jarName, "META-INF/web-fragment.xml");
+                if (webFragment != null) {
+                    WebXmlScanner.scan(webFragment, webXmlImports);
                 }
-                catch( IOException ignore )
-                {
-                    // ignore
+            } catch (IOException e) {
+                LOG.warn( "Ignoring web-fragment.xml of [" + jarName + "]: " + e.getMessage() );
+            } finally {
+                if (webFragment != null) {
+                    webFragment.close();
                 }
             }
         }
 
+        final Set<String> imported = importedPackages(importPackage);
+        final StringBuilder buff = new StringBuilder(importPackage);
+        for (String packageName : webXmlImports) {
+            if (imported.add(packageName)) {
+                buff.append(",");
+                buff.append(packageName);
+                buff.append(";resolution:=optional");
+            }
+        }
+        instructions.setProperty("Import-Package", buff.toString());
     }
 
-
-	/**
-	 * @param webXmlImports
-	 * @param childNodes
-	 */
-	private static void parseChildNodes(List<String> webXmlImports, NodeList childNodes) {
-		for (int i = 0; i < childNodes.getLength(); i++) {
-			Node node = childNodes.item(i);
-			NodeList subNodes = node.getChildNodes();
-			if (subNodes != null)
-				parseChildNodes(webXmlImports, subNodes);
-			String nodeName = node.getNodeName();
-			if (nodeName.contains("-class")) {
-				//found a class attribute extract package
-				String lookupClass = node.getTextContent();
-				String packageName = lookupClass.substring(0, lookupClass.lastIndexOf(".")).trim();
-				webXmlImports.add(packageName);
-			}
-		}
-	}
+    /**
+     * Returns the package names (or patterns) of an Import-Package header.
+     *
+     * @param importPackage Import-Package header
+     *
+     * @return package names
+     */
+    private static Set<String> importedPackages(final String importPackage) {
+        final Set<String> packages = new HashSet<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= importPackage.length(); i++) {
+            final char c = i < importPackage.length() ? importPackage.charAt(i) : ',';
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                final String clause = importPackage.substring(start, i);
+                final int semicolon = clause.indexOf(';');
+                packages.add((semicolon < 0 ? clause : clause.substring(0, semicolon)).trim());
+                start = i + 1;
+            }
+        }
+        return packages;
+    }
 
 
     /**
@@ -512,113 +621,6 @@ abstract class AbstractConnection
         // do nothing
     }
 
-    /**
-     * Extracts the list of jars from a war file. The list will contain all jars under WEB-INF/lib directory.
-     *
-     * @param warUri war file uri
-     *
-     * @return list of jars
-     *
-     * @throws java.io.IOException re-thrown from accessing urls or if the warUri does not refer to a jar
-     */
-    private static List<String> extractJarListFromWar( final String warUri )
-        throws IOException
-    {
-        final List<String> list = new ArrayList<String>();
-        JarFile jarFile = null;
-        // record all JARs inside the WAR - even if outside WEB-INF/lib, because they may be referenced
-        // from other JARs
-        Set<String> webInfLibJars = new HashSet<>();
-        try
-        {
-            final JarURLConnection conn = (JarURLConnection) new URL( "jar:" + warUri + "!/" ).openConnection();
-            conn.setUseCaches( false );
-            jarFile = conn.getJarFile();
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while( entries.hasMoreElements() )
-            {
-                JarEntry entry = (JarEntry) entries.nextElement();
-                String name = entry.getName();
-                while( name.startsWith("/") )
-                {
-                    name = name.substring(1);
-                }
-                if( !name.endsWith( ".jar" ) )
-                {
-                    continue;
-                }
-                if ( !checkJarIsLegal(name) )
-                {
-                    continue;
-                }
-                if( name.startsWith( "WEB-INF/lib/" ) )
-                {
-                    webInfLibJars.add(name);
-                }
-            }
-        }
-        catch( ClassCastException e )
-        {
-            throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file" );
-        }
-        finally
-        {
-            if( jarFile != null )
-            {
-                try
-                {
-                    jarFile.close();
-                }
-                catch( IOException ignore )
-                {
-                    // ignore
-                }
-            }
-        }
-
-        // now recursively process all WEB-INF/lib/*.jar to check their Class-Path - and if there are any valid
-        // jars referenced, process them too
-        Queue<String> toProcess = new LinkedList<>();
-        Set<String> processed = new HashSet<>();
-        toProcess.addAll(webInfLibJars);
-        processed.addAll(webInfLibJars);
-        while (!toProcess.isEmpty()) {
-            String jarName = toProcess.remove();
-
-            // never starts with "/" and jarName is always relative to the root of the bundle
-            final JarURLConnection conn = (JarURLConnection) new URL("jar:" + warUri + "!/" + jarName).openConnection();
-            conn.setUseCaches(false);
-            try (JarFile jf = conn.getJarFile()) {
-                ZipEntry entry = jf.getEntry(jarName);
-                try (InputStream is = jf.getInputStream(entry)) {
-                    // existence verified
-                    list.add(jarName);
-                    JarInputStream embeddedJar = new JarInputStream(is);
-                    String cp = embeddedJar.getManifest().getMainAttributes().getValue("Class-Path");
-                    String[] cpTab = cp.split("\\s*,\\s*");
-                    Path root = Paths.get("/", jarName).getParent();
-                    for (String elem : cpTab) {
-                        if (!elem.startsWith("/")) {
-                            // relativize
-                            Path newJar = root.resolve(elem).normalize();
-                            elem = newJar.toString();
-                        }
-                        while (elem.startsWith("/")) {
-                            elem = elem.substring(1);
-                        }
-                        if (processed.add(elem)) {
-                            toProcess.add(elem);
-                        }
-                    }
-                } catch (Exception ignored) {
-                }
-            } catch (Exception ignored) {
-            }
-        }
-
-        return list;
-    }
-
     /**
      * verifies that the given jar name is not contained
      * in the blacklist.
@@ -681,18 +683,4 @@ abstract class AbstractConnection
         return buffer.toString();
     }
 
-    /**
-     * PipedInputStream implementation that keeps track of whether it has been closed or not.
-     */
-    private static final class CloseAwarePipedInputStream extends PipedInputStream
-    {
-        private boolean closed = false;
-
-        public void close() throws IOException
-        {
-            closed = true;
-            super.close();
-        }
-    }
-
 }
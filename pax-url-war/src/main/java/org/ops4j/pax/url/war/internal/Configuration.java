@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.war.internal;
 
+import java.io.File;
+
 /**
  * War protocol configuration.
  *
@@ -39,4 +41,26 @@ public interface Configuration
      * @return true if pax-logging packages should be imported
      */
     Boolean getImportPaxLoggingPackages();
+
+    /**
+     * Returns true if the bundle manifest should be calculated by analyzing classes in parallel (without bnd) when
+     * instructions allow it, false otherwise.
+     *
+     * @return true if classes should be analyzed in parallel
+     */
+    Boolean getParallelAnalysis();
+
+    /**
+     * Returns the directory where generated web bundles are cached, null if generated bundles should not be cached.
+     *
+     * @return cache directory or null
+     */
+    File getCacheDirectory();
+
+    /**
+     * Returns the maximum total size (in bytes) of cached web bundles, negative if not limited.
+     *
+     * @return maximum cache size
+     */
+    Long getCacheMaxSize();
 }
\ No newline at end of file
@@ -0,0 +1,371 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Copy of a zip file with a new manifest, where all other entries are copied as they are stored (local header,
+ * compressed data and data descriptor), without being inflated and deflated again. Only the central directory is
+ * written anew, with the new entry offsets.<br/>
+ * Only plain (not ZIP64, single disk) zip files are supported.
+ */
+final class RawZipCopy
+{
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    /**
+     * Maximum size of end of central directory record (with comment).
+     */
+    private static final int MAX_END_SIZE = END_HEADER_SIZE + 0xffff;
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /**
+     * Zip file to copy.
+     */
+    private final File m_file;
+    /**
+     * Entries to copy, by position in zip file.
+     */
+    private final List<Entry> m_entries;
+    /**
+     * Offset of central directory (end of entries data).
+     */
+    private final long m_centralDirectoryOffset;
+
+    private RawZipCopy( final File file, final List<Entry> entries, final long centralDirectoryOffset )
+    {
+        m_file = file;
+        m_entries = entries;
+        m_centralDirectoryOffset = centralDirectoryOffset;
+    }
+
+    /**
+     * Reads the central directory of a zip file.
+     *
+     * @param file zip file
+     *
+     * @return copy or null if zip file is not supported (ZIP64, multi disk or invalid)
+     *
+     * @throws IOException - If zip file cannot be read
+     */
+    static RawZipCopy read( final File file )
+        throws IOException
+    {
+        final RandomAccessFile zip = new RandomAccessFile( file, "r" );
+        try
+        {
+            final long length = zip.length();
+            final int tailLength = (int) Math.min( length, MAX_END_SIZE );
+            final byte[] tail = new byte[tailLength];
+            zip.seek( length - tailLength );
+            zip.readFully( tail );
+            int end = tailLength - END_HEADER_SIZE;
+            while( end >= 0 && getInt( tail, end ) != END_HEADER )
+            {
+                end--;
+            }
+            if( end < 0 || getShort( tail, end + 4 ) != 0 || getShort( tail, end + 6 ) != 0 )
+            {
+                return null;
+            }
+            final int count = getShort( tail, end + 10 );
+            final long size = getUnsignedInt( tail, end + 12 );
+            final long offset = getUnsignedInt( tail, end + 16 );
+            if( count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL || offset + size > length )
+            {
+                return null;
+            }
+
+            final byte[] centralDirectory = new byte[(int) size];
+            zip.seek( offset );
+            zip.readFully( centralDirectory );
+            final List<Entry> entries = new ArrayList<Entry>( count );
+            int position = 0;
+            for( int i = 0; i < count; i++ )
+            {
+                if( position + CENTRAL_HEADER_SIZE > centralDirectory.length
+                    || getInt( centralDirectory, position ) != CENTRAL_HEADER )
+                {
+                    return null;
+                }
+                final int recordLength = CENTRAL_HEADER_SIZE
+                                         + getShort( centralDirectory, position + 28 )
+                                         + getShort( centralDirectory, position + 30 )
+                                         + getShort( centralDirectory, position + 32 );
+                if( position + recordLength > centralDirectory.length )
+                {
+                    return null;
+                }
+                final long localOffset = getUnsignedInt( centralDirectory, position + 42 );
+                if( localOffset == 0xffffffffL || getShort( centralDirectory, position + 34 ) != 0 )
+                {
+                    return null;
+                }
+                final byte[] record = new byte[recordLength];
+                System.arraycopy( centralDirectory, position, record, 0, recordLength );
+                final String name = new String(
+                    centralDirectory, position + CENTRAL_HEADER_SIZE, getShort( centralDirectory, position + 28 ),
+                    UTF_8
+                );
+                entries.add( new Entry( name, localOffset, record ) );
+                position += recordLength;
+            }
+            Collections.sort( entries, new Comparator<Entry>()
+            {
+                public int compare( final Entry entry1, final Entry entry2 )
+                {
+                    return entry1.localOffset < entry2.localOffset
+                           ? -1
+                           : entry1.localOffset == entry2.localOffset ? 0 : 1;
+                }
+            } );
+            for( int i = 0; i < entries.size(); i++ )
+            {
+                final Entry entry = entries.get( i );
+                final long next = i + 1 < entries.size() ? entries.get( i + 1 ).localOffset : offset;
+                entry.length = next - entry.localOffset;
+                if( entry.length < 0 || ( i + 1 < entries.size() && entry.length == 0 ) )
+                {
+                    // entries share data, cannot be copied one by one
+                    return null;
+                }
+            }
+            return new RawZipCopy( file, entries, offset );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Returns the names of the copied entries, that is all file (not directory) entries but the manifest.
+     *
+     * @return entry names, in zip file order
+     */
+    Set<String> getEntryNames()
+    {
+        final Set<String> names = new LinkedHashSet<String>();
+        for( Entry entry : m_entries )
+        {
+            if( !entry.name.endsWith( "/" ) && !JarFile.MANIFEST_NAME.equalsIgnoreCase( entry.name ) )
+            {
+                names.add( entry.name );
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes the copy, with the new manifest as first entry. Old manifest is left out.
+     *
+     * @param manifest new manifest content
+     * @param out      stream to write to; not closed
+     *
+     * @throws IOException - If zip file cannot be read or copy cannot be written
+     */
+    void write( final byte[] manifest, final OutputStream out )
+        throws IOException
+    {
+        final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+        long offset = writeManifest( manifest, out, centralDirectory );
+        int count = 1;
+
+        final RandomAccessFile zip = new RandomAccessFile( m_file, "r" );
+        try
+        {
+            final byte[] buffer = new byte[64 * 1024];
+            for( Entry entry : m_entries )
+            {
+                if( JarFile.MANIFEST_NAME.equalsIgnoreCase( entry.name ) )
+                {
+                    continue;
+                }
+                if( offset > 0xffffffffL || entry.localOffset + entry.length > m_centralDirectoryOffset )
+                {
+                    throw new IOException( "Zip file cannot be copied (too large)" );
+                }
+                final byte[] record = entry.record.clone();
+                putInt( record, 42, offset );
+                centralDirectory.write( record );
+                count++;
+
+                zip.seek( entry.localOffset );
+                long remaining = entry.length;
+                while( remaining > 0 )
+                {
+                    final int read = zip.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+                    if( read < 0 )
+                    {
+                        throw new IOException( "Unexpected end of zip file [" + m_file + "]" );
+                    }
+                    out.write( buffer, 0, read );
+                    remaining -= read;
+                }
+                offset += entry.length;
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        if( count > 0xffff || offset > 0xffffffffL )
+        {
+            throw new IOException( "Zip file cannot be copied (too many entries or too large)" );
+        }
+
+        centralDirectory.writeTo( out );
+        final byte[] end = new byte[END_HEADER_SIZE];
+        putInt( end, 0, END_HEADER );
+        putShort( end, 8, count );
+        putShort( end, 10, count );
+        putInt( end, 12, centralDirectory.size() );
+        putInt( end, 16, offset );
+        out.write( end );
+        out.flush();
+    }
+
+    /**
+     * Writes the (deflated) manifest entry and adds its central directory record.
+     *
+     * @return length of written entry
+     */
+    private static long writeManifest( final byte[] data,
+                                       final OutputStream out,
+                                       final ByteArrayOutputStream centralDirectory )
+        throws IOException
+    {
+        final CRC32 crc = new CRC32();
+        crc.update( data );
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final DeflaterOutputStream deflater = new DeflaterOutputStream(
+            compressed, new Deflater( Deflater.DEFAULT_COMPRESSION, true )
+        );
+        deflater.write( data );
+        deflater.close();
+
+        final byte[] name = JarFile.MANIFEST_NAME.getBytes( UTF_8 );
+        final int time = dosTime( System.currentTimeMillis() );
+
+        final byte[] local = new byte[30];
+        putInt( local, 0, LOCAL_HEADER );
+        putShort( local, 4, 20 );
+        putShort( local, 8, 8 );
+        putInt( local, 10, time );
+        putInt( local, 14, crc.getValue() );
+        putInt( local, 18, compressed.size() );
+        putInt( local, 22, data.length );
+        putShort( local, 26, name.length );
+        out.write( local );
+        out.write( name );
+        compressed.writeTo( out );
+
+        final byte[] central = new byte[CENTRAL_HEADER_SIZE];
+        putInt( central, 0, CENTRAL_HEADER );
+        putShort( central, 4, 20 );
+        putShort( central, 6, 20 );
+        putShort( central, 10, 8 );
+        putInt( central, 12, time );
+        putInt( central, 16, crc.getValue() );
+        putInt( central, 20, compressed.size() );
+        putInt( central, 24, data.length );
+        putShort( central, 28, name.length );
+        centralDirectory.write( central );
+        centralDirectory.write( name );
+
+        return local.length + name.length + compressed.size();
+    }
+
+    /**
+     * Converts a time to MS-DOS date (high word) and time (low word).
+     */
+    @SuppressWarnings( "deprecation" )
+    private static int dosTime( final long time )
+    {
+        final java.util.Date date = new java.util.Date( time );
+        final int year = Math.max( 1980, date.getYear() + 1900 );
+        return ( year - 1980 ) << 25 | ( date.getMonth() + 1 ) << 21 | date.getDate() << 16
+               | date.getHours() << 11 | date.getMinutes() << 5 | date.getSeconds() >> 1;
+    }
+
+    private static int getShort( final byte[] bytes, final int offset )
+    {
+        return ( bytes[ offset ] & 0xff ) | ( bytes[ offset + 1 ] & 0xff ) << 8;
+    }
+
+    private static int getInt( final byte[] bytes, final int offset )
+    {
+        return getShort( bytes, offset ) | getShort( bytes, offset + 2 ) << 16;
+    }
+
+    private static long getUnsignedInt( final byte[] bytes, final int offset )
+    {
+        return getInt( bytes, offset ) & 0xffffffffL;
+    }
+
+    private static void putShort( final byte[] bytes, final int offset, final int value )
+    {
+        bytes[ offset ] = (byte) value;
+        bytes[ offset + 1 ] = (byte) ( value >> 8 );
+    }
+
+    private static void putInt( final byte[] bytes, final int offset, final long value )
+    {
+        putShort( bytes, offset, (int) value );
+        putShort( bytes, offset + 2, (int) ( value >> 16 ) );
+    }
+
+    /**
+     * Zip entry, as stored.
+     */
+    private static final class Entry
+    {
+
+        final String name;
+        final long localOffset;
+        final byte[] record;
+        long length;
+
+        Entry( final String name, final long localOffset, final byte[] record )
+        {
+            this.name = name;
+            this.localOffset = localOffset;
+            this.record = record;
+        }
+
+    }
+
+}
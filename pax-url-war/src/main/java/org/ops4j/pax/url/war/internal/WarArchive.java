@@ -0,0 +1,560 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.ops4j.net.URLUtils;
+import org.ops4j.pax.url.commons.concurrent.ThreadPools;
+
+/**
+ * A war file opened once for all the processing of a war: url. The war is fetched locally only once (local files are
+ * used in place) and its entries are looked up via the zip central directory, so the war is not read again to find
+ * lib jars, their Class-Path headers or the web descriptors.
+ */
+class WarArchive
+    implements Closeable
+{
+
+    /**
+     * Threads reading manifests of embedded jars.
+     */
+    private static final ExecutorService READERS = ThreadPools.newPool(
+        "pax-url-war-reader", Runtime.getRuntime().availableProcessors()
+    );
+
+    /**
+     * Local war file.
+     */
+    private final File m_file;
+    /**
+     * True if the war file was downloaded and has to be deleted on close.
+     */
+    private final boolean m_temporary;
+    /**
+     * Indexed war entries.
+     */
+    private final ZipFile m_zipFile;
+    /**
+     * Streams of the whole war opened so far.
+     */
+    private final List<InputStream> m_streams;
+    /**
+     * Number of users of the war; the war is released when the last one closes it.
+     */
+    private int m_references;
+
+    private WarArchive( final File file, final boolean temporary )
+        throws IOException
+    {
+        m_file = file;
+        m_temporary = temporary;
+        m_zipFile = new ZipFile( file );
+        m_streams = new ArrayList<InputStream>();
+        m_references = 1;
+    }
+
+    /**
+     * Opens a war, downloading it to a temporary file if it is not a local file.
+     *
+     * @param warUri             war file uri
+     * @param ignoreCertificates true if certificates should not be checked on SSL connection
+     *
+     * @return opened war
+     *
+     * @throws IOException - If war cannot be fetched or is not a valid zip file
+     */
+    static WarArchive open( final String warUri, final boolean ignoreCertificates )
+        throws IOException
+    {
+        final URL url = new URL( warUri );
+        final File local = toLocalFile( url );
+        File file = local;
+        if( file == null )
+        {
+            file = File.createTempFile( "pax-url-war", ".war" );
+            try
+            {
+                final InputStream in = URLUtils.prepareInputStream( url, ignoreCertificates );
+                try
+                {
+                    Files.copy( in, file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch( IOException e )
+            {
+                file.delete();
+                throw e;
+            }
+        }
+        try
+        {
+            return new WarArchive( file, local == null );
+        }
+        catch( ZipException e )
+        {
+            if( local == null )
+            {
+                file.delete();
+            }
+            throw new IOException( "Provided url [" + warUri + "] does not refer a valid war file", e );
+        }
+    }
+
+    /**
+     * Returns the jars under WEB-INF/lib (that are legal within a web context), followed by the jars (recursively)
+     * referenced by their Class-Path manifest headers, if present in the war. Manifests of the jars at the same depth
+     * are read in parallel, each one by a (random access) read of the war up to the manifest.
+     *
+     * @return jar entry names, relative to war root
+     *
+     * @throws IOException - If interrupted while waiting for manifests to be read
+     * @see AbstractConnection#checkJarIsLegal(String)
+     */
+    List<String> getLibJars()
+        throws IOException
+    {
+        final Set<String> webInfLibJars = getWebInfLibJars();
+
+        // now process all of them to check their Class-Path - and if there are any jars of the war referenced,
+        // process them too (breadth first, in order)
+        final List<String> list = new ArrayList<String>();
+        final Set<String> processed = new HashSet<String>( webInfLibJars );
+        List<String> toProcess = new ArrayList<String>( webInfLibJars );
+        while( !toProcess.isEmpty() )
+        {
+            final List<String> jarNames = new ArrayList<String>();
+            final List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+            for( final String jarName : toProcess )
+            {
+                final ZipEntry entry = m_zipFile.getEntry( jarName );
+                if( entry != null )
+                {
+                    jarNames.add( jarName );
+                    tasks.add( new Callable<List<String>>()
+                    {
+                        public List<String> call()
+                        {
+                            return getClassPath( jarName, entry );
+                        }
+                    } );
+                }
+            }
+            list.addAll( jarNames );
+            toProcess = new ArrayList<String>();
+            for( List<String> classPath : ThreadPools.invokeAll( READERS, tasks, 2, "Embedded jars cannot be read" ) )
+            {
+                for( String element : classPath )
+                {
+                    if( processed.add( element ) )
+                    {
+                        toProcess.add( element );
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the jars under WEB-INF/lib that are legal within a web context.
+     *
+     * @return jar entry names, relative to war root, in war order
+     *
+     * @see AbstractConnection#checkJarIsLegal(String)
+     */
+    Set<String> getWebInfLibJars()
+    {
+        final Set<String> webInfLibJars = new LinkedHashSet<String>();
+        final Enumeration<? extends ZipEntry> entries = m_zipFile.entries();
+        while( entries.hasMoreElements() )
+        {
+            String name = entries.nextElement().getName();
+            while( name.startsWith( "/" ) )
+            {
+                name = name.substring( 1 );
+            }
+            if( name.startsWith( "WEB-INF/lib/" ) && name.endsWith( ".jar" )
+                && AbstractConnection.checkJarIsLegal( name ) )
+            {
+                webInfLibJars.add( name );
+            }
+        }
+        return webInfLibJars;
+    }
+
+    /**
+     * Returns the Class-Path header entries of an embedded jar, resolved against the jar location.
+     */
+    private List<String> getClassPath( final String jarName, final ZipEntry entry )
+    {
+        final List<String> classPath = new ArrayList<String>();
+        try
+        {
+            final JarInputStream embeddedJar = new JarInputStream( m_zipFile.getInputStream( entry ) );
+            try
+            {
+                final Manifest manifest = embeddedJar.getManifest();
+                final String value = manifest == null ? null : manifest.getMainAttributes().getValue( "Class-Path" );
+                if( value == null || value.trim().length() == 0 )
+                {
+                    return classPath;
+                }
+                final Path root = Paths.get( "/", jarName ).getParent();
+                for( String element : value.trim().split( "[\\s,]+" ) )
+                {
+                    if( !element.startsWith( "/" ) )
+                    {
+                        // relativize
+                        element = root.resolve( element ).normalize().toString();
+                    }
+                    while( element.startsWith( "/" ) )
+                    {
+                        element = element.substring( 1 );
+                    }
+                    classPath.add( element );
+                }
+            }
+            finally
+            {
+                embeddedJar.close();
+            }
+        }
+        catch( Exception ignore )
+        {
+            // not a valid jar or class path, so no referenced jars
+        }
+        return classPath;
+    }
+
+    /**
+     * Returns the content of a war entry.
+     *
+     * @param name entry name
+     *
+     * @return entry content or null if war has no such entry
+     *
+     * @throws IOException - If entry cannot be read
+     */
+    InputStream getEntry( final String name )
+        throws IOException
+    {
+        final ZipEntry entry = m_zipFile.getEntry( name );
+        return entry == null ? null : m_zipFile.getInputStream( entry );
+    }
+
+    /**
+     * Returns the content of a war entry, whose name may differ in case (as "WEB-INF/WEB.XML"). An entry with the
+     * exact name is looked up first, then the first entry whose name matches ignoring case.
+     *
+     * @param name entry name
+     *
+     * @return entry content or null if war has no such entry
+     *
+     * @throws IOException - If entry cannot be read
+     */
+    InputStream getEntryIgnoreCase( final String name )
+        throws IOException
+    {
+        ZipEntry entry = m_zipFile.getEntry( name );
+        final Enumeration<? extends ZipEntry> entries = m_zipFile.entries();
+        while( entry == null && entries.hasMoreElements() )
+        {
+            final ZipEntry candidate = entries.nextElement();
+            if( name.equalsIgnoreCase( candidate.getName() ) )
+            {
+                entry = candidate;
+            }
+        }
+        return entry == null ? null : m_zipFile.getInputStream( entry );
+    }
+
+    /**
+     * Returns the war manifest, found via the zip central directory wherever it is stored in the war.
+     *
+     * @return war manifest or null if war has no manifest
+     *
+     * @throws IOException - If manifest cannot be read
+     */
+    Manifest getManifest()
+        throws IOException
+    {
+        final InputStream manifest = getEntry( JarFile.MANIFEST_NAME );
+        if( manifest == null )
+        {
+            return null;
+        }
+        try
+        {
+            return new Manifest( manifest );
+        }
+        finally
+        {
+            manifest.close();
+        }
+    }
+
+    /**
+     * Checks if the war is signed, that is has signature files under META-INF.
+     *
+     * @return true if war is signed
+     */
+    boolean isSigned()
+    {
+        final Enumeration<? extends ZipEntry> entries = m_zipFile.entries();
+        while( entries.hasMoreElements() )
+        {
+            final String name = entries.nextElement().getName().toUpperCase( Locale.ENGLISH );
+            if( name.startsWith( "META-INF/" ) && name.indexOf( '/', "META-INF/".length() ) < 0
+                && name.endsWith( ".SF" ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the indexed war entries, valid till the war is released.
+     *
+     * @return war zip file
+     */
+    ZipFile getZipFile()
+    {
+        return m_zipFile;
+    }
+
+    /**
+     * Returns the local war file.
+     *
+     * @return war file
+     */
+    File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Checks if the war was downloaded to a temporary file, deleted when the war is closed.
+     *
+     * @return true if war file is temporary
+     */
+    boolean isTemporary()
+    {
+        return m_temporary;
+    }
+
+    /**
+     * Returns the content of an entry of an embedded jar. The embedded jar is read sequentially up to the entry.
+     *
+     * @param jarName   embedded jar entry name
+     * @param entryName name of the entry in the embedded jar
+     *
+     * @return entry content (closing it closes the embedded jar) or null if there is no such embedded jar or entry
+     *
+     * @throws IOException - If embedded jar cannot be read
+     */
+    InputStream getEmbeddedEntry( final String jarName, final String entryName )
+        throws IOException
+    {
+        final InputStream jar = getEntry( jarName );
+        if( jar == null )
+        {
+            return null;
+        }
+        final ZipInputStream embeddedJar = new ZipInputStream( jar );
+        try
+        {
+            ZipEntry entry;
+            while( ( entry = embeddedJar.getNextEntry() ) != null )
+            {
+                if( entryName.equals( entry.getName() ) )
+                {
+                    return embeddedJar;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            embeddedJar.close();
+            throw e;
+        }
+        embeddedJar.close();
+        return null;
+    }
+
+    /**
+     * Returns a stream of the whole war, closed together with the war.
+     *
+     * @return war content
+     *
+     * @throws IOException - If war file cannot be opened
+     */
+    InputStream openStream()
+        throws IOException
+    {
+        final InputStream stream = new BufferedInputStream( new FileInputStream( m_file ) );
+        m_streams.add( stream );
+        return stream;
+    }
+
+    /**
+     * Returns a stream of the whole war that stays readable after the war is closed. The war is released when both
+     * the war and the stream are closed.
+     *
+     * @return war content
+     *
+     * @throws IOException - If war file cannot be opened
+     */
+    InputStream openDetachedStream()
+        throws IOException
+    {
+        retain();
+        final InputStream stream;
+        try
+        {
+            stream = new FileInputStream( m_file );
+        }
+        catch( IOException e )
+        {
+            close();
+            throw e;
+        }
+        return new FilterInputStream( stream )
+        {
+            private boolean m_closed;
+
+            @Override
+            public void close()
+                throws IOException
+            {
+                if( m_closed )
+                {
+                    return;
+                }
+                m_closed = true;
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    WarArchive.this.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Registers one more user of the war, that has to close the war too. Used when the war file is still read after
+     * the processing returned (by the bundle writer).
+     *
+     * @return this war
+     */
+    synchronized WarArchive retain()
+    {
+        m_references++;
+        return this;
+    }
+
+    /**
+     * Closes the war for one user. When the last user closes it the war is released, deleting it if it was
+     * downloaded.
+     *
+     * @throws IOException - If war cannot be closed
+     */
+    public synchronized void close()
+        throws IOException
+    {
+        if( --m_references > 0 )
+        {
+            return;
+        }
+        try
+        {
+            for( InputStream stream : m_streams )
+            {
+                stream.close();
+            }
+            m_zipFile.close();
+        }
+        finally
+        {
+            if( m_temporary )
+            {
+                m_file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the file of a file: url, null if url is not a local file.
+     */
+    private static File toLocalFile( final URL url )
+    {
+        if( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+        File file;
+        try
+        {
+            file = new File( url.toURI() );
+        }
+        catch( URISyntaxException e )
+        {
+            file = new File( url.getPath() );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // relative file url
+            file = new File( url.getPath() );
+        }
+        return file.isFile() ? file : null;
+    }
+
+}
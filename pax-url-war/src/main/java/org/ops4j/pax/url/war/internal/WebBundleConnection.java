@@ -17,14 +17,12 @@
  */
 package org.ops4j.pax.url.war.internal;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
 import java.util.jar.Attributes;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 
 import org.ops4j.pax.swissbox.bnd.BndUtils;
@@ -48,20 +46,11 @@ public class WebBundleConnection extends WarConnection {
     @Override
     protected InputStream createBundle(InputStream inputStream, Properties instructions, String warUri) throws IOException
     {
-        BufferedInputStream bis = new BufferedInputStream(inputStream, 64 * 1024);
-        bis.mark(64 * 1024);
+        // the manifest is found via the war central directory, wherever it is stored in the war
+        Manifest man = getWarManifest();
         boolean isBundle = false;
-        try
+        if (man != null)
         {
-            JarInputStream jis = new JarInputStream( bis ) {
-            	@Override
-            	public void close() throws IOException {
-            		//DO NOTHING
-            		//this works around the "Stream closed" exception
-            		//http://bugs.sun.com/view_bug.do?bug_id=6539065
-            	}
-            };
-            Manifest man = jis.getManifest();
             Attributes mainAttributes = man.getMainAttributes();
             if (mainAttributes.getValue(Constants.BUNDLE_SYMBOLICNAME) != null
                     || mainAttributes.getValue(Constants.BUNDLE_VERSION) != null
@@ -71,22 +60,6 @@ public class WebBundleConnection extends WarConnection {
             {
                 isBundle = true;
             }
-            jis.close();
-        }
-        catch (IOException e)
-        {
-            // Ignore
-            e.printStackTrace();
-        }
-        finally
-        {
-        	if (bis.markSupported()) {
-        		try {
-        			bis.reset();
-        		} catch (IOException ignore) {
-        			//Ignore since buffer is already resetted
-        		}
-        	}
         }
         if (isBundle)
         {
@@ -102,6 +75,16 @@ public class WebBundleConnection extends WarConnection {
                         + ": " + manifestVersion);
             }
 
+            if (man.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME) != null)
+            {
+                // a bundle is returned as is, apart from the requested context path
+                InputStream bundle = copyWar(withContextPath(man, originalInstructions.getProperty("Web-ContextPath")));
+                if (bundle != null)
+                {
+                    return bundle;
+                }
+            }
+
             instructions.remove(Analyzer.IMPORT_PACKAGE);
             instructions.remove(Analyzer.EXPORT_PACKAGE);
         }
@@ -116,7 +99,28 @@ public class WebBundleConnection extends WarConnection {
 	        }
         }
         
-        return super.createBundle(bis, instructions, warUri, OverwriteMode.MERGE);
+        return super.createBundle(inputStream, instructions, warUri, OverwriteMode.MERGE);
+    }
+
+    /**
+     * Returns the manifest to use for a bundle, null if the bundle manifest does not change.
+     */
+    private static Manifest withContextPath(Manifest manifest, String contextPath)
+    {
+        if (contextPath == null)
+        {
+            return null;
+        }
+        if (!contextPath.startsWith("/"))
+        {
+            contextPath = "/" + contextPath;
+        }
+        if (contextPath.equals(manifest.getMainAttributes().getValue("Web-ContextPath")))
+        {
+            return null;
+        }
+        manifest.getMainAttributes().putValue("Web-ContextPath", contextPath);
+        return manifest;
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming scanner of web.xml and web-fragment.xml descriptors, collecting the packages of the classes they name
+ * (servlet-class, filter-class, listener-class and any other *-class element). Descriptors are never held in memory
+ * and the scanner can be used concurrently.
+ */
+final class WebXmlScanner
+{
+
+    /**
+     * Shared factory, configured once and only used to create readers. DTDs and external entities are not processed.
+     */
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Utility class.
+     */
+    private WebXmlScanner()
+    {
+        // utility class
+    }
+
+    /**
+     * Adds the packages of the classes named by a descriptor. Classes of the default package are skipped.
+     *
+     * @param descriptor descriptor content; not closed
+     * @param packages   set to add package names to
+     *
+     * @throws IOException - If descriptor cannot be read or is not well formed
+     */
+    static void scan( final InputStream descriptor, final Set<String> packages )
+        throws IOException
+    {
+        try
+        {
+            final XMLStreamReader reader = FACTORY.createXMLStreamReader( descriptor );
+            try
+            {
+                StringBuilder className = null;
+                int depth = 0;
+                int classDepth = 0;
+                while( reader.hasNext() )
+                {
+                    switch( reader.next() )
+                    {
+                        case XMLStreamConstants.START_ELEMENT:
+                            depth++;
+                            if( className == null && reader.getLocalName().contains( "-class" ) )
+                            {
+                                className = new StringBuilder();
+                                classDepth = depth;
+                            }
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            if( className != null )
+                            {
+                                className.append( reader.getText() );
+                            }
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            if( className != null && depth == classDepth )
+                            {
+                                addPackage( className.toString().trim(), packages );
+                                className = null;
+                            }
+                            depth--;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch( XMLStreamException e )
+        {
+            throw new IOException( "Invalid web descriptor", e );
+        }
+    }
+
+    private static void addPackage( final String className, final Set<String> packages )
+    {
+        final int lastDot = className.lastIndexOf( '.' );
+        if( lastDot > 0 )
+        {
+            packages.add( className.substring( 0, lastDot ).trim() );
+        }
+    }
+
+    private static XMLInputFactory createFactory()
+    {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, true );
+        factory.setProperty( XMLInputFactory.IS_VALIDATING, false );
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, true );
+        return factory;
+    }
+
+}
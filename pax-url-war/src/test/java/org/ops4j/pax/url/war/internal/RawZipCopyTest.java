@@ -0,0 +1,186 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link RawZipCopy}.
+ */
+public class RawZipCopyTest
+{
+
+    private final List<File> m_files = new ArrayList<File>();
+
+    @After
+    public void tearDown()
+    {
+        for( File file : m_files )
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void entriesAreCopiedWithNewManifest()
+        throws IOException
+    {
+        final byte[] text = "<web-app/>".getBytes( "UTF-8" );
+        final byte[] binary = new byte[100000];
+        for( int i = 0; i < binary.length; i++ )
+        {
+            binary[ i ] = (byte) ( i * 31 % 7 );
+        }
+        final File war = createTempFile( ".war" );
+        final Manifest oldManifest = new Manifest();
+        oldManifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        oldManifest.getMainAttributes().putValue( "Old", "old" );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( war ), oldManifest );
+        try
+        {
+            out.putNextEntry( new ZipEntry( "WEB-INF/" ) );
+            out.closeEntry();
+            out.putNextEntry( new ZipEntry( "WEB-INF/web.xml" ) );
+            out.write( text );
+            out.closeEntry();
+            final ZipEntry stored = new ZipEntry( "WEB-INF/lib/a.jar" );
+            stored.setMethod( ZipEntry.STORED );
+            stored.setSize( binary.length );
+            final CRC32 crc = new CRC32();
+            crc.update( binary );
+            stored.setCrc( crc.getValue() );
+            out.putNextEntry( stored );
+            out.write( binary );
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        final RawZipCopy copy = RawZipCopy.read( war );
+        assertEquals(
+            Arrays.asList( "WEB-INF/web.xml", "WEB-INF/lib/a.jar" ),
+            Arrays.asList( copy.getEntryNames().toArray() )
+        );
+
+        final Manifest newManifest = new Manifest();
+        newManifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        newManifest.getMainAttributes().putValue( "Bundle-SymbolicName", "war" );
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        newManifest.write( manifest );
+        final File bundle = createTempFile( ".jar" );
+        final FileOutputStream bundleOut = new FileOutputStream( bundle );
+        try
+        {
+            copy.write( manifest.toByteArray(), bundleOut );
+        }
+        finally
+        {
+            bundleOut.close();
+        }
+
+        final JarInputStream jar = new JarInputStream( new FileInputStream( bundle ) );
+        try
+        {
+            assertEquals( "war", jar.getManifest().getMainAttributes().getValue( "Bundle-SymbolicName" ) );
+            assertNull( jar.getManifest().getMainAttributes().getValue( "Old" ) );
+            assertEquals( "WEB-INF/", jar.getNextEntry().getName() );
+        }
+        finally
+        {
+            jar.close();
+        }
+        final ZipFile zip = new ZipFile( bundle );
+        try
+        {
+            assertEquals( 4, zip.size() );
+            assertArrayEquals( text, read( zip.getInputStream( zip.getEntry( "WEB-INF/web.xml" ) ) ) );
+            assertArrayEquals( binary, read( zip.getInputStream( zip.getEntry( "WEB-INF/lib/a.jar" ) ) ) );
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void invalidZipIsNotSupported()
+        throws IOException
+    {
+        final File file = createTempFile( ".war" );
+        final FileOutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( "not a war".getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+        assertNull( RawZipCopy.read( file ) );
+    }
+
+    private File createTempFile( final String suffix )
+        throws IOException
+    {
+        final File file = File.createTempFile( "raw", suffix, new File( "target" ) );
+        m_files.add( file );
+        return file;
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) >= 0 )
+            {
+                content.write( buffer, 0, read );
+            }
+            return content.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
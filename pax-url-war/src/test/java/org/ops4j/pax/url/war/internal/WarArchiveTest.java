@@ -0,0 +1,172 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Scanner;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link WarArchive}.
+ */
+public class WarArchiveTest
+{
+
+    private File m_war;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        m_war = File.createTempFile( "archive", ".war", new File( "target" ) );
+    }
+
+    @After
+    public void tearDown()
+    {
+        m_war.delete();
+    }
+
+    @Test
+    public void libJarsAndReferencedJarsAreListed()
+        throws IOException
+    {
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( m_war ) );
+        try
+        {
+            add( out, "WEB-INF/web.xml", "<web-app/>".getBytes( "UTF-8" ) );
+            add( out, "WEB-INF/lib/a.jar", jar( "../ext/b.jar c.jar missing.jar" ) );
+            add( out, "WEB-INF/lib/c.jar", jar( null, "META-INF/web-fragment.xml" ) );
+            add( out, "WEB-INF/lib/servlet-api.jar", jar( null ) );
+            add( out, "WEB-INF/ext/b.jar", jar( null ) );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        final WarArchive archive = WarArchive.open( m_war.toURI().toURL().toExternalForm(), false );
+        try
+        {
+            assertEquals(
+                Arrays.asList( "WEB-INF/lib/a.jar", "WEB-INF/lib/c.jar", "WEB-INF/ext/b.jar" ),
+                archive.getLibJars()
+            );
+            final InputStream webXml = archive.getEntry( "WEB-INF/web.xml" );
+            assertNotNull( webXml );
+            webXml.close();
+            assertNull( archive.getEntry( "WEB-INF/missing.xml" ) );
+            final InputStream webFragment = archive.getEmbeddedEntry(
+                "WEB-INF/lib/c.jar", "META-INF/web-fragment.xml"
+            );
+            assertEquals( "<web-fragment/>", new Scanner( webFragment, "UTF-8" ).useDelimiter( "\\A" ).next() );
+            webFragment.close();
+            assertNull( archive.getEmbeddedEntry( "WEB-INF/lib/a.jar", "META-INF/web-fragment.xml" ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void entryIsFoundIgnoringCase()
+        throws IOException
+    {
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( m_war ) );
+        try
+        {
+            add( out, "WEB-INF/WEB.XML", "<web-app/>".getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        final WarArchive archive = WarArchive.open( m_war.toURI().toURL().toExternalForm(), false );
+        try
+        {
+            assertNull( archive.getEntry( "WEB-INF/web.xml" ) );
+            final InputStream webXml = archive.getEntryIgnoreCase( "WEB-INF/web.xml" );
+            assertEquals( "<web-app/>", new Scanner( webXml, "UTF-8" ).useDelimiter( "\\A" ).next() );
+            webXml.close();
+            assertNull( archive.getEntryIgnoreCase( "WEB-INF/missing.xml" ) );
+        }
+        finally
+        {
+            archive.close();
+        }
+    }
+
+    @Test( expected = IOException.class )
+    public void invalidWarIsRejected()
+        throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream( m_war );
+        try
+        {
+            out.write( "not a war".getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            out.close();
+        }
+        WarArchive.open( m_war.toURI().toURL().toExternalForm(), false );
+    }
+
+    private static void add( final JarOutputStream out, final String name, final byte[] content )
+        throws IOException
+    {
+        out.putNextEntry( new ZipEntry( name ) );
+        out.write( content );
+        out.closeEntry();
+    }
+
+    private static byte[] jar( final String classPath, final String... entries )
+        throws IOException
+    {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        if( classPath != null )
+        {
+            manifest.getMainAttributes().putValue( "Class-Path", classPath );
+        }
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final JarOutputStream out = new JarOutputStream( content, manifest );
+        for( String entry : entries )
+        {
+            add( out, entry, "<web-fragment/>".getBytes( "UTF-8" ) );
+        }
+        out.close();
+        return content.toByteArray();
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Unit tests for {@link WebBundleConnection}.
+ */
+public class WebBundleConnectionTest
+{
+
+    private File m_war;
+    private File m_bundle;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        // large manifest, not stored first, so it cannot be found by reading the beginning of the war
+        final StringBuilder description = new StringBuilder();
+        while( description.length() < 100000 )
+        {
+            description.append( "web application bundle " );
+        }
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().putValue( "Bundle-ManifestVersion", "2" );
+        manifest.getMainAttributes().putValue( "Bundle-SymbolicName", "wab" );
+        manifest.getMainAttributes().putValue( "Bundle-Description", description.toString() );
+        manifest.getMainAttributes().putValue( "Web-ContextPath", "/wab" );
+        m_war = File.createTempFile( "wab", ".war", new File( "target" ) );
+        m_bundle = File.createTempFile( "wab", ".jar", new File( "target" ) );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( m_war ) );
+        try
+        {
+            out.putNextEntry( new ZipEntry( "WEB-INF/web.xml" ) );
+            out.write( "<web-app/>".getBytes( "UTF-8" ) );
+            out.closeEntry();
+            out.putNextEntry( new ZipEntry( "META-INF/MANIFEST.MF" ) );
+            manifest.write( out );
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown()
+    {
+        m_war.delete();
+        m_bundle.delete();
+    }
+
+    @Test
+    public void bundleIsReturnedAsIs()
+        throws IOException
+    {
+        assertArrayEquals( Files.readAllBytes( m_war.toPath() ), read( open( "" ) ) );
+        assertArrayEquals( Files.readAllBytes( m_war.toPath() ), read( open( "?Web-ContextPath=wab" ) ) );
+    }
+
+    @Test
+    public void contextPathOfBundleIsSet()
+        throws IOException
+    {
+        final FileOutputStream out = new FileOutputStream( m_bundle );
+        try
+        {
+            out.write( read( open( "?Web-ContextPath=other" ) ) );
+        }
+        finally
+        {
+            out.close();
+        }
+        final JarFile jar = new JarFile( m_bundle );
+        try
+        {
+            final Attributes attributes = jar.getManifest().getMainAttributes();
+            assertEquals( "/other", attributes.getValue( "Web-ContextPath" ) );
+            assertEquals( "wab", attributes.getValue( "Bundle-SymbolicName" ) );
+            assertNotNull( jar.getEntry( "WEB-INF/web.xml" ) );
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+    private InputStream open( final String query )
+        throws IOException
+    {
+        final Configuration configuration = new Configuration()
+        {
+            public Boolean getCertificateCheck()
+            {
+                return false;
+            }
+
+            public Boolean getImportPaxLoggingPackages()
+            {
+                return false;
+            }
+
+            public Boolean getParallelAnalysis()
+            {
+                return false;
+            }
+
+            public File getCacheDirectory()
+            {
+                return null;
+            }
+
+            public Long getCacheMaxSize()
+            {
+                return -1L;
+            }
+        };
+        final URL url = new URL( "webbundle", null, -1, m_war.toURI() + query, new URLStreamHandler()
+        {
+            protected URLConnection openConnection( final URL u )
+            {
+                return null;
+            }
+        }
+        );
+        return new WebBundleConnection( url, configuration ).getInputStream();
+    }
+
+    private static byte[] read( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while( ( read = in.read( buffer ) ) >= 0 )
+            {
+                content.write( buffer, 0, read );
+            }
+            return content.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
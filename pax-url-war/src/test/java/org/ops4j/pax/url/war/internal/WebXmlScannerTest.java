@@ -0,0 +1,66 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.war.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link WebXmlScanner}.
+ */
+public class WebXmlScannerTest
+{
+
+    @Test
+    public void packagesOfNamedClassesAreCollected()
+        throws IOException
+    {
+        final Set<String> packages = scan( "<?xml version=\"1.0\"?>"
+                                           + "<!DOCTYPE web-app PUBLIC \"-//Sun Microsystems, Inc.//DTD Web Application 2.3//EN\""
+                                           + " \"http://java.sun.com/dtd/web-app_2_3.dtd\">"
+                                           + "<web-app xmlns:j=\"http://java.sun.com/xml/ns/javaee\">"
+                                           + "<servlet><j:servlet-class>\n  com.acme.web.MyServlet\n</j:servlet-class></servlet>"
+                                           + "<filter><filter-class><![CDATA[org.acme.filter.MyFilter]]></filter-class></filter>"
+                                           + "<listener><listener-class>com.acme.web.MyListener</listener-class></listener>"
+                                           + "<listener><listener-class>DefaultPackageListener</listener-class></listener>"
+                                           + "</web-app>"
+        );
+
+        assertEquals( Arrays.asList( "com.acme.web", "org.acme.filter" ), Arrays.asList( packages.toArray() ) );
+    }
+
+    @Test( expected = IOException.class )
+    public void malformedDescriptorIsRejected()
+        throws IOException
+    {
+        scan( "<web-app><servlet-class>com.acme.MyServlet</web-app>" );
+    }
+
+    private static Set<String> scan( final String descriptor )
+        throws IOException
+    {
+        final Set<String> packages = new LinkedHashSet<String>();
+        WebXmlScanner.scan( new ByteArrayInputStream( descriptor.getBytes( "UTF-8" ) ), packages );
+        return packages;
+    }
+
+}
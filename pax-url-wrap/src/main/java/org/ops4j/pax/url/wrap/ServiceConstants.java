@@ -34,6 +34,24 @@ public interface ServiceConstants
      * Certificate check configuration property name.
      */
     static final String PROPERTY_CERTIFICATE_CHECK = PID + ".certificateCheck";
+    /**
+     * Directory where generated bundles are cached configuration property name. Caching is disabled if not set.
+     */
+    static final String PROPERTY_CACHE_DIRECTORY = PID + ".cacheDirectory";
+    /**
+     * Maximum total size (in bytes) of cached bundles configuration property name. When exceeded, least recently
+     * used bundles are deleted from cache directory. Negative value means that the size of cache is not limited.
+     */
+    static final String PROPERTY_CACHE_MAX_SIZE = PID + ".cacheMaxSize";
+    /**
+     * Default maximum size of cached bundles (512 MiB).
+     */
+    static final long DEFAULT_CACHE_MAX_SIZE = 512L * 1024 * 1024;
+    /**
+     * Parallel analysis configuration property name. If true, bundle manifest is calculated by analyzing classes in
+     * parallel, without bnd, when the instructions are simple enough.
+     */
+    static final String PROPERTY_PARALLEL_ANALYSIS = PID + ".parallelAnalysis";
     /**
      * The protocol name.
      */
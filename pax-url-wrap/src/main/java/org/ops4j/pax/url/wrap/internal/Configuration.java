@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
+
 /**
  * Handler configuration.
  *
@@ -33,4 +35,26 @@ public interface Configuration
      */
     Boolean getCertificateCheck();
 
+    /**
+     * Returns the directory where generated bundles are cached, null if generated bundles should not be cached.
+     *
+     * @return cache directory or null
+     */
+    File getCacheDirectory();
+
+    /**
+     * Returns the maximum total size (in bytes) of cached bundles, negative if not limited.
+     *
+     * @return maximum cache size
+     */
+    Long getCacheMaxSize();
+
+    /**
+     * Returns true if the bundle manifest should be calculated by analyzing classes in parallel (without bnd) when
+     * instructions allow it, false otherwise.
+     *
+     * @return true if classes should be analyzed in parallel
+     */
+    Boolean getParallelAnalysis();
+
 }
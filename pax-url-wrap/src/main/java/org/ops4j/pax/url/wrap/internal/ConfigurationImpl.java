@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
+
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.url.wrap.ServiceConstants;
 import org.ops4j.util.property.PropertyResolver;
@@ -64,4 +66,60 @@ public class ConfigurationImpl
         return get( ServiceConstants.PROPERTY_CERTIFICATE_CHECK );
     }
 
+    /**
+     * @see Configuration#getCacheDirectory()
+     */
+    public File getCacheDirectory()
+    {
+        if( !contains( ServiceConstants.PROPERTY_CACHE_DIRECTORY ) )
+        {
+            final String cacheDirectory = m_propertyResolver.get( ServiceConstants.PROPERTY_CACHE_DIRECTORY );
+            return set( ServiceConstants.PROPERTY_CACHE_DIRECTORY,
+                        cacheDirectory == null || cacheDirectory.trim().length() == 0
+                        ? null
+                        : new File( cacheDirectory.trim() )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_CACHE_DIRECTORY );
+    }
+
+    /**
+     * @see Configuration#getCacheMaxSize()
+     */
+    public Long getCacheMaxSize()
+    {
+        if( !contains( ServiceConstants.PROPERTY_CACHE_MAX_SIZE ) )
+        {
+            final String cacheMaxSize = m_propertyResolver.get( ServiceConstants.PROPERTY_CACHE_MAX_SIZE );
+            long maxSize = ServiceConstants.DEFAULT_CACHE_MAX_SIZE;
+            if( cacheMaxSize != null && cacheMaxSize.trim().length() > 0 )
+            {
+                try
+                {
+                    maxSize = Long.parseLong( cacheMaxSize.trim() );
+                }
+                catch( NumberFormatException ignore )
+                {
+                    // default
+                }
+            }
+            return set( ServiceConstants.PROPERTY_CACHE_MAX_SIZE, maxSize );
+        }
+        return get( ServiceConstants.PROPERTY_CACHE_MAX_SIZE );
+    }
+
+    /**
+     * @see Configuration#getParallelAnalysis()
+     */
+    public Boolean getParallelAnalysis()
+    {
+        if( !contains( ServiceConstants.PROPERTY_PARALLEL_ANALYSIS ) )
+        {
+            return set( ServiceConstants.PROPERTY_PARALLEL_ANALYSIS,
+                        Boolean.valueOf( m_propertyResolver.get( ServiceConstants.PROPERTY_PARALLEL_ANALYSIS ) )
+            );
+        }
+        return get( ServiceConstants.PROPERTY_PARALLEL_ANALYSIS );
+    }
+
 }
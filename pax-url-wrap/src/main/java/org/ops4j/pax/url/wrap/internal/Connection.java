@@ -18,15 +18,24 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Properties;
+import aQute.bnd.osgi.About;
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.net.URLUtils;
+import org.ops4j.pax.url.commons.analysis.ParallelAnalyzer;
+import org.ops4j.pax.url.commons.cache.BundleCache;
+import org.ops4j.pax.url.wrap.ServiceConstants;
 import org.ops4j.pax.swissbox.bnd.BndUtils;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
 
 /**
  * Url connection for wrap protocol handler.
@@ -68,7 +77,9 @@ public class Connection
     }
 
     /**
-     * Returns an input stream for the bundle created from the jar.
+     * Returns an input stream for the bundle created from the jar. If a cache directory is configured, the bundle is
+     * served from the cache, being created only if wrapped jar or instructions changed. A jar that is already a bundle
+     * and should be kept as it is (overwrite mode KEEP) is streamed through unchanged, reading only its manifest.
      *
      * @return the input stream for the bundle created from the jar
      *
@@ -80,15 +91,166 @@ public class Connection
         throws IOException
     {
         connect();
-        return BndUtils.createBundle(
-            URLUtils.prepareInputStream(
-                m_parser.getWrappedJarURL(),
-                !m_configuration.getCertificateCheck()
-            ),
-            m_parser.getWrappingProperties(),
-            url.toExternalForm(),
-            m_parser.getOverwriteMode()
+        final URL wrappedJarURL = m_parser.getWrappedJarURL();
+        final OverwriteMode overwriteMode = m_parser.getOverwriteMode();
+        final File cacheDirectory = m_configuration.getCacheDirectory();
+        if( cacheDirectory != null )
+        {
+            return getCachedInputStream(
+                BundleCache.getInstance( cacheDirectory, ServiceConstants.PROTOCOL, m_configuration.getCacheMaxSize() ),
+                wrappedJarURL,
+                overwriteMode
+            );
+        }
+        if( overwriteMode != OverwriteMode.KEEP )
+        {
+            // jar has to be analyzed anyway
+            return createBundle( URLUtils.prepareInputStream( wrappedJarURL, !m_configuration.getCertificateCheck() ) );
+        }
+        final File localJar = WrappedJars.toLocalFile( wrappedJarURL );
+        if( localJar != null )
+        {
+            if( WrappedJars.isPassThrough( localJar, overwriteMode ) )
+            {
+                return new BufferedInputStream( new FileInputStream( localJar ) );
+            }
+            return createBundle( new FileInputStream( localJar ) );
+        }
+        final File downloadedJar = WrappedJars.download(
+            URLUtils.prepareInputStream( wrappedJarURL, !m_configuration.getCertificateCheck() )
         );
+        if( WrappedJars.isPassThrough( downloadedJar, overwriteMode ) )
+        {
+            return WrappedJars.openDeleteOnClose( downloadedJar );
+        }
+        try
+        {
+            // bnd reads the whole jar before returning
+            return createBundle( new FileInputStream( downloadedJar ) );
+        }
+        finally
+        {
+            downloadedJar.delete();
+        }
+    }
+
+    /**
+     * Returns an input stream for the bundle created from the jar, served from the cache. A jar that is already a
+     * bundle and should be kept as it is (overwrite mode KEEP) is not cached.
+     *
+     * @param cache         bundle cache
+     * @param wrappedJarURL url of wrapped jar
+     * @param overwriteMode manifest overwrite mode
+     *
+     * @return the input stream for the bundle created from the jar
+     *
+     * @throws IOException - If wrapped jar cannot be read or bundle cannot be created
+     */
+    private InputStream getCachedInputStream( final BundleCache cache,
+                                              final URL wrappedJarURL,
+                                              final OverwriteMode overwriteMode )
+        throws IOException
+    {
+        final File localJar = WrappedJars.toLocalFile( wrappedJarURL );
+        if( localJar != null )
+        {
+            if( WrappedJars.isPassThrough( localJar, overwriteMode ) )
+            {
+                return new BufferedInputStream( new FileInputStream( localJar ) );
+            }
+            return openCached( cache, localJar, cache.digest( localJar, true ), overwriteMode );
+        }
+        // not a local file, so it is downloaded once
+        final File downloadedJar = WrappedJars.download(
+            URLUtils.prepareInputStream( wrappedJarURL, !m_configuration.getCertificateCheck() )
+        );
+        if( WrappedJars.isPassThrough( downloadedJar, overwriteMode ) )
+        {
+            return WrappedJars.openDeleteOnClose( downloadedJar );
+        }
+        try
+        {
+            return openCached( cache, downloadedJar, cache.digest( downloadedJar, false ), overwriteMode );
+        }
+        finally
+        {
+            downloadedJar.delete();
+        }
+    }
+
+    /**
+     * Opens the cached bundle of a jar, creating it with bnd on a cache miss. The bundle is keyed by jar content,
+     * wrapping instructions, jar info, overwrite mode and bnd version.
+     */
+    private InputStream openCached( final BundleCache cache,
+                                    final File jar,
+                                    final byte[] contentDigest,
+                                    final OverwriteMode overwriteMode )
+        throws IOException
+    {
+        final Properties instructions = m_parser.getWrappingProperties();
+        final String jarInfo = url.toExternalForm();
+        return cache.open(
+            BundleCache.key( contentDigest, instructions, jarInfo, overwriteMode.name(), About.CURRENT.toString() ),
+            new BundleCache.Generator()
+            {
+                public InputStream generate()
+                    throws IOException
+                {
+                    // bnd reads the whole jar before returning
+                    final InputStream in = new BufferedInputStream( new FileInputStream( jar ) );
+                    try
+                    {
+                        return BndUtils.createBundle( in, instructions, jarInfo, overwriteMode );
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Creates the bundle out of jar content using bnd. If parallel analysis is enabled and instructions are simple
+     * enough, the manifest is calculated without bnd, falling back to bnd if the jar cannot be analyzed.
+     *
+     * @param jar jar content; closed
+     *
+     * @return the input stream for the bundle created from the jar
+     *
+     * @throws IOException re-thrown from BndLib.createBundle
+     */
+    private InputStream createBundle( final InputStream jar )
+        throws IOException
+    {
+        try
+        {
+            final Properties instructions = m_parser.getWrappingProperties();
+            final OverwriteMode overwriteMode = m_parser.getOverwriteMode();
+            if( m_configuration.getParallelAnalysis()
+                && overwriteMode != OverwriteMode.MERGE
+                && ParallelAnalyzer.canAnalyze( instructions ) )
+            {
+                final byte[] content = ParallelAnalyzer.read( jar );
+                final InputStream bundle = ParallelAnalyzer.createBundle(
+                    content, instructions, url.toExternalForm(), overwriteMode == OverwriteMode.KEEP
+                );
+                if( bundle != null )
+                {
+                    return bundle;
+                }
+                return BndUtils.createBundle(
+                    new ByteArrayInputStream( content ), instructions, url.toExternalForm(), overwriteMode
+                );
+            }
+            return BndUtils.createBundle( jar, instructions, url.toExternalForm(), overwriteMode );
+        }
+        finally
+        {
+            jar.close();
+        }
     }
 
     /**
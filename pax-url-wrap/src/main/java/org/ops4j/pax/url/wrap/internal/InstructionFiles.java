@@ -0,0 +1,175 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.ops4j.net.URLUtils;
+
+/**
+ * Cache of parsed wrapping instruction files, shared by all wrap: urls referring to the same instructions file.<br/>
+ * A cached file is validated before use: local files by length and last modified time, mvn: urls of released
+ * versions are immutable, any other url is read again every time.
+ */
+final class InstructionFiles
+{
+
+    /**
+     * Maximum number of cached instruction files.
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * Parsed instruction files by url, least recently used first.
+     */
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<String, Entry>( 16, 0.75f, true )
+    {
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, Entry> eldest )
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Utility class.
+     */
+    private InstructionFiles()
+    {
+        // utility class
+    }
+
+    /**
+     * Returns the instructions of an instructions file, loading it only if not cached or changed since cached.
+     *
+     * @param url                url of the instructions file
+     * @param ignoreCertificates true if certificates should not be checked on SSL connection
+     *
+     * @return instructions (a copy, that can be changed)
+     *
+     * @throws IOException - If instructions file cannot be read
+     */
+    static Properties load( final URL url, final boolean ignoreCertificates )
+        throws IOException
+    {
+        final String key = url.toExternalForm();
+        final String validator = validator( url );
+        if( validator != null )
+        {
+            final Entry entry;
+            synchronized( CACHE )
+            {
+                entry = CACHE.get( key );
+            }
+            if( entry != null && validator.equals( entry.m_validator ) )
+            {
+                return copy( entry.m_instructions );
+            }
+        }
+        final Properties instructions = new Properties();
+        final InputStream is = URLUtils.prepareInputStream( url, ignoreCertificates );
+        try
+        {
+            instructions.load( is );
+        }
+        finally
+        {
+            is.close();
+        }
+        if( validator != null )
+        {
+            synchronized( CACHE )
+            {
+                CACHE.put( key, new Entry( validator, instructions ) );
+            }
+        }
+        return copy( instructions );
+    }
+
+    /**
+     * Returns the validator of an instructions file url, null if the file cannot be validated without reading it.
+     */
+    static String validator( final URL url )
+    {
+        final File file = WrappedJars.toLocalFile( url );
+        if( file != null )
+        {
+            return file.length() + "@" + file.lastModified();
+        }
+        if( "mvn".equals( url.getProtocol() ) && isReleased( url.toExternalForm() ) )
+        {
+            return "released";
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a mvn: url refers to a released (fixed) version:
+     * mvn:[repository!]groupId/artifactId/version[/type[/classifier]].
+     */
+    private static boolean isReleased( final String url )
+    {
+        final String coordinates = url.substring( url.lastIndexOf( '!' ) + 1 );
+        final String[] segments = coordinates.split( "/" );
+        if( segments.length < 3 )
+        {
+            return false;
+        }
+        final String version = segments[ 2 ];
+        return version.length() > 0
+               && !version.endsWith( "SNAPSHOT" )
+               && !"LATEST".equals( version )
+               && !"RELEASE".equals( version )
+               && version.indexOf( '[' ) < 0
+               && version.indexOf( '(' ) < 0;
+    }
+
+    private static Properties copy( final Properties instructions )
+    {
+        final Properties copy = new Properties();
+        copy.putAll( instructions );
+        return copy;
+    }
+
+    /**
+     * Parsed instructions file.
+     */
+    private static final class Entry
+    {
+
+        /**
+         * Validator of the file when parsed.
+         */
+        private final String m_validator;
+        /**
+         * Parsed instructions.
+         */
+        private final Properties m_instructions;
+
+        Entry( final String validator, final Properties instructions )
+        {
+            m_validator = validator;
+            m_instructions = instructions;
+        }
+
+    }
+
+}
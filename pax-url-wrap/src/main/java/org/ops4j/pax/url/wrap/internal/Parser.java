@@ -19,13 +19,9 @@
 package org.ops4j.pax.url.wrap.internal;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.ops4j.net.URLUtils;
 import org.ops4j.pax.swissbox.bnd.BndUtils;
 import org.ops4j.pax.swissbox.bnd.OverwriteMode;
 
@@ -51,22 +47,6 @@ public class Parser
      * Separator between wrapped jar url and instructions file url.
      */
     private static final String INSTRUCTIONS_FILE_SEPARATOR = ",";
-    /**
-     * Regexp pattern for matching jar, wrapping file and instructions.
-     */
-    private static final Pattern SYNTAX_JAR_BND_INSTR =
-        Pattern.compile( "(.+?)" + INSTRUCTIONS_FILE_SEPARATOR + "(.+?)\\" + INSTRUCTIONS_SEPARATOR + "(.+?)" );
-    /**
-     * Regexp pattern for matching jar and instructions.
-     */
-    private static final Pattern SYNTAX_JAR_INSTR =
-        Pattern.compile( "(.+?)\\" + INSTRUCTIONS_SEPARATOR + "(.+?)" );
-    /**
-     * Regexp pattern for matching jar and wrapping file.
-     */
-    private static final Pattern SYNTAX_JAR_BND =
-        Pattern.compile( "(.+?)" + INSTRUCTIONS_FILE_SEPARATOR + "(.+?)" );
-
     /**
      * Wrapped jar URL.
      */
@@ -103,26 +83,35 @@ public class Parser
                 "Path cannot start or end with " + INSTRUCTIONS_SEPARATOR + ". Syntax " + SYNTAX
             );
         }
+        m_certificateCheck = certificateCheck;
         m_wrappingProperties = new Properties();
-        Matcher matcher = SYNTAX_JAR_BND_INSTR.matcher( path );
-        if( matcher.matches() )
+        // single scan: first instructions file separator (not leading) and first instructions separator; the
+        // instructions separator belongs to the instructions file url only if there is something in between
+        final int fileSeparator = path.indexOf( INSTRUCTIONS_FILE_SEPARATOR, 1 );
+        final int separator = path.indexOf( INSTRUCTIONS_SEPARATOR );
+        final int fileInstructionsSeparator = fileSeparator > 0
+                                              ? path.indexOf( INSTRUCTIONS_SEPARATOR, fileSeparator + 2 )
+                                              : -1;
+        if( fileInstructionsSeparator > 0 )
         {
             // we have all the parts
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            parseInstructionsFile( new URL( matcher.group( 2 ) ) );
-            m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 3 ) ) );
+            m_wrappedJarURL = new URL( path.substring( 0, fileSeparator ) );
+            parseInstructionsFile( new URL( path.substring( fileSeparator + 1, fileInstructionsSeparator ) ) );
+            m_wrappingProperties.putAll(
+                BndUtils.parseInstructions( path.substring( fileInstructionsSeparator + 1 ) )
+            );
         }
-        else if( ( matcher = SYNTAX_JAR_INSTR.matcher( path ) ).matches() )
+        else if( separator > 0 )
         {
             // we have a wrapped jar and instructions
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            m_wrappingProperties.putAll( BndUtils.parseInstructions( matcher.group( 2 ) ) );
+            m_wrappedJarURL = new URL( path.substring( 0, separator ) );
+            m_wrappingProperties.putAll( BndUtils.parseInstructions( path.substring( separator + 1 ) ) );
         }
-        else if( ( matcher = SYNTAX_JAR_BND.matcher( path ) ).matches() )
+        else if( fileSeparator > 0 && fileSeparator < path.length() - 1 )
         {
             // we have a wrapped jar and a wrapping instructions file
-            m_wrappedJarURL = new URL( matcher.group( 1 ) );
-            parseInstructionsFile( new URL( matcher.group( 2 ) ) );
+            m_wrappedJarURL = new URL( path.substring( 0, fileSeparator ) );
+            parseInstructionsFile( new URL( path.substring( fileSeparator + 1 ) ) );
         }
         else
         {
@@ -141,34 +130,23 @@ public class Parser
             overwriteMode = OverwriteMode.KEEP;
         }
         m_overwriteMode = overwriteMode;
-        m_certificateCheck = certificateCheck;
     }
 
     /**
-     * Loads the properties out of an url.
+     * Loads the properties out of an url. Instruction files are cached, so a file shared by many wrap: urls is not
+     * read again if it did not change.
      *
      * @param bndFileURL url of the file containing the instructions
      *
      * @throws MalformedURLException if the file could not be read
+     * @see InstructionFiles#load(URL, boolean)
      */
     private void parseInstructionsFile( final URL bndFileURL )
         throws MalformedURLException
     {
         try
         {
-            InputStream is = null;
-            try
-            {
-                is = URLUtils.prepareInputStream( bndFileURL, !m_certificateCheck );
-                m_wrappingProperties.load( is );
-            }
-            finally
-            {
-                if( is != null )
-                {
-                    is.close();
-                }
-            }
+            m_wrappingProperties.putAll( InstructionFiles.load( bndFileURL, !m_certificateCheck ) );
         }
         catch( IOException e )
         {
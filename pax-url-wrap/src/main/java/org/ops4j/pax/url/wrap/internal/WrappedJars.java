@@ -0,0 +1,191 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+
+/**
+ * Utilities for wrapped jars.
+ */
+final class WrappedJars
+{
+
+    /**
+     * Utility class.
+     */
+    private WrappedJars()
+    {
+        // utility class
+    }
+
+    /**
+     * Returns the file of a file: url, null if url is not a local file.
+     *
+     * @param url url of wrapped jar
+     *
+     * @return local file or null
+     */
+    static File toLocalFile( final URL url )
+    {
+        if( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+        try
+        {
+            final File file = new File( url.toURI() );
+            return file.isFile() ? file : null;
+        }
+        catch( URISyntaxException e )
+        {
+            return null;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the jar would be passed through unchanged by bnd: overwrite mode is KEEP and the jar is already a
+     * bundle (has Import-Package or Export-Package). Only the manifest is read, using the zip central directory.
+     *
+     * @param jar           wrapped jar
+     * @param overwriteMode manifest overwrite mode
+     *
+     * @return true if the jar can be used as it is
+     */
+    static boolean isPassThrough( final File jar, final OverwriteMode overwriteMode )
+    {
+        if( overwriteMode != OverwriteMode.KEEP )
+        {
+            return false;
+        }
+        try
+        {
+            final JarFile jarFile = new JarFile( jar, false );
+            try
+            {
+                final Manifest manifest = jarFile.getManifest();
+                if( manifest == null )
+                {
+                    return false;
+                }
+                final Attributes attributes = manifest.getMainAttributes();
+                return attributes.getValue( "Export-Package" ) != null
+                       || attributes.getValue( "Import-Package" ) != null;
+            }
+            finally
+            {
+                jarFile.close();
+            }
+        }
+        catch( IOException e )
+        {
+            // not a (valid) jar, so let bnd report it
+            return false;
+        }
+    }
+
+    /**
+     * Copies a stream to a temporary file.
+     *
+     * @param in stream to copy; closed
+     *
+     * @return temporary file
+     *
+     * @throws IOException - If stream cannot be copied
+     */
+    static File download( final InputStream in )
+        throws IOException
+    {
+        final File file = File.createTempFile( "wrap", ".jar" );
+        boolean downloaded = false;
+        try
+        {
+            final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) );
+            try
+            {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while( ( read = in.read( buffer ) ) >= 0 )
+                {
+                    out.write( buffer, 0, read );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            downloaded = true;
+            return file;
+        }
+        finally
+        {
+            in.close();
+            if( !downloaded )
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Opens a stream of a (temporary) file that deletes the file when closed.
+     *
+     * @param file file to open
+     *
+     * @return input stream of file
+     *
+     * @throws FileNotFoundException - If file does not exist
+     */
+    static InputStream openDeleteOnClose( final File file )
+        throws FileNotFoundException
+    {
+        return new FilterInputStream( new BufferedInputStream( new FileInputStream( file ) ) )
+        {
+            @Override
+            public void close()
+                throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    file.delete();
+                }
+            }
+        };
+    }
+
+}
@@ -17,6 +17,8 @@
  */
 package org.ops4j.pax.url.wrap.internal;
 
+import java.io.File;
+
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -57,4 +59,82 @@ public class ConfigurationImplTest
         verify( propertyResolver );
     }
 
+    @Test
+    public void getCacheDirectory()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.cacheDirectory" ) ).andReturn( "target/wrap" );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Cache directory", new File( "target/wrap" ), config.getCacheDirectory() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getDefaultCacheDirectory()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.cacheDirectory" ) ).andReturn( null );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertNull( "Cache directory", config.getCacheDirectory() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getCacheMaxSize()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.cacheMaxSize" ) ).andReturn( "1024" );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Cache max size", Long.valueOf( 1024 ), config.getCacheMaxSize() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getDefaultCacheMaxSize()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.cacheMaxSize" ) ).andReturn( null );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Cache max size", Long.valueOf( 512L * 1024 * 1024 ), config.getCacheMaxSize() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getParallelAnalysis()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.parallelAnalysis" ) ).andReturn( "true" );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Parallel analysis", true, config.getParallelAnalysis() );
+        verify( propertyResolver );
+    }
+
+    @Test
+    public void getDefaultParallelAnalysis()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+
+        expect( propertyResolver.get( "org.ops4j.pax.url.wrap.parallelAnalysis" ) ).andReturn( null );
+
+        replay( propertyResolver );
+        Configuration config = new ConfigurationImpl( propertyResolver );
+        assertEquals( "Parallel analysis", false, config.getParallelAnalysis() );
+        verify( propertyResolver );
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.util.Properties;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link InstructionFiles}.
+ */
+public class InstructionFilesTest
+{
+
+    @Test
+    public void localFileIsReloadedWhenChanged()
+        throws IOException
+    {
+        final File file = File.createTempFile( "instructions", ".bnd", new File( "target" ) );
+        try
+        {
+            Files.write( file.toPath(), "Bundle-Name=v1".getBytes( "UTF-8" ) );
+            final URL url = file.toURI().toURL();
+
+            final Properties instructions = InstructionFiles.load( url, false );
+            assertEquals( "v1", instructions.getProperty( "Bundle-Name" ) );
+            // returned instructions are a copy
+            instructions.setProperty( "Bundle-Name", "changed" );
+            assertEquals( "v1", InstructionFiles.load( url, false ).getProperty( "Bundle-Name" ) );
+
+            Files.write( file.toPath(), "Bundle-Name=v22".getBytes( "UTF-8" ) );
+            assertEquals( "v22", InstructionFiles.load( url, false ).getProperty( "Bundle-Name" ) );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void releasedMavenUrlsAreImmutable()
+        throws MalformedURLException
+    {
+        assertNotNull( InstructionFiles.validator( mvn( "org.ops4j/instructions/1.0/bnd" ) ) );
+        assertNotNull( InstructionFiles.validator( mvn( "http://repo!org.ops4j/instructions/1.0" ) ) );
+        assertNull( InstructionFiles.validator( mvn( "org.ops4j/instructions/1.0-SNAPSHOT/bnd" ) ) );
+        assertNull( InstructionFiles.validator( mvn( "org.ops4j/instructions/LATEST" ) ) );
+        assertNull( InstructionFiles.validator( mvn( "org.ops4j/instructions/[1.0,2.0)" ) ) );
+        assertNull( InstructionFiles.validator( mvn( "org.ops4j/instructions" ) ) );
+    }
+
+    @Test
+    public void remoteUrlsAreNotValidated()
+        throws MalformedURLException
+    {
+        assertNull( InstructionFiles.validator( new URL( "http://localhost/instructions.bnd" ) ) );
+    }
+
+    private static URL mvn( final String path )
+        throws MalformedURLException
+    {
+        return new URL( "mvn", null, -1, path, new URLStreamHandler()
+        {
+            @Override
+            protected URLConnection openConnection( final URL url )
+            {
+                throw new UnsupportedOperationException();
+            }
+        }
+        );
+    }
+
+}
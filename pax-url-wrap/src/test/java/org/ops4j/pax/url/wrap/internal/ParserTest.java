@@ -186,6 +186,23 @@ public class ParserTest
         assertEquals( "Property 3", "v4", props.getProperty( "Bundle-URL" ) );
     }
 
+    @Test
+    public void instructionsAfterEmptyInstructionsURLBelongToWrappedJar()
+        throws MalformedURLException
+    {
+        Parser parser = new Parser( "file:toWrap.jar,$Bundle-Name=v1", true );
+        assertEquals( "Wrapped Jar URL", new URL( "file:toWrap.jar," ), parser.getWrappedJarURL() );
+        assertEquals( "Property 1", "v1", parser.getWrappingProperties().getProperty( "Bundle-Name" ) );
+    }
+
+    @Test
+    public void wrappedJarURLEndingWithInstructionsFileSeparator()
+        throws MalformedURLException
+    {
+        Parser parser = new Parser( "file:toWrap.jar,", true );
+        assertEquals( "Wrapped Jar URL", new URL( "file:toWrap.jar," ), parser.getWrappedJarURL() );
+    }
+
     @Test
     public void defaultOverwriteMode()
         throws MalformedURLException
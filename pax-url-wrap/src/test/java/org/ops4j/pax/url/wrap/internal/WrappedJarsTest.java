@@ -0,0 +1,107 @@
+/*
+ * Licensed  under the  Apache License,  Version 2.0  (the "License");
+ * you may not use  this file  except in  compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed  under the  License is distributed on an "AS IS" BASIS,
+ * WITHOUT  WARRANTIES OR CONDITIONS  OF ANY KIND, either  express  or
+ * implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.wrap.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.junit.After;
+import org.junit.Test;
+import org.ops4j.pax.swissbox.bnd.OverwriteMode;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link WrappedJars}.
+ */
+public class WrappedJarsTest
+{
+
+    private final List<File> m_files = new ArrayList<File>();
+
+    @After
+    public void tearDown()
+    {
+        for( File file : m_files )
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void bundleIsPassedThroughOnKeep()
+        throws IOException
+    {
+        final File bundle = createJar( "Export-Package", "org.ops4j.test" );
+        assertTrue( WrappedJars.isPassThrough( bundle, OverwriteMode.KEEP ) );
+        assertFalse( WrappedJars.isPassThrough( bundle, OverwriteMode.MERGE ) );
+        assertFalse( WrappedJars.isPassThrough( bundle, OverwriteMode.FULL ) );
+    }
+
+    @Test
+    public void plainJarIsNotPassedThrough()
+        throws IOException
+    {
+        assertFalse( WrappedJars.isPassThrough( createJar( "Implementation-Title", "test" ), OverwriteMode.KEEP ) );
+    }
+
+    @Test
+    public void invalidJarIsNotPassedThrough()
+        throws IOException
+    {
+        final File file = createTempFile( "invalid" );
+        Files.write( file.toPath(), "not a jar".getBytes( "UTF-8" ) );
+        assertFalse( WrappedJars.isPassThrough( file, OverwriteMode.KEEP ) );
+    }
+
+    private File createJar( final String header, final String value )
+        throws IOException
+    {
+        final File file = createTempFile( "wrapped" );
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put( Attributes.Name.MANIFEST_VERSION, "1.0" );
+        manifest.getMainAttributes().putValue( header, value );
+        final JarOutputStream out = new JarOutputStream( new FileOutputStream( file ), manifest );
+        try
+        {
+            out.putNextEntry( new JarEntry( "org/ops4j/test/resource.txt" ) );
+            out.write( "resource".getBytes( "UTF-8" ) );
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    private File createTempFile( final String prefix )
+        throws IOException
+    {
+        final File file = File.createTempFile( prefix, ".jar", new File( "target" ) );
+        m_files.add( file );
+        return file;
+    }
+
+}